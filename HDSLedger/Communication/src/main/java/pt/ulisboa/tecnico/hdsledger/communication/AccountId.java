@@ -0,0 +1,118 @@
+package pt.ulisboa.tecnico.hdsledger.communication;
+
+import java.nio.ByteBuffer;
+import java.security.PublicKey;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import pt.ulisboa.tecnico.hdsledger.utilities.RSAEncryption;
+
+/*
+ * Identifier of an account: the SHA-256 of the encoded (X.509) public key of
+ * its owner. Ids are interned, so the key of an account is hashed once and
+ * equal ids are usually the same instance. Its textual form (Base64) is the
+ * one account updates carry.
+ */
+public final class AccountId implements Comparable<AccountId> {
+
+    // Interned ids are dropped past this size, keys sent by misbehaving
+    // clients must not grow the tables forever
+    private static final int MAX_INTERNED = 64 * 1024;
+
+    // Digest -> id
+    private static final Map<ByteBuffer, AccountId> INTERNED = new ConcurrentHashMap<>();
+    // Encoded public key (Base64) -> id
+    private static final Map<String, AccountId> BY_KEY = new ConcurrentHashMap<>();
+
+    // SHA-256 of the encoded public key
+    private final byte[] digest;
+    // Base64 of the digest
+    private final String text;
+    private final int hash;
+
+    private AccountId(byte[] digest) {
+        this.digest = digest;
+        this.text = Base64.getEncoder().encodeToString(digest);
+        this.hash = Arrays.hashCode(digest);
+    }
+
+    public static AccountId of(PublicKey publicKey) {
+        return of(RSAEncryption.encodePublicKey(publicKey));
+    }
+
+    /*
+     * @param encodedKey Base64 of the encoded public key (as sent in requests)
+     *
+     * @return The id or null if the key is not valid Base64
+     */
+    public static AccountId of(String encodedKey) {
+        if (encodedKey == null)
+            return null;
+        AccountId id = BY_KEY.get(encodedKey);
+        if (id != null)
+            return id;
+        byte[] key;
+        try {
+            key = Base64.getDecoder().decode(encodedKey);
+        } catch (IllegalArgumentException e) {
+            return null;
+        }
+        id = intern(RSAEncryption.digest(ByteBuffer.wrap(key)));
+        trim(BY_KEY);
+        BY_KEY.put(encodedKey, id);
+        return id;
+    }
+
+    /*
+     * @param text Textual form of an id (see toString)
+     */
+    public static AccountId fromString(String text) {
+        return intern(Base64.getDecoder().decode(text));
+    }
+
+    private static AccountId intern(byte[] digest) {
+        AccountId id = INTERNED.get(ByteBuffer.wrap(digest));
+        if (id != null)
+            return id;
+        trim(INTERNED);
+        AccountId created = new AccountId(digest);
+        id = INTERNED.putIfAbsent(ByteBuffer.wrap(created.digest), created);
+        return id == null ? created : id;
+    }
+
+    private static void trim(Map<?, AccountId> table) {
+        if (table.size() >= MAX_INTERNED)
+            table.clear();
+    }
+
+    public byte[] getDigest() {
+        return digest.clone();
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o)
+            return true;
+        if (!(o instanceof AccountId))
+            return false;
+        AccountId that = (AccountId) o;
+        return hash == that.hash && Arrays.equals(digest, that.digest);
+    }
+
+    @Override
+    public int hashCode() {
+        return hash;
+    }
+
+    @Override
+    public int compareTo(AccountId other) {
+        return Arrays.compareUnsigned(digest, other.digest);
+    }
+
+    @Override
+    public String toString() {
+        return text;
+    }
+}
@@ -0,0 +1,82 @@
+package pt.ulisboa.tecnico.hdsledger.communication;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.List;
+
+import pt.ulisboa.tecnico.hdsledger.utilities.MerkleTree;
+
+/*
+ * Merkle tree over the account updates of a consensus instance, sorted by
+ * account. With Merkle attestation a node signs the root of this tree instead
+ * of every update, and each update is shown to be part of it by a MerkleProof.
+ * Since the order is fixed, every node computes the same root.
+ */
+public class AccountUpdateTree {
+
+    private static final Comparator<UpdateAccount> ORDER = Comparator.comparing(UpdateAccount::getHashPubKey);
+
+    // Account updates, sorted by account
+    private final List<UpdateAccount> updates;
+    // Tree over their JSON representation
+    private final MerkleTree tree;
+
+    public AccountUpdateTree(Collection<UpdateAccount> updates) {
+        this.updates = updates.stream().sorted(ORDER).toList();
+        this.tree = new MerkleTree(this.updates.stream().map(AccountUpdateTree::leaf).toList());
+    }
+
+    /*
+     * @return True if the updates are sorted by account, with one update per
+     * account (the order the tree is built in)
+     */
+    public static boolean isSorted(List<UpdateAccount> updates) {
+        for (int i = 0; i < updates.size(); i++) {
+            if (updates.get(i) == null || updates.get(i).getHashPubKey() == null)
+                return false;
+            if (i > 0 && ORDER.compare(updates.get(i - 1), updates.get(i)) >= 0)
+                return false;
+        }
+        return true;
+    }
+
+    public List<UpdateAccount> getUpdates() {
+        return updates;
+    }
+
+    public byte[] getRoot() {
+        return tree.getRoot();
+    }
+
+    /*
+     * @return What the nodes sign to attest every update of the tree
+     */
+    public String getSignedData() {
+        return signedData(tree.getRoot());
+    }
+
+    /*
+     * @param index Position of the update (in getUpdates)
+     */
+    public MerkleProof getProof(int index) {
+        return new MerkleProof(index, tree.size(), tree.getProof(index));
+    }
+
+    /*
+     * What a node signs to attest a root (distinct from the JSON of any
+     * account update, which is signed without Merkle attestation)
+     */
+    public static String signedData(byte[] root) {
+        return "merkle-root:" + Base64.getEncoder().encodeToString(root);
+    }
+
+    /*
+     * Leaf of an update: the same JSON representation signed without Merkle
+     * attestation
+     */
+    static byte[] leaf(UpdateAccount update) {
+        return update.toJson().getBytes(StandardCharsets.UTF_8);
+    }
+}
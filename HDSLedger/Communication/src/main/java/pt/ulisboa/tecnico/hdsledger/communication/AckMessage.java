@@ -0,0 +1,36 @@
+package pt.ulisboa.tecnico.hdsledger.communication;
+
+/*
+ * Acknowledges every message received from a peer up to an id, plus a
+ * selection of the ones received after the first missing message
+ */
+public class AckMessage extends Message {
+
+    // Every message up to (and including) this id was received (-1 if none)
+    private int cumulativeId;
+    // Bit i is set if message cumulativeId + 2 + i was received
+    // (message cumulativeId + 1 is missing by definition)
+    private long selectiveBitmap;
+
+    public AckMessage(String senderId, int cumulativeId, long selectiveBitmap) {
+        super(senderId, Type.ACK);
+        this.cumulativeId = cumulativeId;
+        this.selectiveBitmap = selectiveBitmap;
+    }
+
+    public int getCumulativeId() {
+        return cumulativeId;
+    }
+
+    public void setCumulativeId(int cumulativeId) {
+        this.cumulativeId = cumulativeId;
+    }
+
+    public long getSelectiveBitmap() {
+        return selectiveBitmap;
+    }
+
+    public void setSelectiveBitmap(long selectiveBitmap) {
+        this.selectiveBitmap = selectiveBitmap;
+    }
+}
@@ -0,0 +1,35 @@
+package pt.ulisboa.tecnico.hdsledger.communication;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+/*
+ * Reusable direct buffers of a fixed size, so receiving a datagram does not
+ * allocate. Buffers beyond the pool capacity are simply left to the GC.
+ */
+public class BufferPool {
+
+    // Size of each buffer (bytes)
+    private final int bufferSize;
+    // Buffers ready to be used
+    private final BlockingQueue<ByteBuffer> free;
+
+    public BufferPool(int bufferSize, int capacity) {
+        this.bufferSize = bufferSize;
+        this.free = new ArrayBlockingQueue<>(capacity);
+    }
+
+    /*
+     * @return A cleared buffer (allocated if the pool is empty)
+     */
+    public ByteBuffer acquire() {
+        ByteBuffer buffer = free.poll();
+        return buffer == null ? ByteBuffer.allocateDirect(bufferSize) : buffer;
+    }
+
+    public void release(ByteBuffer buffer) {
+        buffer.clear();
+        free.offer(buffer);
+    }
+}
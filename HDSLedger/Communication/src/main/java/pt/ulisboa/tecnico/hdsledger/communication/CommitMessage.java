@@ -1,6 +1,8 @@
 package pt.ulisboa.tecnico.hdsledger.communication;
 
+import java.util.Collection;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 
 import com.google.gson.Gson;
@@ -11,6 +13,11 @@ public class CommitMessage {
     private boolean validBlock;
     // Map Signature of update -> UpdatedAccount
     private Map<String, UpdateAccount> accountUpdates = new HashMap<>();
+    // Account updates sorted by account, attested together by rootSignature
+    // (only with Merkle attestation, accountUpdates is then empty)
+    private List<UpdateAccount> attestedUpdates;
+    // Signature of the root of the tree of attestedUpdates (see AccountUpdateTree)
+    private String rootSignature;
 
     public CommitMessage(boolean validBlock) {
         this.validBlock = validBlock;
@@ -21,10 +28,35 @@ public class CommitMessage {
         this.accountUpdates = accountUpdates;
     }
 
+    public CommitMessage(boolean validBlock, AccountUpdateTree tree, String rootSignature) {
+        this.validBlock = validBlock;
+        this.attestedUpdates = tree.getUpdates();
+        this.rootSignature = rootSignature;
+    }
+
     public Map<String, UpdateAccount> getUpdateAccountSignatures() {
         return accountUpdates;
     }
 
+    /*
+     * @return Account updates, however they are attested
+     */
+    public Collection<UpdateAccount> getAccountUpdates() {
+        return isMerkleAttested() ? attestedUpdates : accountUpdates.values();
+    }
+
+    public List<UpdateAccount> getAttestedUpdates() {
+        return attestedUpdates;
+    }
+
+    public String getRootSignature() {
+        return rootSignature;
+    }
+
+    public boolean isMerkleAttested() {
+        return rootSignature != null;
+    }
+
     public boolean isValidBlock() {
         return validBlock;
     }
@@ -0,0 +1,47 @@
+package pt.ulisboa.tecnico.hdsledger.communication;
+
+/*
+ * One part of the encoded body of a message too large for a datagram.
+ * The fragments of a message take consecutive message ids, so the id of the
+ * first one (message id - index) identifies the message being reassembled.
+ */
+public class FragmentMessage extends Message {
+
+    // Position of the fragment in the message
+    private int index;
+    // Number of fragments of the message
+    private int count;
+    // Bytes of the encoded body carried by this fragment
+    private byte[] chunk;
+
+    public FragmentMessage(String senderId, int index, int count, byte[] chunk) {
+        super(senderId, Type.FRAGMENT);
+        this.index = index;
+        this.count = count;
+        this.chunk = chunk;
+    }
+
+    public int getIndex() {
+        return index;
+    }
+
+    public void setIndex(int index) {
+        this.index = index;
+    }
+
+    public int getCount() {
+        return count;
+    }
+
+    public void setCount(int count) {
+        this.count = count;
+    }
+
+    public byte[] getChunk() {
+        return chunk;
+    }
+
+    public void setChunk(byte[] chunk) {
+        this.chunk = chunk;
+    }
+}
@@ -1,13 +1,28 @@
 package pt.ulisboa.tecnico.hdsledger.communication;
 
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
 import com.google.gson.Gson;
 
 public class LedgerRequest extends Message {
-    
+
+    private static final Gson GSON = new Gson();
+
+    // Payloads kept per generation of the view table
+    private static final int VIEW_GENERATION_SIZE = 8 * 1024;
+    // Serialized request -> decoded payload, shared by every copy of a request
+    // (the pooled one and the ones of each block it is sent in). Bounded with
+    // two generations: the current one replaces the previous one once full.
+    private static volatile Map<String, Object> views = new ConcurrentHashMap<>();
+    private static volatile Map<String, Object> previousViews = new ConcurrentHashMap<>();
+
     // Serialized request
     private String message;
     // Signature of amount with client's private key
     private String clientSignature;
+    // Payload decoded on first use (not serialized)
+    private transient volatile Object view;
 
     public LedgerRequest(String senderId, Type type, String message, String signature) {
         super(senderId, type);
@@ -15,16 +30,63 @@ public class LedgerRequest extends Message {
         this.clientSignature = signature;
     }
 
+    /*
+     * The deserialize methods decode the payload (and its keys) once, later
+     * calls on this or any other copy of the request return the same view.
+     * Views are shared, so they are read-only: to alter a request, set a
+     * new message.
+     */
     public LedgerRequestBalance deserializeBalance() {
-        return new Gson().fromJson(message, LedgerRequestBalance.class);
+        return view(LedgerRequestBalance.class);
     }
 
     public LedgerRequestCreate deserializeCreate() {
-        return new Gson().fromJson(message, LedgerRequestCreate.class);
+        return view(LedgerRequestCreate.class);
     }
 
     public LedgerRequestTransfer deserializeTransfer() {
-        return new Gson().fromJson(message, LedgerRequestTransfer.class);
+        return view(LedgerRequestTransfer.class);
+    }
+
+    private <T> T view(Class<T> type) {
+        Object decoded = this.view;
+        if (type.isInstance(decoded))
+            return type.cast(decoded);
+        if (message == null)
+            return null;
+
+        String key = message;
+        decoded = views.get(key);
+        if (decoded == null)
+            decoded = previousViews.get(key);
+        if (!type.isInstance(decoded)) {
+            decoded = GSON.fromJson(key, type);
+            if (decoded == null)
+                return null;
+            if (decoded instanceof LedgerRequestTransfer transfer)
+                transfer.decodeKeys();
+            else if (decoded instanceof LedgerRequestCreate create)
+                create.decodeKeys();
+            else if (decoded instanceof LedgerRequestBalance balance)
+                balance.decodeKeys();
+        }
+        remember(key, decoded);
+        this.view = decoded;
+        return type.cast(decoded);
+    }
+
+    private static void remember(String key, Object decoded) {
+        Map<String, Object> generation = views;
+        generation.put(key, decoded);
+        if (generation.size() < VIEW_GENERATION_SIZE)
+            return;
+        synchronized (LedgerRequest.class) {
+            // Another thread may have rotated the generations already
+            if (views == generation) {
+                previousViews = generation;
+                views = new ConcurrentHashMap<>();
+            }
+        }
     }
 
     public String getMessage() {
@@ -33,6 +95,7 @@ public class LedgerRequest extends Message {
 
     public void setMessage(String message) {
         this.message = message;
+        this.view = null;
     }
 
     public String getClientSignature() {
@@ -4,16 +4,23 @@ import pt.ulisboa.tecnico.hdsledger.utilities.RSAEncryption;
 
 import java.security.PublicKey;
 
+/*
+ * Payload of a balance request. Decoded payloads are shared by every copy of
+ * the request (see LedgerRequest), so they are read-only.
+ */
 public class LedgerRequestBalance {
 
     // Client nonce
-    private Integer nonce;
+    private final Integer nonce;
     // Account Public Key
-    private String accountPubKey;
+    private final String accountPubKey;
     // Consistency mode
-    private ConsistencyMode consistencyMode;
+    private final ConsistencyMode consistencyMode;
     // Last known consensus instance
-    private int lastKnownConsensusInstance;
+    private final int lastKnownConsensusInstance;
+    // Decoded key and account id, computed on first use (not serialized)
+    private transient PublicKey decodedAccountPubKey;
+    private transient AccountId accountId;
 
     public enum ConsistencyMode {
         CONSENSUS,
@@ -29,34 +36,34 @@ public class LedgerRequestBalance {
     }
 
     public PublicKey getAccountPubKey() {
-        return RSAEncryption.decodePublicKey(this.accountPubKey);
+        if (this.decodedAccountPubKey == null)
+            this.decodedAccountPubKey = RSAEncryption.decodePublicKey(this.accountPubKey);
+        return this.decodedAccountPubKey;
     }
 
-    public void setAccountPubKey(PublicKey accountPubKey) {
-        this.accountPubKey = RSAEncryption.encodePublicKey(accountPubKey);
+    public AccountId getAccountId() {
+        if (this.accountId == null)
+            this.accountId = AccountId.of(this.accountPubKey);
+        return this.accountId;
     }
 
-    public ConsistencyMode getConsistencyMode() {
-        return consistencyMode;
+    /*
+     * Decodes the key and account id ahead of their first use
+     */
+    void decodeKeys() {
+        getAccountPubKey();
+        getAccountId();
     }
 
-    public void setConsistencyMode(ConsistencyMode consistencyMode) {
-        this.consistencyMode = consistencyMode;
+    public ConsistencyMode getConsistencyMode() {
+        return consistencyMode;
     }
 
     public int getLastKnownConsensusInstance() {
         return lastKnownConsensusInstance;
     }
 
-    public void setLastKnownConsensusInstance(int lastKnownConsensusInstance) {
-        this.lastKnownConsensusInstance = lastKnownConsensusInstance;
-    }
-
     public int getNonce() {
         return this.nonce;
     }
-
-    public void setNonce(Integer nonce) {
-        this.nonce = nonce;
-    }
 }
@@ -4,12 +4,19 @@ import pt.ulisboa.tecnico.hdsledger.utilities.RSAEncryption;
 
 import java.security.PublicKey;
 
+/*
+ * Payload of a create request. Decoded payloads are shared by every copy of
+ * the request (see LedgerRequest), so they are read-only.
+ */
 public class LedgerRequestCreate {
 
     // Client nonce
-    private int nonce;
+    private final int nonce;
     // Account Public Key
-    private String accountPubKey;
+    private final String accountPubKey;
+    // Decoded key and account id, computed on first use (not serialized)
+    private transient PublicKey decodedAccountPubKey;
+    private transient AccountId accountId;
 
     public LedgerRequestCreate(int nonce, PublicKey accountPubKey) {
         this.nonce = nonce;
@@ -20,15 +27,23 @@ public class LedgerRequestCreate {
         return nonce;
     }
 
-    public void setNonce(int nonce) {
-        this.nonce = nonce;
+    public PublicKey getAccountPubKey() {
+        if (this.decodedAccountPubKey == null)
+            this.decodedAccountPubKey = RSAEncryption.decodePublicKey(this.accountPubKey);
+        return this.decodedAccountPubKey;
     }
 
-    public PublicKey getAccountPubKey() {
-        return RSAEncryption.decodePublicKey(this.accountPubKey);
+    public AccountId getAccountId() {
+        if (this.accountId == null)
+            this.accountId = AccountId.of(this.accountPubKey);
+        return this.accountId;
     }
 
-    public void setAccountPubKey(PublicKey accountPubKey) {
-        this.accountPubKey = RSAEncryption.encodePublicKey(accountPubKey);
+    /*
+     * Decodes the key and account id ahead of their first use
+     */
+    void decodeKeys() {
+        getAccountPubKey();
+        getAccountId();
     }
 }
@@ -5,16 +5,25 @@ import pt.ulisboa.tecnico.hdsledger.utilities.RSAEncryption;
 import java.math.BigDecimal;
 import java.security.PublicKey;
 
+/*
+ * Payload of a transfer request. Decoded payloads are shared by every copy of
+ * the request (see LedgerRequest), so they are read-only.
+ */
 public class LedgerRequestTransfer {
 
     // Client nonce
-    private int nonce;
+    private final int nonce;
     // Source Public Key
-    private String sourcePubKey;
+    private final String sourcePubKey;
     // Destination Public Key
-    private String destinationPubKey;
+    private final String destinationPubKey;
     // Amount to transfer
-    private BigDecimal amount;
+    private final BigDecimal amount;
+    // Decoded keys and account ids, computed on first use (not serialized)
+    private transient PublicKey decodedSourcePubKey;
+    private transient PublicKey decodedDestinationPubKey;
+    private transient AccountId sourceAccountId;
+    private transient AccountId destinationAccountId;
 
     public LedgerRequestTransfer(int nonce, PublicKey sourcePubKey, PublicKey destinationPubKey, BigDecimal amount) {
         this.nonce = nonce;
@@ -27,31 +36,41 @@ public class LedgerRequestTransfer {
         return nonce;
     }
 
-    public void setNonce(int nonce) {
-        this.nonce = nonce;
-    }
-
     public PublicKey getSourcePubKey() {
-        return RSAEncryption.decodePublicKey(this.sourcePubKey);
+        if (this.decodedSourcePubKey == null)
+            this.decodedSourcePubKey = RSAEncryption.decodePublicKey(this.sourcePubKey);
+        return this.decodedSourcePubKey;
     }
 
-    public void setSourcePubKey(PublicKey sourcePubKey) {
-        this.sourcePubKey = RSAEncryption.encodePublicKey(sourcePubKey);
+    public AccountId getSourceAccountId() {
+        if (this.sourceAccountId == null)
+            this.sourceAccountId = AccountId.of(this.sourcePubKey);
+        return this.sourceAccountId;
     }
 
     public PublicKey getDestinationPubKey() {
-        return RSAEncryption.decodePublicKey(this.destinationPubKey);
+        if (this.decodedDestinationPubKey == null)
+            this.decodedDestinationPubKey = RSAEncryption.decodePublicKey(this.destinationPubKey);
+        return this.decodedDestinationPubKey;
     }
 
-    public void setDestinationPubKey(PublicKey destinationPubKey) {
-        this.destinationPubKey = RSAEncryption.encodePublicKey(destinationPubKey);
+    public AccountId getDestinationAccountId() {
+        if (this.destinationAccountId == null)
+            this.destinationAccountId = AccountId.of(this.destinationPubKey);
+        return this.destinationAccountId;
     }
 
-    public BigDecimal getAmount() {
-        return amount;
+    /*
+     * Decodes the keys and account ids ahead of their first use
+     */
+    void decodeKeys() {
+        getSourcePubKey();
+        getSourceAccountId();
+        getDestinationPubKey();
+        getDestinationAccountId();
     }
 
-    public void setAmount(BigDecimal amount) {
-        this.amount = amount;
+    public BigDecimal getAmount() {
+        return amount;
     }
 }
@@ -12,8 +12,11 @@ public class LedgerResponse extends Message {
     private boolean successful;
     // The result of the transactions
     private UpdateAccount updateAccount;
-    // Signatures of the account update
+    // Signatures of the account update (or of the root of its tree, see proof)
     private Map<String, String> signatures;
+    // Proof that the account update is part of the tree whose root the signatures
+    // sign (only with Merkle attestation)
+    private MerkleProof proof;
     // Replying to nonces (only for new READ operations)
     private Integer nonce = null;
     // Set of message ids this is replying to (for ACKs)
@@ -49,6 +52,14 @@ public class LedgerResponse extends Message {
         return signatures;
     }
 
+    public MerkleProof getProof() {
+        return proof;
+    }
+
+    public void setProof(MerkleProof proof) {
+        this.proof = proof;
+    }
+
     public List<Integer> getRepliesTo() {
         return repliesTo;
     }
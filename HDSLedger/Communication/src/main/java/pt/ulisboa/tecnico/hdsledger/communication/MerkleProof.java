@@ -0,0 +1,47 @@
+package pt.ulisboa.tecnico.hdsledger.communication;
+
+import java.util.List;
+
+import pt.ulisboa.tecnico.hdsledger.utilities.MerkleTree;
+
+/*
+ * Shows that an account update is part of the tree of account updates of its
+ * consensus instance (see AccountUpdateTree), whose root the nodes signed
+ */
+public class MerkleProof {
+
+    // Position of the update in the tree
+    private final int index;
+    // Number of updates in the tree
+    private final int size;
+    // Hashes of the siblings on the path to the root, from the bottom
+    private final List<byte[]> siblings;
+
+    public MerkleProof(int index, int size, List<byte[]> siblings) {
+        this.index = index;
+        this.size = size;
+        this.siblings = siblings;
+    }
+
+    public int getIndex() {
+        return index;
+    }
+
+    public int getSize() {
+        return size;
+    }
+
+    public List<byte[]> getSiblings() {
+        return siblings;
+    }
+
+    /*
+     * @return Root of the tree the update is part of, according to this proof,
+     * or null if the proof is malformed
+     */
+    public byte[] computeRoot(UpdateAccount update) {
+        if (update == null)
+            return null;
+        return MerkleTree.computeRoot(AccountUpdateTree.leaf(update), index, size, siblings);
+    }
+}
@@ -2,7 +2,7 @@ package pt.ulisboa.tecnico.hdsledger.communication;
 
 import java.io.Serializable;
 
-public class Message implements Serializable {
+public class Message implements Serializable, Cloneable {
 
     // Sender identifier
     private String senderId;
@@ -17,7 +17,9 @@ public class Message implements Serializable {
         // For Node Messages
         PRE_PREPARE, PREPARE, COMMIT, ACK, IGNORE,
         // For Ledger Responses
-        REPLY;
+        REPLY,
+        // Part of a message too large for a datagram
+        FRAGMENT;
     }
 
     public Message(String senderId, Type type) {
@@ -48,4 +50,17 @@ public class Message implements Serializable {
     public void setType(Type type) {
         this.type = type;
     }
+
+    /*
+     * @return Copy of the message that shares the values of its fields (which
+     * are never changed once the message is sent)
+     */
+    public Message shallowCopy() {
+        try {
+            return (Message) super.clone();
+        } catch (CloneNotSupportedException e) {
+            // Cannot happen, Message is Cloneable
+            throw new IllegalStateException(e);
+        }
+    }
 }
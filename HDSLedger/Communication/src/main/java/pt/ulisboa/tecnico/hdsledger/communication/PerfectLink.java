@@ -1,20 +1,40 @@
 package pt.ulisboa.tecnico.hdsledger.communication;
 
-import com.google.gson.Gson;
 import com.google.gson.GsonBuilder;
 
 import pt.ulisboa.tecnico.hdsledger.communication.Message.Type;
+import pt.ulisboa.tecnico.hdsledger.communication.codec.Frame;
+import pt.ulisboa.tecnico.hdsledger.communication.codec.MessageCodecs;
+import pt.ulisboa.tecnico.hdsledger.communication.codec.MessageHeader;
+import pt.ulisboa.tecnico.hdsledger.communication.codec.Packet;
+import pt.ulisboa.tecnico.hdsledger.communication.session.Session;
+import pt.ulisboa.tecnico.hdsledger.communication.session.SessionManager;
 import pt.ulisboa.tecnico.hdsledger.utilities.*;
 import pt.ulisboa.tecnico.hdsledger.utilities.ProcessConfig.ByzantineBehavior;
 
 import java.io.IOException;
+import java.io.InterruptedIOException;
 import java.net.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedSelectorException;
+import java.nio.channels.DatagramChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
 import java.text.MessageFormat;
 import java.util.*;
 import java.util.Map.Entry;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.logging.Level;
 import java.util.logging.LogManager;
 import java.util.stream.Collectors;
@@ -22,10 +42,40 @@ import java.util.stream.Collectors;
 public class PerfectLink {
 
     private static final CustomLogger LOGGER = new CustomLogger(PerfectLink.class.getName());
-    // Time to wait for an ACK before resending the message
-    private final int BASE_SLEEP_TIME;
-    // UDP Socket
-    private final DatagramSocket socket;
+    // Maximum number of unacknowledged messages per destination
+    private static final int MAX_OUTSTANDING_MESSAGES = 512;
+    // Message ids remembered per sender to discard duplicates (messages further
+    // ahead of the first missing one are left unacknowledged until it arrives)
+    private static final int RECEIVED_MESSAGES_WINDOW = 1 << 16;
+    // Largest datagram that can be received
+    private static final int MAX_DATAGRAM_SIZE = 65535;
+    // Datagrams waiting for a decode thread, per thread
+    private static final int DECODE_BACKLOG = 128;
+    // Decoded messages waiting for receive
+    private static final int INBOUND_CAPACITY = 4096;
+    // Larger bodies are split in fragments of this size (each one fits in a datagram)
+    private static final int FRAGMENT_SIZE = 60 * 1024;
+    // Largest message that can be sent (bytes)
+    private static final int MAX_MESSAGE_SIZE = 16 * 1024 * 1024;
+    // Memory for incomplete messages, per sender and in total (bytes)
+    private static final long REASSEMBLY_SENDER_BUDGET = 2L * MAX_MESSAGE_SIZE;
+    private static final long REASSEMBLY_TOTAL_BUDGET = 8L * MAX_MESSAGE_SIZE;
+    // Socket buffers, large enough for the fragments of a few messages
+    private static final int SOCKET_BUFFER_SIZE = 4 * 1024 * 1024;
+    // UDP channels bound to the port (several with SO_REUSEPORT, the kernel spreads
+    // the senders among them), each one read by its own receiver thread
+    private final DatagramChannel[] channels;
+    // Channel datagrams are sent from (the first one)
+    private final DatagramChannel channel;
+    // Buffers the datagrams are read into
+    private final BufferPool buffers;
+    // Decode and verify datagrams off the receiver thread, each one for a
+    // partition of the senders so the datagrams of a sender stay in order
+    private final ExecutorService[] decoders;
+    // Datagrams dropped because the backlog of their decode thread was full
+    private final AtomicLong droppedDatagrams = new AtomicLong(0);
+    // Decoded messages waiting for receive
+    private final BlockingQueue<Inbound> inbound = new ArrayBlockingQueue<>(INBOUND_CAPACITY);
     // Map of all nodes in the network
     private final Map<String, ProcessConfig> nodes = new ConcurrentHashMap<>();
     // Number of maximum byzantine nodes
@@ -36,43 +86,185 @@ public class PerfectLink {
     private final Class<? extends Message> messageClass;
     // Set of received messages from specific node (prevent duplicates)
     private final Map<String, CollapsingSet> receivedMessages = new ConcurrentHashMap<>();
-    // Set of received ACKs from specific node
-    private final CollapsingSet receivedAcks = new CollapsingSet();
-    // Message counter
-    private final AtomicInteger messageCounter = new AtomicInteger(0);
+    // Resends messages until they are acknowledged
+    private final RetransmissionScheduler scheduler;
+    // Destination id -> message counter (ids are consecutive for each destination,
+    // otherwise the receiver never sees the ids sent to other nodes, its floor
+    // stalls and everything past RECEIVED_MESSAGES_WINDOW is refused forever)
+    private final Map<String, AtomicInteger> messageCounters = new ConcurrentHashMap<>();
+    // Destination id -> frames and ACK waiting for the next datagram
+    private final Map<String, Outbox> outboxes = new ConcurrentHashMap<>();
+    // Messages received in fragments
+    private final Reassembler reassembler = new Reassembler(FRAGMENT_SIZE, MAX_MESSAGE_SIZE,
+            REASSEMBLY_SENDER_BUDGET, REASSEMBLY_TOTAL_BUDGET);
+    // Time outbound messages wait to be packed together (ms)
+    private final long flushWindow;
+    // Authenticated sessions with every other process
+    private final SessionManager sessions;
     // Send messages to self by pushing to queue instead of through the network
     private final Queue<Message> localhostQueue = new ConcurrentLinkedQueue<>();
+    // Messages delivered through localhostQueue
+    private final AtomicLong loopbackCount = new AtomicLong(0);
+    // Messages delivered from the network
+    private final AtomicLong networkCount = new AtomicLong(0);
 
-    public PerfectLink(ProcessConfig self, int port, ProcessConfig[] nodes, Class<? extends Message> messageClass) {
-        this(self, port, nodes, messageClass, true, 200);
+    /*
+     * Decoded datagram
+     *
+     * @param accepted False if the message must be returned as is (malformed,
+     * bad signature, unexpected type), without ACK nor duplicate detection
+     */
+    private record Inbound(Message message, boolean accepted) {
+    }
+
+    // Wakes up receive when a message is queued in localhostQueue
+    private static final Inbound LOOPBACK = new Inbound(null, false);
+
+    static class Outbox {
+        // Address of the peer
+        private final InetSocketAddress address;
+        // Message id -> encoded frame waiting for the next flush (attempts made
+        // while there is no session replace the queued copy instead of piling up)
+        private final NavigableMap<Integer, byte[]> frames = new ConcurrentSkipListMap<>();
+        // A flush is already scheduled
+        private final AtomicBoolean flushScheduled = new AtomicBoolean(false);
+        // Messages were received from the peer since the last ACK
+        private final AtomicBoolean ackPending = new AtomicBoolean(false);
+
+        Outbox(InetSocketAddress address) {
+            this.address = address;
+        }
+
+        /*
+         * Queues the frame of a message for the next flush
+         */
+        void queue(int messageId, byte[] frame) {
+            frames.put(messageId, frame);
+        }
+
+        /*
+         * @return Message id -> frame of every queued message, removed from the outbox
+         */
+        NavigableMap<Integer, byte[]> drain() {
+            NavigableMap<Integer, byte[]> drained = new TreeMap<>();
+            Entry<Integer, byte[]> frame;
+            while ((frame = frames.pollFirstEntry()) != null)
+                drained.put(frame.getKey(), frame.getValue());
+            return drained;
+        }
+    }
+
+    public PerfectLink(ProcessConfig self, int port, ProcessConfig[] nodes, Class<? extends Message> messageClass,
+            KeyRing keyRing) {
+        this(self, port, nodes, messageClass, keyRing, true, 200, 1);
     }
 
+    /*
+     * @param shards Number of sockets bound to the port (Linux only if more than one)
+     */
     public PerfectLink(ProcessConfig self, int port, ProcessConfig[] nodes, Class<? extends Message> messageClass,
-            boolean activateLogs, int baseSleepTime) {
+            KeyRing keyRing, int shards) {
+        this(self, port, nodes, messageClass, keyRing, true, 200, shards);
+    }
+
+    public PerfectLink(ProcessConfig self, int port, ProcessConfig[] nodes, Class<? extends Message> messageClass,
+            KeyRing keyRing, boolean activateLogs, int baseSleepTime) {
+        this(self, port, nodes, messageClass, keyRing, activateLogs, baseSleepTime, 1);
+    }
+
+    public PerfectLink(ProcessConfig self, int port, ProcessConfig[] nodes, Class<? extends Message> messageClass,
+            KeyRing keyRing, boolean activateLogs, int baseSleepTime, int shards) {
 
         this.config = self;
         this.messageClass = messageClass;
         this.maxByzantineNodeCount = Math.floorDiv(nodes.length - 1, 3);
-        this.BASE_SLEEP_TIME = baseSleepTime;
+        this.flushWindow = self.getFlushWindow();
+        // baseSleepTime is only the timeout until a round trip to the peer is measured
+        this.scheduler = new RetransmissionScheduler(self.getId() + ":" + port,
+                Math.max(2, Runtime.getRuntime().availableProcessors()), baseSleepTime,
+                self.getMinRetransmissionTimeout(), self.getMaxRetransmissionTimeout(),
+                self.getRetransmissionJitter(), MAX_OUTSTANDING_MESSAGES);
 
         Arrays.stream(nodes).forEach(node -> {
             String id = node.getId();
             this.nodes.put(id, node);
-            receivedMessages.put(id, new CollapsingSet());
+            receivedMessages.put(id, new CollapsingSet(RECEIVED_MESSAGES_WINDOW));
+            messageCounters.put(id, new AtomicInteger(0));
+            outboxes.put(id, new Outbox(new InetSocketAddress(node.getHostname(), node.getPort())));
         });
 
+        // A sender always hashes to the same socket, so its messages stay in order
+        // and its duplicate detection state is only used by one receiver thread
+        this.channels = new DatagramChannel[Math.max(1, shards)];
+        Selector[] selectors = new Selector[this.channels.length];
         try {
-            this.socket = new DatagramSocket(port, InetAddress.getByName(config.getHostname()));
-        } catch (UnknownHostException | SocketException e) {
+            InetSocketAddress address = new InetSocketAddress(InetAddress.getByName(config.getHostname()), port);
+            for (int i = 0; i < this.channels.length; i++) {
+                DatagramChannel shard = DatagramChannel.open();
+                if (this.channels.length > 1)
+                    shard.setOption(StandardSocketOptions.SO_REUSEPORT, true);
+                shard.bind(address);
+                shard.configureBlocking(false);
+                shard.setOption(StandardSocketOptions.SO_RCVBUF, SOCKET_BUFFER_SIZE);
+                shard.setOption(StandardSocketOptions.SO_SNDBUF, SOCKET_BUFFER_SIZE);
+                selectors[i] = Selector.open();
+                shard.register(selectors[i], SelectionKey.OP_READ);
+                this.channels[i] = shard;
+            }
+        } catch (IOException | UnsupportedOperationException e) {
             throw new LedgerException(ErrorMessage.CannotOpenSocket);
         }
+        this.channel = this.channels[0];
+
+        // When the backlog of a decode thread is full its datagrams are dropped
+        // (and retransmitted later), so the receiver thread keeps reading the others
+        int decodeThreads = self.getDecodeThreads();
+        this.decoders = new ExecutorService[decodeThreads];
+        for (int i = 0; i < decodeThreads; i++) {
+            String name = self.getId() + ":" + port + "-decoder-" + i;
+            this.decoders[i] = new ThreadPoolExecutor(1, 1, 0, TimeUnit.MILLISECONDS,
+                    new ArrayBlockingQueue<>(DECODE_BACKLOG), runnable -> {
+                        Thread thread = new Thread(runnable, name);
+                        thread.setDaemon(true);
+                        return thread;
+                    }, new ThreadPoolExecutor.AbortPolicy());
+        }
+        this.buffers = new BufferPool(MAX_DATAGRAM_SIZE, decodeThreads * (DECODE_BACKLOG + 1) + 1);
+
+        this.sessions = new SessionManager(self, this.nodes.keySet().stream()
+                .filter(id -> !id.equals(self.getId())).toList(), keyRing, scheduler, baseSleepTime,
+                self.getSessionRekeyInterval(), this::transmitHandshake, this::sessionEstablished);
+
+        for (int i = 0; i < this.channels.length; i++) {
+            DatagramChannel shard = this.channels[i];
+            Selector selector = selectors[i];
+            Thread receiver = new Thread(() -> select(shard, selector), self.getId() + ":" + port + "-receiver-" + i);
+            receiver.setDaemon(true);
+            receiver.start();
+        }
+
+        // Handshakes only once the receiver threads can read the replies
+        this.sessions.start();
+
         if (!activateLogs) {
             LogManager.getLogManager().reset();
         }
     }
 
-    public void ackAll(List<Integer> messageIds) {
-        receivedAcks.addAll(messageIds);
+    public void ackAll(String nodeId, List<Integer> messageIds) {
+        messageIds.forEach(messageId -> acknowledge(nodeId, messageId));
+    }
+
+    /*
+     * Stops retransmitting a message once it is acknowledged (explicitly or implicitly)
+     *
+     * @param nodeId The node the message was sent to
+     *
+     * @param messageId The acknowledged message identifier
+     */
+    private void acknowledge(String nodeId, int messageId) {
+        // Implied by a later message, so it does not measure the round trip
+        scheduler.acknowledge(nodeId, messageId, false);
     }
 
     /*
@@ -81,8 +273,9 @@ public class PerfectLink {
      * @param data The message to be broadcasted
      */
     public void broadcast(Message data) {
-        Gson gson = new Gson();
-        nodes.forEach((destId, dest) -> send(destId, gson.fromJson(gson.toJson(data), data.getClass())));
+        // Encoded once, only the link header differs between destinations
+        List<byte[]> bodies = encode(data);
+        nodes.forEach((destId, dest) -> send(destId, data, bodies));
     }
 
     /*
@@ -94,13 +287,14 @@ public class PerfectLink {
      * @param Message data2 The second message to be broadcasted
      */
     public void alternatingBroadcast(Message data1, Message data2) {
-        Gson gson = new Gson();
+        List<byte[]> body1 = encode(data1);
+        List<byte[]> body2 = encode(data2);
         AtomicInteger parity = new AtomicInteger(1);
         nodes.forEach((destId, dest) -> {
             if (parity.getAndIncrement() % 2 == 0)
-                send(destId, gson.fromJson(gson.toJson(data1), data1.getClass()));
+                send(destId, data1, body1);
             else
-                send(destId, gson.fromJson(gson.toJson(data2), data2.getClass()));
+                send(destId, data2, body2);
         });
     }
 
@@ -134,10 +328,10 @@ public class PerfectLink {
 
         if (n > nodeKeys.size())
             throw new LedgerException(ErrorMessage.NoLeader);
-        if (n == nodeKeys.size())
+        if (n == nodeKeys.size()) {
             broadcast(data);
-
-        Gson gson = new Gson();
+            return;
+        }
 
         // Ensure that leader is always in the list
         Optional<Entry<String, ProcessConfig>> leader = nodes.entrySet().stream()
@@ -156,7 +350,8 @@ public class PerfectLink {
                 keys.add(randomKey);
         }
 
-        keys.forEach(destId -> send(destId, gson.fromJson(gson.toJson(data), data.getClass())));
+        List<byte[]> bodies = encode(data);
+        keys.forEach(destId -> send(destId, data, bodies));
     }
 
     /*
@@ -167,142 +362,387 @@ public class PerfectLink {
      * @param data The message to be sent
      */
     public void send(String nodeId, Message data) {
+        send(nodeId, data, null);
+    }
 
-        // Spawn a new thread to send the message
-        // To avoid blocking while waiting for ACK
-        new Thread(() -> {
-            try {
-                ProcessConfig node = nodes.get(nodeId);
-                if (node == null)
-                    throw new LedgerException(ErrorMessage.NoSuchNode);
+    /*
+     * Encodes the body of a message, split in fragments if it does not fit in a
+     * datagram. Every fragment is a message of its own, acknowledged and
+     * retransmitted independently, so a lost datagram only costs its fragments.
+     */
+    private List<byte[]> encode(Message data) {
+        byte[] body = MessageCodecs.encodeBody(data);
+        if (body.length <= FRAGMENT_SIZE)
+            return List.of(body);
+        if (body.length > MAX_MESSAGE_SIZE)
+            throw new LedgerException(ErrorMessage.MessageTooLarge);
+
+        int count = (body.length + FRAGMENT_SIZE - 1) / FRAGMENT_SIZE;
+        List<byte[]> fragments = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            byte[] chunk = Arrays.copyOfRange(body, i * FRAGMENT_SIZE, Math.min(body.length, (i + 1) * FRAGMENT_SIZE));
+            fragments.add(MessageCodecs.encodeBody(new FragmentMessage(data.getSenderId(), i, count, chunk)));
+        }
+        return fragments;
+    }
 
-                data.setMessageId(messageCounter.getAndIncrement());
+    /*
+     * @param bodies Encoded body (or fragments) of data shared with other
+     * destinations, null if data is only sent to this node (it is then stamped
+     * with the message id)
+     */
+    private void send(String nodeId, Message data, List<byte[]> bodies) {
+        if (!nodes.containsKey(nodeId))
+            throw new LedgerException(ErrorMessage.NoSuchNode);
 
-                // If the message is not ACK, it will be resent
-                InetAddress destAddress = InetAddress.getByName(node.getHostname());
-                int destPort = node.getPort();
-                int count = 1;
-                int messageId = data.getMessageId();
-                int sleepTime = BASE_SLEEP_TIME;
+        InetSocketAddress address = outboxes.get(nodeId).address;
+        InetAddress destAddress = address.getAddress();
+        int destPort = address.getPort();
+
+        // Send message to local queue instead of using network if destination in self
+        // (no encoding nor ACK, a message shared with other destinations is
+        // delivered as a shallow copy, so the handler of this node does not
+        // share the object with the sender)
+        if (nodeId.equals(this.config.getId())) {
+            int messageId = messageCounters.get(nodeId).getAndIncrement();
+            Message delivered = bodies == null ? data : data.shallowCopy();
+            delivered.setMessageId(messageId);
+            this.localhostQueue.add(delivered);
+            // If the inbound queue is full receive does not block anyway
+            this.inbound.offer(LOOPBACK);
+            this.loopbackCount.incrementAndGet();
+
+            LOGGER.log(Level.INFO,
+                    MessageFormat.format("{0} - Message {1} (locally) sent to {2}:{3} successfully",
+                            config.getId(), data.getType(), destAddress, destPort));
+
+            return;
+        }
 
-                // Send message to local queue instead of using network if destination in self
-                if (nodeId.equals(this.config.getId())) {
-                    this.localhostQueue.add(data);
+        boolean shared = bodies != null;
+        if (!shared)
+            bodies = encode(data);
+        // Fragments take consecutive ids, the receiver finds the first one from the index
+        int firstId = messageCounters.get(nodeId).getAndAdd(bodies.size());
+        if (!shared)
+            data.setMessageId(firstId);
+
+        for (int i = 0; i < bodies.size(); i++) {
+            int messageId = firstId + i;
+            String part = bodies.size() == 1 ? ""
+                    : MessageFormat.format(" (fragment {0} of {1})", i + 1, bodies.size());
+            // Encoded once, every attempt sends the same bytes
+            byte[] frame = MessageCodecs.frame(messageId, bodies.get(i));
+
+            // Resent (using exponential back-off) until receive sees the corresponding ACK
+            scheduler.submit(nodeId, messageId, attempt -> {
+                LOGGER.log(Level.INFO, MessageFormat.format(
+                        "{0} - Sending {1} message to {2}:{3} with message ID {4}{5} - Attempt #{6}", config.getId(),
+                        data.getType(), destAddress, destPort, messageId, part, attempt));
 
-                    LOGGER.log(Level.INFO,
-                            MessageFormat.format("{0} - Message {1} (locally) sent to {2}:{3} successfully",
-                                    config.getId(), data.getType(), destAddress, destPort));
+                enqueue(nodeId, messageId, frame);
+            });
+        }
+    }
 
-                    return;
-                }
+    /*
+     * Queues an encoded message for the next datagram to a node
+     */
+    private void enqueue(String nodeId, int messageId, byte[] frame) {
+        Outbox outbox = outboxes.get(nodeId);
+        outbox.queue(messageId, frame);
+        scheduleFlush(nodeId, outbox);
+    }
 
-                for (;;) {
-                    LOGGER.log(Level.INFO, MessageFormat.format(
-                            "{0} - Sending {1} message to {2}:{3} with message ID {4} - Attempt #{5}", config.getId(),
-                            data.getType(), destAddress, destPort, messageId, count++));
+    /*
+     * Acknowledges the messages received from a node with the next datagram to it
+     * (a datagram with just the ACK is sent if there is nothing else to send)
+     */
+    private void acknowledgeLater(String nodeId) {
+        Outbox outbox = outboxes.get(nodeId);
+        outbox.ackPending.set(true);
+        scheduleFlush(nodeId, outbox);
+    }
 
-                    unreliableSend(destAddress, destPort, data);
+    private void scheduleFlush(String nodeId, Outbox outbox) {
+        if (!outbox.flushScheduled.getAndSet(true))
+            scheduler.schedule(() -> flush(nodeId), flushWindow);
+    }
 
-                    // Wait (using exponential back-off), then look for ACK
-                    Thread.sleep(sleepTime);
+    /*
+     * Packs the pending ACK and messages to a node in as few datagrams as possible
+     */
+    private void flush(String nodeId) {
+        Outbox outbox = outboxes.get(nodeId);
+        // Frames queued from now on schedule another flush
+        outbox.flushScheduled.set(false);
+
+        // Everything stays queued until the session is established (see sessionEstablished)
+        Optional<Session> session = sessions.outbound(nodeId);
+        if (session.isEmpty())
+            return;
+
+        List<byte[]> frames = new ArrayList<>();
+        List<Integer> messageIds = new ArrayList<>();
+        if (outbox.ackPending.getAndSet(false))
+            frames.add(MessageCodecs.frame(0, MessageCodecs.encodeBody(ackFor(nodeId))));
+        NavigableMap<Integer, byte[]> queued = outbox.drain();
+        messageIds.addAll(queued.keySet());
+        frames.addAll(queued.values());
+        if (frames.isEmpty())
+            return;
+
+        for (List<byte[]> group : Packet.group(frames, Packet.MAX_SIZE)) {
+            ByteBuffer packet = session.get().seal(group);
+            try {
+                // A full socket buffer drops the datagram, as the network could
+                if (channel.send(packet, outbox.address) == 0)
+                    LOGGER.log(Level.INFO, MessageFormat.format("{0} - Dropped datagram to {1} (send buffer full)",
+                            config.getId(), nodeId));
+            } catch (IOException e) {
+                LOGGER.log(Level.INFO, MessageFormat.format("{0} - Error while sending to {1}: {2}",
+                        config.getId(), nodeId, e.getMessage()));
+            }
+        }
+        // Round trips start now, not when the messages were queued
+        scheduler.transmitted(nodeId, messageIds);
+    }
 
-                    // receive method will set receivedAcks when sees corresponding ACK
-                    if (receivedAcks.contains(messageId))
-                        break;
+    private void sessionEstablished(String nodeId) {
+        scheduleFlush(nodeId, outboxes.get(nodeId));
+    }
 
-                    // Might be a problem if it overflows (unlikely)
-                    sleepTime <<= 1;
-                }
+    /*
+     * Sends a handshake datagram, outside of any session
+     */
+    private void transmitHandshake(String nodeId, ByteBuffer datagram) {
+        try {
+            channel.send(datagram, outboxes.get(nodeId).address);
+        } catch (IOException e) {
+            LOGGER.log(Level.INFO, MessageFormat.format("{0} - Error while sending handshake to {1}: {2}",
+                    config.getId(), nodeId, e.getMessage()));
+        }
+    }
 
-                LOGGER.log(Level.INFO, MessageFormat.format("{0} - Message {1} sent to {2}:{3} successfully",
-                        config.getId(), data.getType(), destAddress, destPort));
-            } catch (InterruptedException | UnknownHostException e) {
-                e.printStackTrace();
-            }
-        }).start();
+    /*
+     * Cumulative and selective ACK of the messages received from a node (the
+     * floor of the received set is the last message received with every
+     * earlier one, see RECEIVED_MESSAGES_WINDOW)
+     */
+    private AckMessage ackFor(String nodeId) {
+        return ackFor(config.getId(), receivedMessages.get(nodeId));
     }
 
     /*
-     * Sends a message to a specific node without guarantee of delivery
-     * Mainly used to send ACKs, if they are lost, the original message will be
-     * resent
-     *
-     * @param address The address of the destination node
+     * Stops resending the messages an ACK covers (cumulatively or selectively)
      *
-     * @param port The port of the destination node
+     * @return Number of messages acknowledged for the first time
+     */
+    static int acknowledge(RetransmissionScheduler scheduler, AckMessage ack) {
+        String senderId = ack.getSenderId();
+        int acknowledged = scheduler.acknowledgeUpTo(senderId, ack.getCumulativeId());
+        for (int i = 0; i < Long.SIZE; i++) {
+            if ((ack.getSelectiveBitmap() & (1L << i)) != 0
+                    && scheduler.acknowledge(senderId, ack.getCumulativeId() + 2 + i))
+                acknowledged++;
+        }
+        return acknowledged;
+    }
+
+    /*
+     * @param senderId Process sending the ACK
      *
-     * @param data The message to be sent
+     * @param received Messages it received from the destination of the ACK
+     */
+    static AckMessage ackFor(String senderId, CollapsingSet received) {
+        int cumulativeId = received.getFloor();
+        long bitmap = 0;
+        for (int i = 0; i < Long.SIZE; i++) {
+            if (received.contains(cumulativeId + 2 + i))
+                bitmap |= 1L << i;
+        }
+        return new AckMessage(senderId, cumulativeId, bitmap);
+    }
+
+    /*
+     * Receiver thread: reads every pending datagram into a pooled buffer and
+     * hands it to the decode threads
      */
-    public void unreliableSend(InetAddress hostname, int port, Message data) {
-        new Thread(() -> {
+    private void select(DatagramChannel channel, Selector selector) {
+        while (true) {
             try {
+                selector.select();
+                selector.selectedKeys().clear();
+
+                while (true) {
+                    ByteBuffer buffer = buffers.acquire();
+                    SocketAddress source = channel.receive(buffer);
+                    if (source == null) {
+                        buffers.release(buffer);
+                        break;
+                    }
+                    buffer.flip();
+                    dispatch(buffer, (InetSocketAddress) source);
+                }
+            } catch (ClosedSelectorException e) {
+                return;
+            } catch (IOException e) {
+                LOGGER.log(Level.INFO, MessageFormat.format("{0} - Error while receiving: {1}", config.getId(),
+                        e.getMessage()));
+            }
+        }
+    }
+
+    /*
+     * Hands a datagram to the decode thread of its sender (every datagram from
+     * an address goes to the same thread)
+     */
+    private void dispatch(ByteBuffer datagram, InetSocketAddress source) {
+        ExecutorService decoder = decoders[Math.floorMod(source.hashCode(), decoders.length)];
+        try {
+            decoder.execute(() -> decode(datagram, source));
+        } catch (RejectedExecutionException e) {
+            buffers.release(datagram);
+            long dropped = droppedDatagrams.incrementAndGet();
+            LOGGER.log(Level.INFO, MessageFormat.format("{0} - Dropped datagram from {1}:{2}, decode backlog full "
+                    + "({3} dropped so far)", config.getId(), source.getAddress(), source.getPort(), dropped));
+        }
+    }
 
-                // Sign message
-                String jsonString = new Gson().toJson(data);
-                Optional<String> signature;
-                try {
-                    signature = Optional.of(RSAEncryption.sign(jsonString, config.getPrivateKeyPath()));
-                } catch (Exception e) {
-                    throw new LedgerException(ErrorMessage.FailedToSignMessage);
+    /*
+     * Decodes the messages of a datagram straight from its buffer and queues them
+     * for receive (blocking while receive is behind, which fills the backlog)
+     */
+    private void decode(ByteBuffer datagram, InetSocketAddress source) {
+        // BYZANTINE_TESTS
+        // Any byzantine node will not verify signatures nor HMACs
+        boolean verify = config.getByzantineBehavior() == ByzantineBehavior.NONE;
+
+        List<Inbound> messages = new ArrayList<>();
+        try {
+            if (Packet.kindOf(datagram) == Packet.Kind.DATA) {
+                Packet packet = Packet.parse(datagram);
+                Optional<String> peerId = sessions.open(packet, verify);
+                if (peerId.isPresent()) {
+                    for (ByteBuffer frame : packet.getFrames())
+                        messages.add(parse(frame, peerId.get(), source));
+                } else {
+                    warnInvalidMessage(source);
+                    messages.add(new Inbound(new Message(null, Message.Type.IGNORE), false));
                 }
+            } else {
+                sessions.handshake(datagram, verify);
+            }
+        } catch (LedgerException e) {
+            LOGGER.log(Level.INFO, MessageFormat.format("{0} - Malformed datagram from {1}:{2}",
+                    config.getId(), source.getAddress(), source.getPort()));
+            messages.add(new Inbound(new Message(null, Message.Type.IGNORE), false));
+        } finally {
+            // Decoded messages do not reference the buffer
+            buffers.release(datagram);
+        }
 
-                // Serialize message
-                SignedMessage message = new SignedMessage(jsonString, signature.get());
-                byte[] buf = new Gson().toJson(message).getBytes();
+        try {
+            for (Inbound message : messages)
+                inbound.put(message);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
 
-                // Create UDP packet
-                DatagramPacket packet = new DatagramPacket(buf, buf.length, hostname, port);
+    private void warnInvalidMessage(InetSocketAddress source) {
+        LOGGER.log(Level.INFO, MessageFormat.format(
+                "@@@@@@@@@@@@@@@@@@@@@@@@@@@@@@@@@@@@@@@@@@@@@@@@@\n"
+                        + "@       WARNING: UNAUTHENTICATED MESSAGE!       @\n"
+                        + "@@@@@@@@@@@@@@@@@@@@@@@@@@@@@@@@@@@@@@@@@@@@@@@@@\n"
+                        + "IT IS POSSIBLE THAT NODE {0}:{1} IS DOING SOMETHING NASTY!",
+                source.getAddress(), source.getPort()));
+    }
 
-                socket.send(packet);
+    /*
+     * @param peerId Peer whose session authenticated the frame
+     */
+    private Inbound parse(ByteBuffer datagram, String peerId, InetSocketAddress source) {
+        // Only the header is decoded until the sender is checked
+        Frame frame;
+        try {
+            frame = Frame.parse(datagram);
+        } catch (LedgerException e) {
+            LOGGER.log(Level.INFO, MessageFormat.format("{0} - Malformed message from {1}:{2}",
+                    config.getId(), source.getAddress(), source.getPort()));
+            return new Inbound(new Message(null, Message.Type.IGNORE), false);
+        }
+        MessageHeader header = frame.getHeader();
+
+        // The session authenticates the sender, a frame cannot claim to be from another process
+        // (byzantine nodes will avoid the check to cooperate with each other)
+        // BYZANTINE_TESTS
+        if (config.getByzantineBehavior() == ByzantineBehavior.NONE
+                && (!nodes.containsKey(header.getSenderId()) || !header.getSenderId().equals(peerId))) {
+            warnInvalidMessage(source);
+            return new Inbound(header.toMessage(Message.Type.IGNORE), false);
+        }
 
-            } catch (IOException e) {
-                e.printStackTrace();
-                throw new LedgerException(ErrorMessage.SocketSendingError);
-            }
-        }).start();
+        // Retransmitted messages were already delivered, they are only acknowledged again
+        CollapsingSet received = receivedMessages.get(header.getSenderId());
+        if (!header.getType().equals(Message.Type.ACK) && received != null
+                && received.contains(header.getMessageId()))
+            return new Inbound(header.toMessage(header.getType()), true);
+
+        // Deserialize for the correct type
+        Message message;
+        try {
+            message = MessageCodecs.decode(frame);
+        } catch (LedgerException e) {
+            return new Inbound(header.toMessage(Message.Type.IGNORE), false);
+        }
+        if (!(message instanceof AckMessage) && !(message instanceof FragmentMessage)
+                && !messageClass.isInstance(message))
+            return new Inbound(header.toMessage(Message.Type.IGNORE), false);
+        return new Inbound(message, true);
     }
 
     /*
      * Receives a message from any node in the network (blocking)
      */
     public Message receive() throws IOException, ClassNotFoundException {
+        while (true) {
+            Message message = receiveNext();
+            if (message != null)
+                return message;
+        }
+    }
+
+    /*
+     * @return Next message, null if it was a fragment of an incomplete message
+     */
+    private Message receiveNext() throws IOException {
 
         Message message;
         Boolean local = false;
-        SignedMessage responseData = null;
-        DatagramPacket response = null;
-        
-        if (this.localhostQueue.size() > 0) {
-            message = this.localhostQueue.poll();
-            local = true; 
-            this.receivedAcks.add(message.getMessageId());
-        } else {
-            byte[] buf = new byte[65535];
-            response = new DatagramPacket(buf, buf.length);
-
-            socket.receive(response);
-
-            byte[] buffer = Arrays.copyOfRange(response.getData(), 0, response.getLength());
-            responseData = new Gson().fromJson(new String(buffer), SignedMessage.class);
-            message = new Gson().fromJson(responseData.getMessage(), Message.class);
-
-            // Verify signature (byzantine nodes will avoid it to cooperate with each other)
-            // BYZANTINE_TESTS
-            // Any byzantine node will not verify signatures
-            if (config.getByzantineBehavior() == ByzantineBehavior.NONE
-                    && !RSAEncryption.verifySignature(responseData.getMessage(), responseData.getSignature(),
-                            nodes.get(message.getSenderId()).getPublicKeyPath())) {
-                message.setType(Message.Type.IGNORE);
 
-                LOGGER.log(Level.INFO, MessageFormat.format(
-                        "@@@@@@@@@@@@@@@@@@@@@@@@@@@@@@@@@@@@@@@@@@@@@@@@@\n"
-                                + "@      WARNING: INVALID MESSAGE SIGNATURE!      @\n"
-                                + "@@@@@@@@@@@@@@@@@@@@@@@@@@@@@@@@@@@@@@@@@@@@@@@@@\n"
-                                + "IT IS POSSIBLE THAT NODE {0}:{1} IS DOING SOMETHING NASTY!",
-                        InetAddress.getByName(response.getAddress().getHostName()), response.getPort()));
+        // Local messages go first, the own vote of the node is never delayed by the network
+        while (true) {
+            message = this.localhostQueue.poll();
+            if (message != null) {
+                local = true;
+                break;
+            }
 
-                return message;
+            Inbound next;
+            try {
+                next = inbound.take();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException();
             }
+            if (next == LOOPBACK)
+                continue;
+            if (!next.accepted())
+                return next.message();
+            message = next.message();
+            networkCount.incrementAndGet();
+            break;
         }
 
         String senderId = message.getSenderId();
@@ -313,17 +753,44 @@ public class PerfectLink {
 
         // Handle ACKS, since it's possible to receive multiple acks from the same
         // message
-        if (message.getType().equals(Message.Type.ACK)) {
-            receivedAcks.add(messageId);
+        if (message instanceof AckMessage ack) {
+            int acknowledged = acknowledge(scheduler, ack);
+            if (acknowledged > 0)
+                LOGGER.log(Level.INFO, MessageFormat.format("{0} - {1} messages sent to {2} successfully",
+                        config.getId(), acknowledged, senderId));
             return message;
         }
 
-        // It's not an ACK -> Deserialize for the correct type
-        if (!local)
-            message = new Gson().fromJson(responseData.getMessage(), this.messageClass);
+        // Too far ahead of a missing message, left unacknowledged so it is retransmitted
+        // later (only messages that were received are remembered)
+        if (!receivedMessages.get(senderId).accepts(messageId)) {
+            LOGGER.log(Level.INFO, MessageFormat.format("{0} - Message {1} from {2} is too far ahead, ignoring it",
+                    config.getId(), messageId, senderId));
+            return null;
+        }
 
-        boolean isRepeated = !receivedMessages.get(message.getSenderId()).add(messageId);
-        Type originalType = message.getType();
+        boolean isRepeated;
+        if (message instanceof FragmentMessage fragment && !receivedMessages.get(senderId).contains(messageId)) {
+            int firstId = messageId - fragment.getIndex();
+            Reassembler.Result result = reassembler.add(senderId, firstId, fragment);
+            // Not enough memory, left unacknowledged so it is retransmitted later
+            if (!result.acknowledged())
+                return null;
+            // Each fragment is acknowledged as it arrives, the sender only resends missing ones
+            receivedMessages.get(senderId).add(messageId);
+            acknowledgeLater(senderId);
+            if (result.body() == null)
+                return null;
+
+            // Delivered once, when the last fragment arrives (duplicates are fragments)
+            message = reassemble(senderId, firstId, result.body());
+            isRepeated = false;
+        } else {
+            isRepeated = !receivedMessages.get(senderId).add(messageId);
+            // Duplicates are acknowledged again, the previous ACK may have been lost
+            if (!local)
+                acknowledgeLater(senderId);
+        }
         // Message already received (add returns false if already exists) => Discard
         if (isRepeated) {
             message.setType(Message.Type.IGNORE);
@@ -337,43 +804,95 @@ public class PerfectLink {
                 return message;
             }
             case IGNORE -> {
-                if (!originalType.equals(Type.COMMIT) && !originalType.equals(Type.REPLY))
-                    return message;
+                return message;
             }
             case PREPARE -> {
                 ConsensusMessage consensusMessage = (ConsensusMessage) message;
                 if (consensusMessage.getReplyTo() != null && consensusMessage.getReplyTo().equals(config.getId()))
-                    receivedAcks.add(consensusMessage.getReplyToMessageId());
+                    acknowledge(senderId, consensusMessage.getReplyToMessageId());
 
                 return message;
             }
             case COMMIT -> {
                 ConsensusMessage consensusMessage = (ConsensusMessage) message;
                 if (consensusMessage.getReplyTo() != null && consensusMessage.getReplyTo().equals(config.getId()))
-                    receivedAcks.add(consensusMessage.getReplyToMessageId());
+                    acknowledge(senderId, consensusMessage.getReplyToMessageId());
             }
             case REPLY -> {
                 LedgerResponse castedMessage = (LedgerResponse) message;
-                receivedAcks.addAll(castedMessage.getRepliesTo());
+                castedMessage.getRepliesTo().forEach(id -> acknowledge(senderId, id));
             }
             default -> {
                 System.out.println("WHAT: que mensagem vai responder com um ack: " + message.getType());
             }
         }
 
-        if (!local) {
-            InetAddress address = InetAddress.getByName(response.getAddress().getHostAddress());
-            int port = response.getPort();
-
-            Message responseMessage = new Message(this.config.getId(), Message.Type.ACK);
-            responseMessage.setMessageId(messageId);
-            // ACK is sent without needing for another ACK because
-            // we're assuming an eventually synchronous network
-            // Even if a node receives the message multiple times,
-            // it will discard duplicates
-            unreliableSend(address, port, responseMessage);
+        return message;
+    }
+
+    /*
+     * Decodes a message put back together from its fragments
+     *
+     * @param senderId Process the fragments were authenticated from
+     *
+     * @param firstId Message id of the first fragment, which becomes the id of the message
+     */
+    private Message reassemble(String senderId, int firstId, byte[] body) {
+        Message message;
+        try {
+            message = MessageCodecs.decode(Frame.parse(ByteBuffer.wrap(MessageCodecs.frame(firstId, body))));
+        } catch (LedgerException e) {
+            LOGGER.log(Level.INFO, MessageFormat.format("{0} - Malformed fragmented message from {1}",
+                    config.getId(), senderId));
+            return new Message(senderId, Message.Type.IGNORE);
         }
-        
+        // BYZANTINE_TESTS
+        if (config.getByzantineBehavior() == ByzantineBehavior.NONE && !senderId.equals(message.getSenderId()))
+            return new Message(senderId, Message.Type.IGNORE);
+        if (!messageClass.isInstance(message) || message instanceof FragmentMessage)
+            return new Message(senderId, Message.Type.IGNORE);
         return message;
     }
+
+    /*
+     * @return Number of datagrams dropped before being decoded (receiver overloaded)
+     */
+    public long getDroppedDatagrams() {
+        return droppedDatagrams.get();
+    }
+
+    /*
+     * @return Number of retransmissions to a node
+     */
+    public long getRetransmissionCount(String nodeId) {
+        return scheduler.getRetransmissions(nodeId);
+    }
+
+    /*
+     * @return Current retransmission timeout of a node (ms)
+     */
+    public long getRetransmissionTimeout(String nodeId) {
+        return scheduler.getTimeout(nodeId);
+    }
+
+    /*
+     * @return Smoothed round trip time to a node (ms), negative if nothing was measured yet
+     */
+    public double getSmoothedRtt(String nodeId) {
+        return scheduler.getSmoothedRtt(nodeId);
+    }
+
+    /*
+     * @return Number of messages this process delivered to itself
+     */
+    public long getLoopbackCount() {
+        return loopbackCount.get();
+    }
+
+    /*
+     * @return Number of authenticated messages delivered from the network
+     */
+    public long getNetworkCount() {
+        return networkCount.get();
+    }
 }
@@ -0,0 +1,133 @@
+package pt.ulisboa.tecnico.hdsledger.communication;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/*
+ * Puts back together the messages a peer split in fragments (see FragmentMessage).
+ *
+ * The memory of a message is reserved when its first fragment arrives (the
+ * number of fragments times the fragment size). A fragment that does not fit
+ * the budget of its sender or of the link is refused: it is not acknowledged,
+ * so the sender will retransmit it later. Stored fragments are acknowledged
+ * (and never resent), so a message is kept until it is complete, however long
+ * its missing fragments take (e.g. a partition). The budgets bound the memory
+ * a sender that crashed in the middle of a message keeps reserved.
+ */
+public class Reassembler {
+
+    /*
+     * @param acknowledged False if the fragment was refused and must not be acknowledged
+     *
+     * @param body Encoded body of the message, once the last fragment arrived
+     */
+    public record Result(boolean acknowledged, byte[] body) {
+    }
+
+    private static final Result REFUSED = new Result(false, null);
+    private static final Result PENDING = new Result(true, null);
+
+    private static class Buffer {
+        // Fragments received so far (null if missing)
+        private final byte[][] chunks;
+        // Bytes reserved for the message
+        private final long reserved;
+        // Number of fragments still missing
+        private int missing;
+
+        private Buffer(int count, long reserved) {
+            this.chunks = new byte[count][];
+            this.reserved = reserved;
+            this.missing = count;
+        }
+    }
+
+    // Size of every fragment but the last
+    private final int fragmentSize;
+    // Largest message that can be reassembled (bytes)
+    private final long maxMessageSize;
+    // Bytes that can be reserved for the messages of a single sender
+    private final long senderBudget;
+    // Bytes that can be reserved for all senders
+    private final long totalBudget;
+    // Sender id -> id of the first fragment -> message being reassembled
+    private final Map<String, Map<Integer, Buffer>> buffers = new HashMap<>();
+    // Sender id -> bytes reserved
+    private final Map<String, Long> reservedBySender = new HashMap<>();
+    // Bytes reserved for all senders
+    private long reserved = 0;
+
+    public Reassembler(int fragmentSize, long maxMessageSize, long senderBudget, long totalBudget) {
+        this.fragmentSize = fragmentSize;
+        this.maxMessageSize = maxMessageSize;
+        this.senderBudget = senderBudget;
+        this.totalBudget = totalBudget;
+    }
+
+    /*
+     * Stores a fragment
+     *
+     * @param senderId Process the fragment was authenticated from
+     *
+     * @param firstId Message id of the first fragment of the message
+     */
+    public synchronized Result add(String senderId, int firstId, FragmentMessage fragment) {
+        int count = fragment.getCount();
+        byte[] chunk = fragment.getChunk();
+        long size = (long) count * fragmentSize;
+        // Malformed fragments are acknowledged (and dropped) so the sender stops resending them
+        if (count < 2 || size > maxMessageSize || chunk.length > fragmentSize
+                || fragment.getIndex() < 0 || fragment.getIndex() >= count)
+            return PENDING;
+
+        Map<Integer, Buffer> messages = buffers.computeIfAbsent(senderId, id -> new HashMap<>());
+        Buffer buffer = messages.get(firstId);
+        if (buffer == null) {
+            long senderReserved = reservedBySender.getOrDefault(senderId, 0L);
+            if (senderReserved + size > senderBudget || reserved + size > totalBudget)
+                return REFUSED;
+            buffer = new Buffer(count, size);
+            messages.put(firstId, buffer);
+            reservedBySender.put(senderId, senderReserved + size);
+            reserved += size;
+        }
+
+        if (buffer.chunks.length != count)
+            return PENDING;
+        if (buffer.chunks[fragment.getIndex()] == null) {
+            buffer.chunks[fragment.getIndex()] = chunk;
+            buffer.missing--;
+        }
+        if (buffer.missing > 0)
+            return PENDING;
+
+        release(senderId, firstId);
+        int length = 0;
+        for (byte[] part : buffer.chunks)
+            length += part.length;
+        byte[] body = new byte[length];
+        int position = 0;
+        for (byte[] part : buffer.chunks) {
+            System.arraycopy(part, 0, body, position, part.length);
+            position += part.length;
+        }
+        return new Result(true, body);
+    }
+
+    private void release(String senderId, int firstId) {
+        Buffer buffer = buffers.get(senderId).remove(firstId);
+        unreserve(senderId, buffer.reserved);
+    }
+
+    private void unreserve(String senderId, long size) {
+        reservedBySender.merge(senderId, -size, Long::sum);
+        reserved -= size;
+    }
+
+    /*
+     * @return Bytes currently reserved for incomplete messages
+     */
+    public synchronized long getReserved() {
+        return reserved;
+    }
+}
@@ -0,0 +1,331 @@
+package pt.ulisboa.tecnico.hdsledger.communication;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.Queue;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.IntConsumer;
+
+/*
+ * Retransmits unacknowledged messages from a small shared pool of threads
+ * instead of one sleeping thread per message.
+ * Each destination can only have a limited number of messages in flight,
+ * the remaining ones wait in a backlog until a slot is released by an ACK.
+ * Message ids are only unique per destination.
+ *
+ * The first retransmission of a message waits for the timeout estimated from
+ * the round trips to its destination (see RttEstimator), the following ones
+ * back off exponentially up to the maximum timeout.
+ */
+public class RetransmissionScheduler {
+
+    // Shared pool that runs every transmission attempt
+    private final ScheduledThreadPoolExecutor executor;
+    // Timeout of a destination until its first round trip is measured (ms)
+    private final long initialTimeout;
+    // Bounds of the retransmission timeout (ms)
+    private final long minTimeout;
+    private final long maxTimeout;
+    // Fraction of the timeout randomly added to each one, so retransmissions do not synchronize
+    private final double jitter;
+    // Maximum number of unacknowledged messages per destination
+    private final int maxOutstanding;
+    // Number of messages waiting for ACK
+    private final AtomicInteger pendingCount = new AtomicInteger(0);
+    // Destination id -> in flight and queued messages
+    private final Map<String, Destination> destinations = new ConcurrentHashMap<>();
+
+    private static class PendingMessage {
+        private final Destination destination;
+        private final int messageId;
+        // Performs one transmission, receives the attempt number
+        private final IntConsumer transmission;
+        private int attempts = 0;
+        // Time of the first attempt (ns)
+        private long sentAt;
+        // Time the first attempt actually went out (ns), it may wait for a flush
+        // or a session first (see transmitted)
+        private long transmittedAt;
+        private boolean transmitted = false;
+        // Time to wait for the ACK of the last attempt (ms)
+        private long delay;
+        private ScheduledFuture<?> future;
+        private boolean acknowledged = false;
+
+        private PendingMessage(Destination destination, int messageId, IntConsumer transmission) {
+            this.destination = destination;
+            this.messageId = messageId;
+            this.transmission = transmission;
+        }
+    }
+
+    private static class Destination {
+        private int outstanding = 0;
+        private final Queue<PendingMessage> backlog = new ArrayDeque<>();
+        // Message id -> message waiting for ACK
+        private final NavigableMap<Integer, PendingMessage> inFlight = new TreeMap<>();
+        // Round trip estimate driving the timeout
+        private final RttEstimator rtt;
+        // Number of retransmissions so far
+        private final AtomicLong retransmissions = new AtomicLong(0);
+        // Time of the last timeout back-off (ns), messages sent before it do not back off again
+        private volatile long lastBackoff = Long.MIN_VALUE;
+
+        private Destination(RttEstimator rtt) {
+            this.rtt = rtt;
+        }
+    }
+
+    /*
+     * @param initialTimeout Timeout of a destination until a round trip to it is measured (ms)
+     *
+     * @param minTimeout Lower bound of the retransmission timeout (ms)
+     *
+     * @param maxTimeout Upper bound of the retransmission timeout and back-off (ms)
+     *
+     * @param jitter Fraction of the timeout randomly added to it (0 to 1)
+     */
+    public RetransmissionScheduler(String name, int threads, long initialTimeout, long minTimeout, long maxTimeout,
+            double jitter, int maxOutstanding) {
+        AtomicInteger threadCount = new AtomicInteger(0);
+        ThreadFactory factory = runnable -> {
+            Thread thread = new Thread(runnable, name + "-sender-" + threadCount.getAndIncrement());
+            thread.setDaemon(true);
+            return thread;
+        };
+        this.executor = new ScheduledThreadPoolExecutor(threads, factory);
+        this.executor.setRemoveOnCancelPolicy(true);
+        this.initialTimeout = initialTimeout;
+        this.minTimeout = minTimeout;
+        this.maxTimeout = Math.max(minTimeout, maxTimeout);
+        this.jitter = Math.min(1, Math.max(0, jitter));
+        this.maxOutstanding = maxOutstanding;
+    }
+
+    /*
+     * Runs a one-shot task (e.g. sending an ACK) on the shared pool
+     */
+    public void execute(Runnable task) {
+        executor.execute(task);
+    }
+
+    /*
+     * Runs a one-shot task after a delay (ms)
+     */
+    public void schedule(Runnable task, long delay) {
+        executor.schedule(task, delay, TimeUnit.MILLISECONDS);
+    }
+
+    /*
+     * Transmits a message until it is acknowledged
+     *
+     * @param destId Destination identifier
+     *
+     * @param messageId Message identifier (as seen by the ACK), unique for the destination
+     *
+     * @param transmission Sends the message once, receives the attempt number
+     */
+    public void submit(String destId, int messageId, IntConsumer transmission) {
+        Destination destination = destinationOf(destId);
+        PendingMessage message = new PendingMessage(destination, messageId, transmission);
+
+        synchronized (destination) {
+            if (destination.outstanding >= maxOutstanding) {
+                destination.backlog.add(message);
+                return;
+            }
+            destination.outstanding++;
+            destination.inFlight.put(messageId, message);
+        }
+        start(message);
+    }
+
+    private Destination destinationOf(String destId) {
+        return destinations.computeIfAbsent(destId,
+                id -> new Destination(new RttEstimator(initialTimeout, minTimeout, maxTimeout)));
+    }
+
+    private void start(PendingMessage message) {
+        pendingCount.incrementAndGet();
+        synchronized (message) {
+            message.future = executor.schedule(() -> attempt(message), 0, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    private void attempt(PendingMessage message) {
+        synchronized (message) {
+            if (message.acknowledged)
+                return;
+            Destination destination = message.destination;
+            long now = System.nanoTime();
+            message.attempts++;
+            if (message.attempts == 1) {
+                message.sentAt = now;
+                message.delay = destination.rtt.getTimeout();
+            } else {
+                destination.retransmissions.incrementAndGet();
+                // Messages that were in flight together time out together, they back off the estimate once
+                if (message.sentAt >= destination.lastBackoff) {
+                    destination.lastBackoff = now;
+                    destination.rtt.backoff();
+                }
+                // Exponential back-off, bounded by maxTimeout
+                message.delay = Math.min(message.delay << 1, maxTimeout);
+            }
+            try {
+                message.transmission.accept(message.attempts);
+            } catch (RuntimeException e) {
+                e.printStackTrace();
+            }
+            long delay = message.delay + (long) (message.delay * jitter * ThreadLocalRandom.current().nextDouble());
+            message.future = executor.schedule(() -> attempt(message), delay, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /*
+     * Records that messages to a destination were written to the network,
+     * which starts the round trip of their first attempt
+     *
+     * @param messageIds Identifiers of the messages written together
+     */
+    public void transmitted(String destId, List<Integer> messageIds) {
+        Destination destination = destinations.get(destId);
+        if (destination == null || messageIds.isEmpty())
+            return;
+
+        List<PendingMessage> messages = new ArrayList<>(messageIds.size());
+        synchronized (destination) {
+            for (int messageId : messageIds) {
+                PendingMessage message = destination.inFlight.get(messageId);
+                if (message != null)
+                    messages.add(message);
+            }
+        }
+        long now = System.nanoTime();
+        for (PendingMessage message : messages) {
+            synchronized (message) {
+                if (message.attempts == 1 && !message.transmitted) {
+                    message.transmittedAt = now;
+                    message.transmitted = true;
+                }
+            }
+        }
+    }
+
+    /*
+     * Stops retransmitting a message and lets the next queued message
+     * to the same destination go out
+     *
+     * @return True if the message was waiting for this ACK
+     */
+    public boolean acknowledge(String destId, int messageId) {
+        return acknowledge(destId, messageId, true);
+    }
+
+    /*
+     * @param measured False if the ACK is implied by a later message (e.g. a
+     * reply), which does not measure the round trip
+     */
+    public boolean acknowledge(String destId, int messageId, boolean measured) {
+        Destination destination = destinations.get(destId);
+        if (destination == null)
+            return false;
+
+        PendingMessage message;
+        List<PendingMessage> next = new ArrayList<>();
+        synchronized (destination) {
+            message = destination.inFlight.remove(messageId);
+            if (message == null)
+                return false;
+            release(destination, next);
+        }
+        cancel(message, measured);
+        next.forEach(this::start);
+        return true;
+    }
+
+    /*
+     * Stops retransmitting every message to a destination up to an id
+     * (cumulative ACK)
+     *
+     * @return Number of messages that were waiting for this ACK
+     */
+    public int acknowledgeUpTo(String destId, int messageId) {
+        Destination destination = destinations.get(destId);
+        if (destination == null)
+            return 0;
+
+        List<PendingMessage> acknowledged;
+        List<PendingMessage> next = new ArrayList<>();
+        synchronized (destination) {
+            Map<Integer, PendingMessage> covered = destination.inFlight.headMap(messageId, true);
+            acknowledged = new ArrayList<>(covered.values());
+            covered.clear();
+            acknowledged.forEach(message -> release(destination, next));
+        }
+        acknowledged.forEach(message -> cancel(message, true));
+        next.forEach(this::start);
+        return acknowledged.size();
+    }
+
+    private void cancel(PendingMessage message, boolean measured) {
+        pendingCount.decrementAndGet();
+        synchronized (message) {
+            message.acknowledged = true;
+            // Karn's rule: the ACK of a retransmitted message may answer any of its copies
+            if (measured && message.attempts == 1 && message.transmitted)
+                message.destination.rtt.sample((System.nanoTime() - message.transmittedAt) / 1e6);
+            if (message.future != null)
+                message.future.cancel(false);
+        }
+    }
+
+    /*
+     * Hands the slot of an acknowledged message to the next queued one (if any)
+     */
+    private void release(Destination destination, List<PendingMessage> next) {
+        PendingMessage queued = destination.backlog.poll();
+        if (queued == null) {
+            destination.outstanding--;
+            return;
+        }
+        destination.inFlight.put(queued.messageId, queued);
+        next.add(queued);
+    }
+
+    public int getPendingCount() {
+        return pendingCount.get();
+    }
+
+    /*
+     * @return Number of retransmissions to a destination
+     */
+    public long getRetransmissions(String destId) {
+        return destinationOf(destId).retransmissions.get();
+    }
+
+    /*
+     * @return Current retransmission timeout of a destination (ms)
+     */
+    public long getTimeout(String destId) {
+        return destinationOf(destId).rtt.getTimeout();
+    }
+
+    /*
+     * @return Smoothed round trip time to a destination (ms), negative if nothing was measured yet
+     */
+    public double getSmoothedRtt(String destId) {
+        return destinationOf(destId).rtt.getSmoothedRtt();
+    }
+}
@@ -0,0 +1,78 @@
+package pt.ulisboa.tecnico.hdsledger.communication;
+
+/*
+ * Round trip time estimator of a peer, computing the retransmission timeout
+ * as in TCP (RFC 6298): RTO = SRTT + max(G, 4 * RTTVAR), where SRTT and RTTVAR
+ * are moving averages of the measured round trips and of their variation.
+ * Only messages acknowledged at their first attempt give samples (Karn's rule),
+ * since the ACK of a retransmitted message may answer any of its copies.
+ */
+public class RttEstimator {
+
+    // Weight of a new sample in SRTT
+    private static final double ALPHA = 1.0 / 8;
+    // Weight of a new sample in RTTVAR
+    private static final double BETA = 1.0 / 4;
+    // Clock granularity (ms)
+    private static final double GRANULARITY = 1;
+
+    // Lower bound of the timeout (ms)
+    private final long minTimeout;
+    // Upper bound of the timeout (ms)
+    private final long maxTimeout;
+    // Smoothed round trip time (ms), negative until the first sample
+    private double smoothedRtt = -1;
+    // Round trip time variation (ms)
+    private double rttVariation = 0;
+    // Current retransmission timeout (ms)
+    private long timeout;
+
+    /*
+     * @param initialTimeout Timeout used until the first sample
+     */
+    public RttEstimator(long initialTimeout, long minTimeout, long maxTimeout) {
+        this.minTimeout = minTimeout;
+        this.maxTimeout = Math.max(minTimeout, maxTimeout);
+        this.timeout = clamp(initialTimeout);
+    }
+
+    private long clamp(double value) {
+        return Math.min(maxTimeout, Math.max(minTimeout, (long) Math.ceil(value)));
+    }
+
+    /*
+     * Updates the estimate with a measured round trip (ms)
+     */
+    public synchronized void sample(double rtt) {
+        if (smoothedRtt < 0) {
+            smoothedRtt = rtt;
+            rttVariation = rtt / 2;
+        } else {
+            rttVariation = (1 - BETA) * rttVariation + BETA * Math.abs(smoothedRtt - rtt);
+            smoothedRtt = (1 - ALPHA) * smoothedRtt + ALPHA * rtt;
+        }
+        timeout = clamp(smoothedRtt + Math.max(GRANULARITY, 4 * rttVariation));
+    }
+
+    /*
+     * Doubles the timeout after a message was not acknowledged in time, until
+     * a new sample is taken
+     */
+    public synchronized void backoff() {
+        timeout = Math.min(maxTimeout, timeout * 2);
+    }
+
+    /*
+     * @return Current retransmission timeout (ms)
+     */
+    public synchronized long getTimeout() {
+        return timeout;
+    }
+
+    /*
+     * @return Smoothed round trip time (ms), negative if nothing was measured yet
+     */
+    public synchronized double getSmoothedRtt() {
+        return smoothedRtt;
+    }
+}
@@ -19,6 +19,8 @@ public class UpdateAccount {
     private List<Integer> nonces;
     // UpdateAccount is part of a valid (or not) block
     private boolean valid;
+    // Account identifier, parsed on first use (not serialized)
+    private transient AccountId accountId;
 
     public UpdateAccount(String ownerId, String hashPubKey, BigDecimal balance, Integer consensusInstance, List<Integer> nonces, boolean isValid) {
         this.ownerId = ownerId;
@@ -58,6 +60,12 @@ public class UpdateAccount {
         return hashPubKey;
     }
 
+    public AccountId getAccountId() {
+        if (accountId == null)
+            accountId = AccountId.fromString(hashPubKey);
+        return accountId;
+    }
+
     public Integer getConsensusInstance() {
         return consensusInstance;
     }
@@ -0,0 +1,19 @@
+package pt.ulisboa.tecnico.hdsledger.communication.codec;
+
+import pt.ulisboa.tecnico.hdsledger.communication.AckMessage;
+
+public class AckMessageCodec implements MessageCodec<AckMessage> {
+
+    @Override
+    public void encodePayload(AckMessage message, ByteWriter out) {
+        out.putInt(message.getCumulativeId());
+        out.putLong(message.getSelectiveBitmap());
+    }
+
+    @Override
+    public AckMessage decodePayload(MessageHeader header, ByteReader in) {
+        AckMessage message = new AckMessage(header.getSenderId(), in.getInt(), in.getLong());
+        message.setMessageId(header.getMessageId());
+        return message;
+    }
+}
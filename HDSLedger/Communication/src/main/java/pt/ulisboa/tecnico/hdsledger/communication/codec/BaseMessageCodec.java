@@ -0,0 +1,18 @@
+package pt.ulisboa.tecnico.hdsledger.communication.codec;
+
+import pt.ulisboa.tecnico.hdsledger.communication.Message;
+
+/*
+ * Messages without payload (IGNORE)
+ */
+public class BaseMessageCodec implements MessageCodec<Message> {
+
+    @Override
+    public void encodePayload(Message message, ByteWriter out) {
+    }
+
+    @Override
+    public Message decodePayload(MessageHeader header, ByteReader in) {
+        return header.toMessage(header.getType());
+    }
+}
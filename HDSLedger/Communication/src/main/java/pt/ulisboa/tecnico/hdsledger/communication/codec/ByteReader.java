@@ -0,0 +1,137 @@
+package pt.ulisboa.tecnico.hdsledger.communication.codec;
+
+import java.math.BigDecimal;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import pt.ulisboa.tecnico.hdsledger.utilities.ErrorMessage;
+import pt.ulisboa.tecnico.hdsledger.utilities.LedgerException;
+
+/*
+ * Reads values written by ByteWriter straight from a ByteBuffer
+ */
+public class ByteReader {
+
+    private final ByteBuffer buffer;
+
+    public ByteReader(ByteBuffer buffer) {
+        this.buffer = buffer;
+    }
+
+    private void require(int length) {
+        if (length < 0 || buffer.remaining() < length)
+            throw new LedgerException(ErrorMessage.CannotParseMessage);
+    }
+
+    public int remaining() {
+        return buffer.remaining();
+    }
+
+    public int getByte() {
+        require(1);
+        return buffer.get();
+    }
+
+    public boolean getBoolean() {
+        return getByte() != 0;
+    }
+
+    public int getShort() {
+        require(2);
+        return buffer.getShort() & 0xFFFF;
+    }
+
+    public int getInt() {
+        require(4);
+        return buffer.getInt();
+    }
+
+    public long getLong() {
+        require(8);
+        return buffer.getLong();
+    }
+
+    /*
+     * Returns a view of the next length bytes and skips them
+     */
+    public ByteBuffer getSlice(int length) {
+        require(length);
+        ByteBuffer slice = buffer.slice();
+        slice.limit(length);
+        buffer.position(buffer.position() + length);
+        return slice;
+    }
+
+    public byte[] getBytes(int length) {
+        require(length);
+        byte[] bytes = new byte[length];
+        buffer.get(bytes);
+        return bytes;
+    }
+
+    public byte[] getByteArray() {
+        int length = getInt();
+        if (length == -1)
+            return null;
+        return getBytes(length);
+    }
+
+    public String getString() {
+        int length = getInt();
+        if (length == -1)
+            return null;
+        require(length);
+        String value;
+        if (buffer.hasArray()) {
+            value = new String(buffer.array(), buffer.arrayOffset() + buffer.position(), length,
+                    StandardCharsets.UTF_8);
+            buffer.position(buffer.position() + length);
+        } else {
+            value = new String(getBytes(length), StandardCharsets.UTF_8);
+        }
+        return value;
+    }
+
+    public Integer getNullableInt() {
+        return getBoolean() ? getInt() : null;
+    }
+
+    public BigDecimal getBigDecimal() {
+        String value = getString();
+        try {
+            return value == null ? null : new BigDecimal(value);
+        } catch (NumberFormatException e) {
+            throw new LedgerException(ErrorMessage.CannotParseMessage);
+        }
+    }
+
+    public List<Integer> getIntList() {
+        int size = getInt();
+        if (size == -1)
+            return null;
+        // Checked before allocating (size * 4 could overflow)
+        if (size < 0 || size > buffer.remaining() / 4)
+            throw new LedgerException(ErrorMessage.CannotParseMessage);
+        List<Integer> values = new ArrayList<>(size);
+        for (int i = 0; i < size; i++)
+            values.add(buffer.getInt());
+        return values;
+    }
+
+    public Map<String, String> getStringMap() {
+        int size = getInt();
+        if (size == -1)
+            return null;
+        // Each entry takes at least 8 bytes (two lengths)
+        if (size < 0 || size > buffer.remaining() / 8)
+            throw new LedgerException(ErrorMessage.CannotParseMessage);
+        Map<String, String> values = new HashMap<>();
+        for (int i = 0; i < size; i++)
+            values.put(getString(), getString());
+        return values;
+    }
+}
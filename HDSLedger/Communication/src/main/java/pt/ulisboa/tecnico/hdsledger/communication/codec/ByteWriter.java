@@ -0,0 +1,145 @@
+package pt.ulisboa.tecnico.hdsledger.communication.codec;
+
+import java.math.BigDecimal;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+/*
+ * Growable big-endian byte buffer used to encode messages
+ */
+public class ByteWriter {
+
+    private byte[] buffer;
+    private int position = 0;
+
+    public ByteWriter() {
+        this(512);
+    }
+
+    public ByteWriter(int initialCapacity) {
+        this.buffer = new byte[Math.max(16, initialCapacity)];
+    }
+
+    private void ensureCapacity(int extra) {
+        if (position + extra > buffer.length)
+            buffer = Arrays.copyOf(buffer, Math.max(buffer.length << 1, position + extra));
+    }
+
+    public int position() {
+        return position;
+    }
+
+    public ByteWriter putByte(int value) {
+        ensureCapacity(1);
+        buffer[position++] = (byte) value;
+        return this;
+    }
+
+    public ByteWriter putBoolean(boolean value) {
+        return putByte(value ? 1 : 0);
+    }
+
+    public ByteWriter putShort(int value) {
+        ensureCapacity(2);
+        buffer[position++] = (byte) (value >>> 8);
+        buffer[position++] = (byte) value;
+        return this;
+    }
+
+    public ByteWriter putInt(int value) {
+        ensureCapacity(4);
+        buffer[position++] = (byte) (value >>> 24);
+        buffer[position++] = (byte) (value >>> 16);
+        buffer[position++] = (byte) (value >>> 8);
+        buffer[position++] = (byte) value;
+        return this;
+    }
+
+    public ByteWriter putLong(long value) {
+        putInt((int) (value >>> 32));
+        return putInt((int) value);
+    }
+
+    /*
+     * Overwrites an int previously written at a given position (length prefixes)
+     */
+    public ByteWriter putInt(int at, int value) {
+        buffer[at] = (byte) (value >>> 24);
+        buffer[at + 1] = (byte) (value >>> 16);
+        buffer[at + 2] = (byte) (value >>> 8);
+        buffer[at + 3] = (byte) value;
+        return this;
+    }
+
+    public ByteWriter putBytes(byte[] bytes) {
+        return putBytes(bytes, 0, bytes.length);
+    }
+
+    public ByteWriter putBytes(byte[] bytes, int offset, int length) {
+        ensureCapacity(length);
+        System.arraycopy(bytes, offset, buffer, position, length);
+        position += length;
+        return this;
+    }
+
+    /*
+     * Length-prefixed (int) byte array, -1 encodes null
+     */
+    public ByteWriter putByteArray(byte[] bytes) {
+        if (bytes == null)
+            return putInt(-1);
+        putInt(bytes.length);
+        return putBytes(bytes);
+    }
+
+    /*
+     * Length-prefixed UTF-8 string, -1 encodes null
+     */
+    public ByteWriter putString(String value) {
+        return putByteArray(value == null ? null : value.getBytes(StandardCharsets.UTF_8));
+    }
+
+    public ByteWriter putNullableInt(Integer value) {
+        putBoolean(value != null);
+        if (value != null)
+            putInt(value);
+        return this;
+    }
+
+    public ByteWriter putBigDecimal(BigDecimal value) {
+        return putString(value == null ? null : value.toString());
+    }
+
+    public ByteWriter putIntList(List<Integer> values) {
+        if (values == null)
+            return putInt(-1);
+        putInt(values.size());
+        values.forEach(this::putInt);
+        return this;
+    }
+
+    public ByteWriter putStringMap(Map<String, String> values) {
+        if (values == null)
+            return putInt(-1);
+        putInt(values.size());
+        values.forEach((key, value) -> {
+            putString(key);
+            putString(value);
+        });
+        return this;
+    }
+
+    public byte[] toByteArray() {
+        return Arrays.copyOf(buffer, position);
+    }
+
+    /*
+     * View over the written bytes (no copy)
+     */
+    public ByteBuffer asByteBuffer() {
+        return ByteBuffer.wrap(buffer, 0, position);
+    }
+}
@@ -0,0 +1,31 @@
+package pt.ulisboa.tecnico.hdsledger.communication.codec;
+
+import pt.ulisboa.tecnico.hdsledger.communication.ConsensusMessage;
+import pt.ulisboa.tecnico.hdsledger.communication.builder.ConsensusMessageBuilder;
+
+/*
+ * Instance and round travel in the header, the inner message is kept as is
+ * because it is what the leader signs
+ */
+public class ConsensusMessageCodec implements MessageCodec<ConsensusMessage> {
+
+    @Override
+    public void encodePayload(ConsensusMessage message, ByteWriter out) {
+        out.putString(message.getReplyTo());
+        out.putInt(message.getReplyToMessageId());
+        out.putString(message.getMessage());
+    }
+
+    @Override
+    public ConsensusMessage decodePayload(MessageHeader header, ByteReader in) {
+        ConsensusMessage message = new ConsensusMessageBuilder(header.getSenderId(), header.getType())
+                .setConsensusInstance(header.getConsensusInstance())
+                .setRound(header.getRound())
+                .setReplyTo(in.getString())
+                .setReplyToMessageId(in.getInt())
+                .setMessage(in.getString())
+                .build();
+        message.setMessageId(header.getMessageId());
+        return message;
+    }
+}
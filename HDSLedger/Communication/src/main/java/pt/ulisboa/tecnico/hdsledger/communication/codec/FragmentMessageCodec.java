@@ -0,0 +1,28 @@
+package pt.ulisboa.tecnico.hdsledger.communication.codec;
+
+import pt.ulisboa.tecnico.hdsledger.communication.FragmentMessage;
+import pt.ulisboa.tecnico.hdsledger.utilities.ErrorMessage;
+import pt.ulisboa.tecnico.hdsledger.utilities.LedgerException;
+
+public class FragmentMessageCodec implements MessageCodec<FragmentMessage> {
+
+    @Override
+    public void encodePayload(FragmentMessage message, ByteWriter out) {
+        out.putInt(message.getIndex());
+        out.putInt(message.getCount());
+        out.putByteArray(message.getChunk());
+    }
+
+    @Override
+    public FragmentMessage decodePayload(MessageHeader header, ByteReader in) {
+        int index = in.getInt();
+        int count = in.getInt();
+        byte[] chunk = in.getByteArray();
+        if (index < 0 || index >= count || chunk == null)
+            throw new LedgerException(ErrorMessage.CannotParseMessage);
+
+        FragmentMessage message = new FragmentMessage(header.getSenderId(), index, count, chunk);
+        message.setMessageId(header.getMessageId());
+        return message;
+    }
+}
@@ -0,0 +1,50 @@
+package pt.ulisboa.tecnico.hdsledger.communication.codec;
+
+import java.nio.ByteBuffer;
+
+import pt.ulisboa.tecnico.hdsledger.utilities.ErrorMessage;
+import pt.ulisboa.tecnico.hdsledger.utilities.LedgerException;
+
+/*
+ * A received frame split into its parts, without decoding the payload.
+ *
+ * Layout (big-endian):
+ * message id (4) | version (1) | header length (4) | header | payload length (4) | payload
+ *
+ * The message id is the link header, it differs for each destination while
+ * the body after it is encoded once. Frames are authenticated by the packet
+ * that carries them (see Packet).
+ */
+public class Frame {
+
+    // Decoded header
+    private final MessageHeader header;
+    // View over the encoded payload
+    private final ByteBuffer payload;
+
+    private Frame(MessageHeader header, ByteBuffer payload) {
+        this.header = header;
+        this.payload = payload;
+    }
+
+    public static Frame parse(ByteBuffer datagram) {
+        ByteReader in = new ByteReader(datagram.slice());
+        int messageId = in.getInt();
+
+        if (in.getByte() != MessageCodecs.VERSION)
+            throw new LedgerException(ErrorMessage.CannotParseMessage);
+
+        ByteBuffer headerBytes = in.getSlice(in.getInt());
+        MessageHeader header = MessageHeader.read(new ByteReader(headerBytes), messageId);
+        ByteBuffer payload = in.getSlice(in.getInt());
+        return new Frame(header, payload);
+    }
+
+    public MessageHeader getHeader() {
+        return header;
+    }
+
+    public ByteBuffer getPayload() {
+        return payload.duplicate();
+    }
+}
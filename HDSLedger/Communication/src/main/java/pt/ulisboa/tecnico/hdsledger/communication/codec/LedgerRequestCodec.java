@@ -0,0 +1,20 @@
+package pt.ulisboa.tecnico.hdsledger.communication.codec;
+
+import pt.ulisboa.tecnico.hdsledger.communication.LedgerRequest;
+
+public class LedgerRequestCodec implements MessageCodec<LedgerRequest> {
+
+    @Override
+    public void encodePayload(LedgerRequest message, ByteWriter out) {
+        out.putString(message.getMessage());
+        out.putString(message.getClientSignature());
+    }
+
+    @Override
+    public LedgerRequest decodePayload(MessageHeader header, ByteReader in) {
+        LedgerRequest request = new LedgerRequest(header.getSenderId(), header.getType(), in.getString(),
+                in.getString());
+        request.setMessageId(header.getMessageId());
+        return request;
+    }
+}
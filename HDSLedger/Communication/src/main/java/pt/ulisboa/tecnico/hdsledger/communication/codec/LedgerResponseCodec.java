@@ -0,0 +1,95 @@
+package pt.ulisboa.tecnico.hdsledger.communication.codec;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import pt.ulisboa.tecnico.hdsledger.communication.LedgerResponse;
+import pt.ulisboa.tecnico.hdsledger.communication.MerkleProof;
+import pt.ulisboa.tecnico.hdsledger.communication.UpdateAccount;
+import pt.ulisboa.tecnico.hdsledger.utilities.ErrorMessage;
+import pt.ulisboa.tecnico.hdsledger.utilities.LedgerException;
+
+/*
+ * The account update must decode to the exact same values, since clients
+ * verify the node signatures over its JSON representation
+ */
+public class LedgerResponseCodec implements MessageCodec<LedgerResponse> {
+
+    @Override
+    public void encodePayload(LedgerResponse message, ByteWriter out) {
+        out.putBoolean(message.isSuccessful());
+
+        UpdateAccount update = message.getUpdateAccount();
+        out.putBoolean(update != null);
+        if (update != null)
+            writeUpdateAccount(update, out);
+
+        out.putStringMap(message.getSignatures());
+        out.putNullableInt(message.getNonce());
+        out.putIntList(message.getRepliesTo());
+        writeProof(message.getProof(), out);
+    }
+
+    @Override
+    public LedgerResponse decodePayload(MessageHeader header, ByteReader in) {
+        boolean successful = in.getBoolean();
+
+        UpdateAccount update = in.getBoolean() ? readUpdateAccount(in) : null;
+
+        Map<String, String> signatures = in.getStringMap();
+        Integer nonce = in.getNullableInt();
+        List<Integer> repliesTo = in.getIntList();
+        MerkleProof proof = readProof(in);
+
+        LedgerResponse response = nonce == null
+                ? new LedgerResponse(header.getSenderId(), successful, update, signatures)
+                : new LedgerResponse(header.getSenderId(), successful, update, signatures, nonce);
+        response.setRepliesTo(repliesTo);
+        response.setProof(proof);
+        response.setMessageId(header.getMessageId());
+        return response;
+    }
+
+    public static void writeUpdateAccount(UpdateAccount update, ByteWriter out) {
+        out.putString(update.getOwnerId());
+        out.putString(update.getHashPubKey());
+        out.putBigDecimal(update.getBalance());
+        out.putNullableInt(update.getConsensusInstance());
+        out.putIntList(update.getNonces());
+        out.putBoolean(update.isValid());
+    }
+
+    public static UpdateAccount readUpdateAccount(ByteReader in) {
+        return new UpdateAccount(in.getString(), in.getString(), in.getBigDecimal(), in.getNullableInt(),
+                in.getIntList(), in.getBoolean());
+    }
+
+    /*
+     * Nullable Merkle proof
+     */
+    public static void writeProof(MerkleProof proof, ByteWriter out) {
+        out.putBoolean(proof != null);
+        if (proof == null)
+            return;
+        out.putInt(proof.getIndex());
+        out.putInt(proof.getSize());
+        out.putInt(proof.getSiblings().size());
+        proof.getSiblings().forEach(out::putByteArray);
+    }
+
+    public static MerkleProof readProof(ByteReader in) {
+        if (!in.getBoolean())
+            return null;
+        int index = in.getInt();
+        int size = in.getInt();
+        int count = in.getInt();
+        // Each sibling takes at least 4 bytes (its length)
+        if (count < 0 || count > in.remaining() / 4)
+            throw new LedgerException(ErrorMessage.CannotParseMessage);
+        List<byte[]> siblings = new ArrayList<>(count);
+        for (int i = 0; i < count; i++)
+            siblings.add(in.getByteArray());
+        return new MerkleProof(index, size, siblings);
+    }
+}
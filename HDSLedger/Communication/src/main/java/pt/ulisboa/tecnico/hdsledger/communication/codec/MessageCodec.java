@@ -0,0 +1,18 @@
+package pt.ulisboa.tecnico.hdsledger.communication.codec;
+
+import pt.ulisboa.tecnico.hdsledger.communication.Message;
+
+/*
+ * Encodes the type specific part of a message, the common fields travel in the header
+ */
+public interface MessageCodec<T extends Message> {
+
+    void encodePayload(T message, ByteWriter out);
+
+    /*
+     * @param header Header of the received message (sender, type, ids)
+     *
+     * @param in Reader positioned at the start of the payload
+     */
+    T decodePayload(MessageHeader header, ByteReader in);
+}
@@ -0,0 +1,109 @@
+package pt.ulisboa.tecnico.hdsledger.communication.codec;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import pt.ulisboa.tecnico.hdsledger.communication.AckMessage;
+import pt.ulisboa.tecnico.hdsledger.communication.ConsensusMessage;
+import pt.ulisboa.tecnico.hdsledger.communication.FragmentMessage;
+import pt.ulisboa.tecnico.hdsledger.communication.LedgerRequest;
+import pt.ulisboa.tecnico.hdsledger.communication.LedgerResponse;
+import pt.ulisboa.tecnico.hdsledger.communication.Message;
+import pt.ulisboa.tecnico.hdsledger.communication.Message.Type;
+import pt.ulisboa.tecnico.hdsledger.utilities.ErrorMessage;
+import pt.ulisboa.tecnico.hdsledger.utilities.LedgerException;
+
+/*
+ * Registry of the binary codecs of every message class.
+ * Encoding looks the codec up by class, decoding by the type in the header.
+ */
+public class MessageCodecs {
+
+    // Wire format version, first byte of every message body
+    public static final int VERSION = 3;
+
+    // Message class -> codec
+    private static final Map<Class<?>, MessageCodec<?>> codecsByClass = new ConcurrentHashMap<>();
+    // Message type -> codec
+    private static final Map<Type, MessageCodec<?>> codecsByType = new ConcurrentHashMap<>();
+
+    static {
+        register(Message.class, new BaseMessageCodec(), Type.IGNORE);
+        register(AckMessage.class, new AckMessageCodec(), Type.ACK);
+        register(FragmentMessage.class, new FragmentMessageCodec(), Type.FRAGMENT);
+        register(ConsensusMessage.class, new ConsensusMessageCodec(), Type.PRE_PREPARE, Type.PREPARE,
+                Type.COMMIT);
+        register(LedgerRequest.class, new LedgerRequestCodec(), Type.CREATE, Type.TRANSFER, Type.BALANCE);
+        register(LedgerResponse.class, new LedgerResponseCodec(), Type.REPLY);
+    }
+
+    private MessageCodecs() {
+    }
+
+    /*
+     * @param messageClass Class encoded by the codec
+     *
+     * @param codec The codec
+     *
+     * @param types Message types decoded by the codec
+     */
+    public static synchronized <T extends Message> void register(Class<T> messageClass, MessageCodec<T> codec,
+            Type... types) {
+        codecsByClass.put(messageClass, codec);
+        for (Type type : types)
+            codecsByType.put(type, codec);
+    }
+
+    @SuppressWarnings("unchecked")
+    private static MessageCodec<Message> codecFor(Class<?> messageClass) {
+        for (Class<?> current = messageClass; current != null; current = current.getSuperclass()) {
+            MessageCodec<?> codec = codecsByClass.get(current);
+            if (codec != null)
+                return (MessageCodec<Message>) codec;
+        }
+        throw new IllegalArgumentException("No codec registered for " + messageClass.getName());
+    }
+
+    /*
+     * Encodes the part of a message that is the same for every destination
+     * (everything but the message id)
+     *
+     * @param message The message to encode
+     */
+    public static byte[] encodeBody(Message message) {
+        MessageCodec<Message> codec = codecFor(message.getClass());
+        ByteWriter out = new ByteWriter();
+
+        out.putByte(VERSION);
+
+        int headerStart = out.position();
+        out.putInt(0);
+        MessageHeader.of(message).write(out);
+        out.putInt(headerStart, out.position() - headerStart - 4);
+
+        int payloadStart = out.position();
+        out.putInt(0);
+        codec.encodePayload(message, out);
+        out.putInt(payloadStart, out.position() - payloadStart - 4);
+
+        return out.toByteArray();
+    }
+
+    /*
+     * Prefixes a body with the link header of one destination
+     */
+    public static byte[] frame(int messageId, byte[] body) {
+        return new ByteWriter(Integer.BYTES + body.length).putInt(messageId).putBytes(body).toByteArray();
+    }
+
+    /*
+     * Decodes the payload of a parsed frame into the class registered for its type
+     */
+    @SuppressWarnings("unchecked")
+    public static Message decode(Frame frame) {
+        MessageCodec<?> codec = codecsByType.get(frame.getHeader().getType());
+        if (codec == null)
+            throw new LedgerException(ErrorMessage.CannotParseMessage);
+        return ((MessageCodec<Message>) codec).decodePayload(frame.getHeader(), new ByteReader(frame.getPayload()));
+    }
+}
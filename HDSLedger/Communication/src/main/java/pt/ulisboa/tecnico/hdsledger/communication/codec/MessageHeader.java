@@ -0,0 +1,88 @@
+package pt.ulisboa.tecnico.hdsledger.communication.codec;
+
+import pt.ulisboa.tecnico.hdsledger.communication.ConsensusMessage;
+import pt.ulisboa.tecnico.hdsledger.communication.Message;
+import pt.ulisboa.tecnico.hdsledger.communication.Message.Type;
+import pt.ulisboa.tecnico.hdsledger.utilities.ErrorMessage;
+import pt.ulisboa.tecnico.hdsledger.utilities.LedgerException;
+
+/*
+ * Fields every message carries on the wire, readable without decoding the payload.
+ * The message id is part of the link header (see Frame), it is not encoded with the rest
+ */
+public class MessageHeader {
+
+    private static final Type[] TYPES = Type.values();
+
+    // Message type
+    private final Type type;
+    // Sender identifier
+    private final String senderId;
+    // Message identifier
+    private final int messageId;
+    // Consensus instance (0 for non consensus messages)
+    private final int consensusInstance;
+    // Round (0 for non consensus messages)
+    private final int round;
+
+    public MessageHeader(Type type, String senderId, int messageId, int consensusInstance, int round) {
+        this.type = type;
+        this.senderId = senderId;
+        this.messageId = messageId;
+        this.consensusInstance = consensusInstance;
+        this.round = round;
+    }
+
+    public static MessageHeader of(Message message) {
+        if (message instanceof ConsensusMessage consensusMessage)
+            return new MessageHeader(message.getType(), message.getSenderId(), message.getMessageId(),
+                    consensusMessage.getConsensusInstance(), consensusMessage.getRound());
+        return new MessageHeader(message.getType(), message.getSenderId(), message.getMessageId(), 0, 0);
+    }
+
+    public void write(ByteWriter out) {
+        out.putByte(type.ordinal());
+        out.putString(senderId);
+        out.putInt(consensusInstance);
+        out.putInt(round);
+    }
+
+    public static MessageHeader read(ByteReader in, int messageId) {
+        int ordinal = in.getByte();
+        if (ordinal < 0 || ordinal >= TYPES.length)
+            throw new LedgerException(ErrorMessage.CannotParseMessage);
+        String senderId = in.getString();
+        if (senderId == null)
+            throw new LedgerException(ErrorMessage.CannotParseMessage);
+        return new MessageHeader(TYPES[ordinal], senderId, messageId, in.getInt(), in.getInt());
+    }
+
+    /*
+     * Plain message with the header fields (e.g. to ignore a message without decoding it)
+     */
+    public Message toMessage(Type type) {
+        Message message = new Message(senderId, type);
+        message.setMessageId(messageId);
+        return message;
+    }
+
+    public Type getType() {
+        return type;
+    }
+
+    public String getSenderId() {
+        return senderId;
+    }
+
+    public int getMessageId() {
+        return messageId;
+    }
+
+    public int getConsensusInstance() {
+        return consensusInstance;
+    }
+
+    public int getRound() {
+        return round;
+    }
+}
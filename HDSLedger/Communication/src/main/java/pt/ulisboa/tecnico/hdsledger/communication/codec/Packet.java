@@ -0,0 +1,161 @@
+package pt.ulisboa.tecnico.hdsledger.communication.codec;
+
+import java.nio.ByteBuffer;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.crypto.Mac;
+
+import pt.ulisboa.tecnico.hdsledger.utilities.ErrorMessage;
+import pt.ulisboa.tecnico.hdsledger.utilities.LedgerException;
+
+/*
+ * A datagram carrying one or more frames to the same peer, authenticated
+ * with the key of the session it was sent on.
+ *
+ * Layout (big-endian):
+ * version (1) | kind (1) | session id (8) | sequence (8) | frame count (2)
+ * | frame length (4) | frame | frame length (4) | frame ... | HMAC (32)
+ *
+ * The HMAC covers every byte before it. Handshakes share the first two
+ * bytes (see Handshake).
+ */
+public class Packet {
+
+    // Wire format version, first byte of every datagram
+    public static final int VERSION = 3;
+    // Largest UDP payload over IPv4
+    public static final int MAX_SIZE = 65507;
+    // Length of an HMAC-SHA256
+    public static final int MAC_SIZE = 32;
+    // Version, kind, session id, sequence and frame count
+    private static final int HEADER_SIZE = 20;
+    // Length prefix of each frame
+    private static final int FRAME_OVERHEAD = 4;
+
+    public enum Kind {
+        DATA, HELLO, HELLO_REPLY;
+    }
+
+    private static final Kind[] KINDS = Kind.values();
+
+    // Session the packet was sent on
+    private final long sessionId;
+    // Position of the packet in its session
+    private final long sequence;
+    // View over each frame
+    private final List<ByteBuffer> frames;
+    // View over the bytes covered by the HMAC
+    private final ByteBuffer authenticatedBytes;
+    // Received HMAC
+    private final byte[] mac;
+
+    private Packet(long sessionId, long sequence, List<ByteBuffer> frames, ByteBuffer authenticatedBytes,
+            byte[] mac) {
+        this.sessionId = sessionId;
+        this.sequence = sequence;
+        this.frames = frames;
+        this.authenticatedBytes = authenticatedBytes;
+        this.mac = mac;
+    }
+
+    /*
+     * @return Kind of a received datagram
+     */
+    public static Kind kindOf(ByteBuffer datagram) {
+        ByteReader in = new ByteReader(datagram.duplicate());
+        if (in.getByte() != VERSION)
+            throw new LedgerException(ErrorMessage.CannotParseMessage);
+        int kind = in.getByte();
+        if (kind < 0 || kind >= KINDS.length)
+            throw new LedgerException(ErrorMessage.CannotParseMessage);
+        return KINDS[kind];
+    }
+
+    /*
+     * Splits frames in groups that fit in a datagram each, keeping their order.
+     * A frame too large for a datagram still travels alone
+     *
+     * @param frames Encoded frames
+     *
+     * @param maxSize Maximum datagram size (bytes)
+     */
+    public static List<List<byte[]>> group(List<byte[]> frames, int maxSize) {
+        List<List<byte[]>> groups = new ArrayList<>();
+        int first = 0;
+        while (first < frames.size()) {
+            int size = HEADER_SIZE + MAC_SIZE + FRAME_OVERHEAD + frames.get(first).length;
+            int last = first + 1;
+            while (last < frames.size() && last - first < 0xFFFF
+                    && size + FRAME_OVERHEAD + frames.get(last).length <= maxSize)
+                size += FRAME_OVERHEAD + frames.get(last++).length;
+            groups.add(frames.subList(first, last));
+            first = last;
+        }
+        return groups;
+    }
+
+    /*
+     * Encodes and authenticates a packet
+     *
+     * @param mac HMAC initialized with the session key
+     */
+    public static ByteBuffer seal(long sessionId, long sequence, List<byte[]> frames, Mac mac) {
+        int size = HEADER_SIZE + MAC_SIZE;
+        for (byte[] frame : frames)
+            size += FRAME_OVERHEAD + frame.length;
+
+        ByteWriter out = new ByteWriter(size);
+        out.putByte(VERSION);
+        out.putByte(Kind.DATA.ordinal());
+        out.putLong(sessionId);
+        out.putLong(sequence);
+        out.putShort(frames.size());
+        for (byte[] frame : frames)
+            out.putByteArray(frame);
+
+        mac.update(out.asByteBuffer());
+        out.putBytes(mac.doFinal());
+        return out.asByteBuffer();
+    }
+
+    public static Packet parse(ByteBuffer datagram) {
+        ByteBuffer packet = datagram.slice();
+        ByteReader in = new ByteReader(packet.duplicate());
+        if (in.getByte() != VERSION || in.getByte() != Kind.DATA.ordinal())
+            throw new LedgerException(ErrorMessage.CannotParseMessage);
+
+        long sessionId = in.getLong();
+        long sequence = in.getLong();
+        int count = in.getShort();
+        List<ByteBuffer> frames = new ArrayList<>(count);
+        for (int i = 0; i < count; i++)
+            frames.add(in.getSlice(in.getInt()));
+
+        ByteBuffer authenticatedBytes = packet.duplicate();
+        authenticatedBytes.limit(packet.remaining() - in.remaining());
+        byte[] mac = in.getBytes(MAC_SIZE);
+        return new Packet(sessionId, sequence, frames, authenticatedBytes, mac);
+    }
+
+    /*
+     * @param mac HMAC initialized with the session key
+     */
+    public boolean verify(Mac mac) {
+        mac.update(authenticatedBytes.duplicate());
+        return MessageDigest.isEqual(mac.doFinal(), this.mac);
+    }
+
+    public long getSessionId() {
+        return sessionId;
+    }
+
+    public long getSequence() {
+        return sequence;
+    }
+
+    public List<ByteBuffer> getFrames() {
+        return frames;
+    }
+}
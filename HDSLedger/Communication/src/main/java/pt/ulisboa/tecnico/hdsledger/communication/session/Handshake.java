@@ -0,0 +1,135 @@
+package pt.ulisboa.tecnico.hdsledger.communication.session;
+
+import java.nio.ByteBuffer;
+import java.security.GeneralSecurityException;
+
+import pt.ulisboa.tecnico.hdsledger.communication.codec.ByteReader;
+import pt.ulisboa.tecnico.hdsledger.communication.codec.ByteWriter;
+import pt.ulisboa.tecnico.hdsledger.communication.codec.Packet;
+import pt.ulisboa.tecnico.hdsledger.utilities.ErrorMessage;
+import pt.ulisboa.tecnico.hdsledger.utilities.KeyRing;
+import pt.ulisboa.tecnico.hdsledger.utilities.LedgerException;
+
+/*
+ * Key agreement datagram (HELLO from the initiator, HELLO_REPLY from the
+ * responder), signed with the RSA key of its sender.
+ *
+ * Layout (big-endian):
+ * version (1) | kind (1) | sender id | session id (8) | incarnation (8) | generation (4)
+ * | initiator key | responder key (empty in a HELLO) | signature length (2) | signature
+ *
+ * The reply repeats the key of the initiator, so it cannot be matched with
+ * another HELLO.
+ */
+public class Handshake {
+
+    // HELLO or HELLO_REPLY
+    private final Packet.Kind kind;
+    // Sender identifier
+    private final String senderId;
+    // Session being established
+    private final long sessionId;
+    // Start time of the sender (a greater one means it restarted)
+    private final long incarnation;
+    // Number of the handshake within the incarnation of the initiator
+    private final int generation;
+    // Ephemeral public keys (X.509 encoded)
+    private final byte[] initiatorKey;
+    private final byte[] responderKey;
+    // View over the signed bytes
+    private final ByteBuffer signedBytes;
+    // Raw signature
+    private final byte[] signature;
+
+    private Handshake(Packet.Kind kind, String senderId, long sessionId, long incarnation, int generation,
+            byte[] initiatorKey, byte[] responderKey, ByteBuffer signedBytes, byte[] signature) {
+        this.kind = kind;
+        this.senderId = senderId;
+        this.sessionId = sessionId;
+        this.incarnation = incarnation;
+        this.generation = generation;
+        this.initiatorKey = initiatorKey;
+        this.responderKey = responderKey;
+        this.signedBytes = signedBytes;
+        this.signature = signature;
+    }
+
+    public static byte[] encode(Packet.Kind kind, String senderId, long sessionId, long incarnation,
+            int generation, byte[] initiatorKey, byte[] responderKey, KeyRing keyRing)
+            throws GeneralSecurityException {
+        ByteWriter out = new ByteWriter();
+        out.putByte(Packet.VERSION);
+        out.putByte(kind.ordinal());
+        out.putString(senderId);
+        out.putLong(sessionId);
+        out.putLong(incarnation);
+        out.putInt(generation);
+        out.putByteArray(initiatorKey);
+        out.putByteArray(responderKey);
+
+        byte[] signature = keyRing.sign(out.asByteBuffer());
+        out.putShort(signature.length);
+        out.putBytes(signature);
+        return out.toByteArray();
+    }
+
+    public static Handshake parse(ByteBuffer datagram) {
+        ByteBuffer handshake = datagram.slice();
+        Packet.Kind kind = Packet.kindOf(handshake);
+        if (kind == Packet.Kind.DATA)
+            throw new LedgerException(ErrorMessage.CannotParseMessage);
+
+        ByteReader in = new ByteReader(handshake.duplicate());
+        in.getByte();
+        in.getByte();
+        String senderId = in.getString();
+        long sessionId = in.getLong();
+        long incarnation = in.getLong();
+        int generation = in.getInt();
+        byte[] initiatorKey = in.getByteArray();
+        byte[] responderKey = in.getByteArray();
+        if (senderId == null || initiatorKey == null || responderKey == null)
+            throw new LedgerException(ErrorMessage.CannotParseMessage);
+
+        ByteBuffer signedBytes = handshake.duplicate();
+        signedBytes.limit(handshake.remaining() - in.remaining());
+        byte[] signature = in.getBytes(in.getShort());
+        return new Handshake(kind, senderId, sessionId, incarnation, generation, initiatorKey, responderKey,
+                signedBytes, signature);
+    }
+
+    /*
+     * Checks the signature against the key of the sender
+     */
+    public boolean verify(KeyRing keyRing) {
+        return keyRing.verifySignature(signedBytes.duplicate(), signature, senderId);
+    }
+
+    public Packet.Kind getKind() {
+        return kind;
+    }
+
+    public String getSenderId() {
+        return senderId;
+    }
+
+    public long getSessionId() {
+        return sessionId;
+    }
+
+    public long getIncarnation() {
+        return incarnation;
+    }
+
+    public int getGeneration() {
+        return generation;
+    }
+
+    public byte[] getInitiatorKey() {
+        return initiatorKey;
+    }
+
+    public byte[] getResponderKey() {
+        return responderKey;
+    }
+}
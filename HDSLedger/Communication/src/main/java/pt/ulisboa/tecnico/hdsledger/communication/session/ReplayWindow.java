@@ -0,0 +1,47 @@
+package pt.ulisboa.tecnico.hdsledger.communication.session;
+
+import java.util.BitSet;
+
+/*
+ * Sliding window of the sequence numbers received on a session. A packet is
+ * accepted once, and only if it is not too far behind the newest one (packets
+ * may be reordered by the network or by the decode threads).
+ */
+public class ReplayWindow {
+
+    // Number of sequence numbers remembered behind the newest one
+    private final int size;
+    // Sequence number -> received (indexed modulo size)
+    private final BitSet received;
+    // Newest sequence number received (-1 if none)
+    private long highest = -1;
+
+    public ReplayWindow(int size) {
+        this.size = size;
+        this.received = new BitSet(size);
+    }
+
+    /*
+     * @return False if the sequence number was already received or is too old
+     */
+    public synchronized boolean accept(long sequence) {
+        if (sequence < 0 || sequence <= highest - size)
+            return false;
+
+        if (sequence > highest) {
+            // Forget the sequence numbers that fall out of the window
+            if (sequence - highest >= size) {
+                received.clear();
+            } else {
+                for (long i = highest + 1; i <= sequence; i++)
+                    received.clear((int) (i % size));
+            }
+            highest = sequence;
+        } else if (received.get((int) (sequence % size))) {
+            return false;
+        }
+
+        received.set((int) (sequence % size));
+        return true;
+    }
+}
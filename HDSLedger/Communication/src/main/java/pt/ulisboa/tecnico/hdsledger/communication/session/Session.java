@@ -0,0 +1,106 @@
+package pt.ulisboa.tecnico.hdsledger.communication.session;
+
+import java.nio.ByteBuffer;
+import java.security.GeneralSecurityException;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+
+import pt.ulisboa.tecnico.hdsledger.communication.codec.Packet;
+import pt.ulisboa.tecnico.hdsledger.utilities.ErrorMessage;
+import pt.ulisboa.tecnico.hdsledger.utilities.LedgerException;
+
+/*
+ * One direction of a channel between two processes: the process that started
+ * the handshake sends on it and the other one receives. Packets are
+ * authenticated with HMAC-SHA256 under the key both sides agreed on.
+ */
+public class Session {
+
+    public static final String MAC_ALGORITHM = "HmacSHA256";
+    // Sequence numbers remembered to discard replayed packets
+    private static final int REPLAY_WINDOW = 1024;
+    // Packets sent before the session must be replaced
+    private static final long MAX_PACKETS = 1L << 32;
+
+    // Session identifier (chosen by the initiator)
+    private final long id;
+    // The other process
+    private final String peerId;
+    // Incarnation of the other process when the session was established
+    private final long peerIncarnation;
+    // HMAC key
+    private final SecretKeySpec key;
+    // HMAC initialized with the key, one per thread (packets are sealed and opened
+    // on several threads). A rekey replaces the session, and so its instances.
+    private final ThreadLocal<Mac> macs = ThreadLocal.withInitial(this::newMac);
+    // When the session was established (ms)
+    private final long established = System.currentTimeMillis();
+    // Sequence number of the next packet sent
+    private final AtomicLong nextSequence = new AtomicLong(0);
+    // Sequence numbers received
+    private final ReplayWindow window = new ReplayWindow(REPLAY_WINDOW);
+
+    public Session(long id, String peerId, long peerIncarnation, byte[] key) {
+        this.id = id;
+        this.peerId = peerId;
+        this.peerIncarnation = peerIncarnation;
+        this.key = new SecretKeySpec(key, MAC_ALGORITHM);
+    }
+
+    private Mac newMac() {
+        try {
+            Mac mac = Mac.getInstance(MAC_ALGORITHM);
+            mac.init(key);
+            return mac;
+        } catch (GeneralSecurityException e) {
+            throw new LedgerException(ErrorMessage.CannotAuthenticateMessage);
+        }
+    }
+
+    /*
+     * @return HMAC of the calling thread, reset by the doFinal of its previous use
+     */
+    private Mac mac() {
+        return macs.get();
+    }
+
+    /*
+     * Encodes and authenticates the next packet of the session
+     */
+    public ByteBuffer seal(List<byte[]> frames) {
+        return Packet.seal(id, nextSequence.getAndIncrement(), frames, mac());
+    }
+
+    /*
+     * @param verify False to skip the HMAC check (the replay window still applies)
+     *
+     * @return True if the packet is authentic and was not received before
+     */
+    public boolean open(Packet packet, boolean verify) {
+        if (verify && !packet.verify(mac()))
+            return false;
+        return window.accept(packet.getSequence());
+    }
+
+    /*
+     * @return True if the session should be replaced by a new one
+     */
+    public boolean isStale(long now, long rekeyInterval) {
+        return now - established >= rekeyInterval || nextSequence.get() >= MAX_PACKETS;
+    }
+
+    public long getId() {
+        return id;
+    }
+
+    public String getPeerId() {
+        return peerId;
+    }
+
+    public long getPeerIncarnation() {
+        return peerIncarnation;
+    }
+}
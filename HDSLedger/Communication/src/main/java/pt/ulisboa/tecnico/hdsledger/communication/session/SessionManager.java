@@ -0,0 +1,330 @@
+package pt.ulisboa.tecnico.hdsledger.communication.session;
+
+import java.nio.ByteBuffer;
+import java.security.GeneralSecurityException;
+import java.security.KeyFactory;
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.security.PrivateKey;
+import java.security.SecureRandom;
+import java.security.spec.X509EncodedKeySpec;
+import java.text.MessageFormat;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
+import java.util.logging.Level;
+
+import javax.crypto.KeyAgreement;
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+
+import pt.ulisboa.tecnico.hdsledger.communication.RetransmissionScheduler;
+import pt.ulisboa.tecnico.hdsledger.communication.codec.ByteWriter;
+import pt.ulisboa.tecnico.hdsledger.communication.codec.Packet;
+import pt.ulisboa.tecnico.hdsledger.utilities.CustomLogger;
+import pt.ulisboa.tecnico.hdsledger.utilities.KeyRing;
+import pt.ulisboa.tecnico.hdsledger.utilities.ProcessConfig;
+
+/*
+ * Establishes and rotates the sessions of a link. Each process starts its own
+ * session to every peer it sends to: it generates an ephemeral X25519 key,
+ * sends it in a HELLO signed with its RSA key and derives the HMAC key once
+ * the signed HELLO_REPLY with the key of the peer arrives. RSA is only used
+ * for the handshake, every packet after it is authenticated with the HMAC.
+ *
+ * A HELLO is only accepted if its <incarnation, generation> is newer than the
+ * last one accepted from the same peer, so an old HELLO cannot be replayed to
+ * replace a session. A newer incarnation means the peer restarted and lost its
+ * sessions, so the session to it is established again.
+ */
+public class SessionManager {
+
+    private static final CustomLogger LOGGER = new CustomLogger(SessionManager.class.getName());
+
+    private static final String KEY_AGREEMENT = "X25519";
+    // Label mixed into every derived key
+    private static final String KEY_LABEL = "hdsledger-session";
+    // HELLOs sent before giving up (a new handshake starts with the next packet)
+    private static final int MAX_HANDSHAKE_ATTEMPTS = 8;
+    // Upper bound of the back-off, as a multiple of the retry delay
+    private static final int MAX_BACKOFF_FACTOR = 16;
+
+    private static class Pending {
+        private final long sessionId;
+        private final int generation;
+        private final KeyPair keyPair;
+        // Encoded public part of keyPair
+        private final byte[] publicKey;
+        private int attempts = 0;
+
+        private Pending(long sessionId, int generation, KeyPair keyPair) {
+            this.sessionId = sessionId;
+            this.generation = generation;
+            this.keyPair = keyPair;
+            this.publicKey = keyPair.getPublic().getEncoded();
+        }
+    }
+
+    private static class Peer {
+        private final String id;
+        // Session this process sends on
+        private Session outbound;
+        // Handshake started by this process, waiting for the reply
+        private Pending pending;
+        // Handshakes started by this process
+        private int generation = 0;
+        // Last HELLO accepted from the peer
+        private long helloIncarnation = -1;
+        private int helloGeneration = -1;
+        // Reply to that HELLO (sent again if the HELLO is retransmitted)
+        private byte[] reply;
+        // Sessions the peer sends on (the previous one is kept while the peer switches)
+        private Session current;
+        private Session previous;
+
+        private Peer(String id) {
+            this.id = id;
+        }
+    }
+
+    // Process that owns the link
+    private final ProcessConfig self;
+    // Keys used to sign and verify handshakes
+    private final KeyRing keyRing;
+    // Runs the HELLO retransmissions
+    private final RetransmissionScheduler scheduler;
+    // Delay before the first HELLO retransmission (ms)
+    private final long retryDelay;
+    // Age after which a session is replaced (ms)
+    private final long rekeyInterval;
+    // Sends a handshake datagram to a peer
+    private final BiConsumer<String, ByteBuffer> transmit;
+    // Called when a session to a peer is established
+    private final Consumer<String> established;
+    // Start time of this process, tells peers whether it restarted
+    private final long incarnation = System.currentTimeMillis();
+    private final SecureRandom random = new SecureRandom();
+    // Peer id -> handshake state
+    private final Map<String, Peer> peers = new ConcurrentHashMap<>();
+    // Session id -> session a peer sends on
+    private final Map<Long, Session> inbound = new ConcurrentHashMap<>();
+
+    /*
+     * @param peerIds Processes this process exchanges packets with
+     *
+     * @param transmit Sends a handshake datagram to a peer
+     *
+     * @param established Called when a session to a peer is established
+     */
+    public SessionManager(ProcessConfig self, Collection<String> peerIds, KeyRing keyRing,
+            RetransmissionScheduler scheduler, long retryDelay, long rekeyInterval,
+            BiConsumer<String, ByteBuffer> transmit, Consumer<String> established) {
+        this.self = self;
+        this.keyRing = keyRing;
+        this.scheduler = scheduler;
+        this.retryDelay = retryDelay;
+        this.rekeyInterval = rekeyInterval;
+        this.transmit = transmit;
+        this.established = established;
+        peerIds.forEach(id -> peers.put(id, new Peer(id)));
+    }
+
+    /*
+     * Starts a handshake with every peer, so they learn about a restart
+     * without waiting for this process to send them something
+     */
+    public void start() {
+        peers.keySet().forEach(this::outbound);
+    }
+
+    /*
+     * @return The session to send to a peer on, empty while it is being
+     * established (a handshake is started if needed)
+     */
+    public Optional<Session> outbound(String peerId) {
+        Peer peer = peers.get(peerId);
+        if (peer == null)
+            return Optional.empty();
+
+        synchronized (peer) {
+            Session session = peer.outbound;
+            // A stale session is still used until the new one is established
+            if (peer.pending == null && (session == null || session.isStale(System.currentTimeMillis(), rekeyInterval)))
+                startHandshake(peer);
+            return Optional.ofNullable(session);
+        }
+    }
+
+    /*
+     * @param verify False to skip the HMAC check (the replay window still applies)
+     *
+     * @return The peer that sent the packet, empty if the session is unknown,
+     * the packet is not authentic or it was replayed
+     */
+    public Optional<String> open(Packet packet, boolean verify) {
+        Session session = inbound.get(packet.getSessionId());
+        if (session == null || !session.open(packet, verify))
+            return Optional.empty();
+        return Optional.of(session.getPeerId());
+    }
+
+    /*
+     * Handles a received HELLO or HELLO_REPLY
+     *
+     * @param verify False to skip the signature check
+     */
+    public void handshake(ByteBuffer datagram, boolean verify) {
+        Handshake handshake = Handshake.parse(datagram);
+        Peer peer = peers.get(handshake.getSenderId());
+        if (peer == null || (verify && !handshake.verify(keyRing))) {
+            LOGGER.log(Level.INFO, MessageFormat.format("{0} - Invalid handshake claiming to be from {1}",
+                    self.getId(), handshake.getSenderId()));
+            return;
+        }
+
+        try {
+            if (handshake.getKind() == Packet.Kind.HELLO)
+                onHello(peer, handshake);
+            else
+                onReply(peer, handshake);
+        } catch (GeneralSecurityException e) {
+            LOGGER.log(Level.INFO, MessageFormat.format("{0} - Failed handshake with {1}: {2}", self.getId(),
+                    peer.id, e.getMessage()));
+        }
+    }
+
+    private void startHandshake(Peer peer) {
+        KeyPair keyPair;
+        try {
+            keyPair = KeyPairGenerator.getInstance(KEY_AGREEMENT).generateKeyPair();
+        } catch (GeneralSecurityException e) {
+            LOGGER.log(Level.INFO, MessageFormat.format("{0} - Cannot generate session key: {1}", self.getId(),
+                    e.getMessage()));
+            return;
+        }
+        peer.pending = new Pending(random.nextLong(), ++peer.generation, keyPair);
+        sendHello(peer, peer.pending);
+    }
+
+    /*
+     * Sends a HELLO until it is answered, superseded or too many attempts were made
+     */
+    private void sendHello(Peer peer, Pending pending) {
+        synchronized (peer) {
+            if (peer.pending != pending)
+                return;
+            if (pending.attempts >= MAX_HANDSHAKE_ATTEMPTS) {
+                peer.pending = null;
+                LOGGER.log(Level.INFO, MessageFormat.format("{0} - No reply to handshake with {1}, giving up",
+                        self.getId(), peer.id));
+                return;
+            }
+            pending.attempts++;
+
+            try {
+                transmit.accept(peer.id, ByteBuffer.wrap(Handshake.encode(Packet.Kind.HELLO, self.getId(),
+                        pending.sessionId, incarnation, pending.generation, pending.publicKey, new byte[0],
+                        keyRing)));
+            } catch (GeneralSecurityException e) {
+                LOGGER.log(Level.INFO, MessageFormat.format("{0} - Cannot sign handshake: {1}", self.getId(),
+                        e.getMessage()));
+            }
+
+            long delay = retryDelay * Math.min(1L << (pending.attempts - 1), MAX_BACKOFF_FACTOR);
+            scheduler.schedule(() -> sendHello(peer, pending), delay);
+        }
+    }
+
+    private void onHello(Peer peer, Handshake hello) throws GeneralSecurityException {
+        synchronized (peer) {
+            int order = hello.getIncarnation() != peer.helloIncarnation
+                    ? Long.compare(hello.getIncarnation(), peer.helloIncarnation)
+                    : Integer.compare(hello.getGeneration(), peer.helloGeneration);
+            if (order < 0)
+                return;
+            if (order == 0) {
+                // Retransmitted HELLO, the reply was lost
+                if (peer.reply != null)
+                    transmit.accept(peer.id, ByteBuffer.wrap(peer.reply));
+                return;
+            }
+
+            KeyPair keyPair = KeyPairGenerator.getInstance(KEY_AGREEMENT).generateKeyPair();
+            byte[] publicKey = keyPair.getPublic().getEncoded();
+            byte[] key = deriveKey(keyPair.getPrivate(), hello.getInitiatorKey(), hello.getSessionId(), peer.id,
+                    self.getId(), hello.getInitiatorKey(), publicKey);
+            byte[] reply = Handshake.encode(Packet.Kind.HELLO_REPLY, self.getId(), hello.getSessionId(),
+                    incarnation, hello.getGeneration(), hello.getInitiatorKey(), publicKey, keyRing);
+
+            Session session = new Session(hello.getSessionId(), peer.id, hello.getIncarnation(), key);
+            if (peer.previous != null)
+                inbound.remove(peer.previous.getId());
+            peer.previous = peer.current;
+            peer.current = session;
+            inbound.put(session.getId(), session);
+            peer.helloIncarnation = hello.getIncarnation();
+            peer.helloGeneration = hello.getGeneration();
+            peer.reply = reply;
+            transmit.accept(peer.id, ByteBuffer.wrap(reply));
+
+            LOGGER.log(Level.INFO, MessageFormat.format("{0} - Accepted session {1} from {2}", self.getId(),
+                    Long.toHexString(session.getId()), peer.id));
+
+            // The peer restarted and forgot the session this process sends on
+            if (peer.outbound != null && hello.getIncarnation() > peer.outbound.getPeerIncarnation()) {
+                peer.outbound = null;
+                if (peer.pending == null)
+                    startHandshake(peer);
+            }
+        }
+    }
+
+    private void onReply(Peer peer, Handshake reply) throws GeneralSecurityException {
+        Session session;
+        synchronized (peer) {
+            Pending pending = peer.pending;
+            // Reply to an older HELLO or to a HELLO that is already answered
+            if (pending == null || pending.sessionId != reply.getSessionId()
+                    || !Arrays.equals(pending.publicKey, reply.getInitiatorKey()))
+                return;
+
+            byte[] key = deriveKey(pending.keyPair.getPrivate(), reply.getResponderKey(), pending.sessionId,
+                    self.getId(), peer.id, pending.publicKey, reply.getResponderKey());
+            session = new Session(pending.sessionId, peer.id, reply.getIncarnation(), key);
+            peer.outbound = session;
+            peer.pending = null;
+        }
+
+        LOGGER.log(Level.INFO, MessageFormat.format("{0} - Established session {1} to {2}", self.getId(),
+                Long.toHexString(session.getId()), peer.id));
+        established.accept(peer.id);
+    }
+
+    /*
+     * HMAC key of a session: the X25519 shared secret bound to the session and
+     * to both processes and ephemeral keys
+     */
+    private static byte[] deriveKey(PrivateKey privateKey, byte[] peerKey, long sessionId, String initiatorId,
+            String responderId, byte[] initiatorKey, byte[] responderKey) throws GeneralSecurityException {
+        KeyAgreement agreement = KeyAgreement.getInstance(KEY_AGREEMENT);
+        agreement.init(privateKey);
+        agreement.doPhase(KeyFactory.getInstance(KEY_AGREEMENT).generatePublic(new X509EncodedKeySpec(peerKey)),
+                true);
+
+        Mac mac = Mac.getInstance(Session.MAC_ALGORITHM);
+        mac.init(new SecretKeySpec(agreement.generateSecret(), Session.MAC_ALGORITHM));
+        ByteWriter context = new ByteWriter()
+                .putString(KEY_LABEL)
+                .putLong(sessionId)
+                .putString(initiatorId)
+                .putString(responderId)
+                .putByteArray(initiatorKey)
+                .putByteArray(responderKey);
+        mac.update(context.asByteBuffer());
+        return mac.doFinal();
+    }
+}
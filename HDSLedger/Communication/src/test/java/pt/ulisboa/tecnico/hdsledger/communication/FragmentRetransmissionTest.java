@@ -0,0 +1,81 @@
+package pt.ulisboa.tecnico.hdsledger.communication;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.junit.jupiter.api.Test;
+
+import pt.ulisboa.tecnico.hdsledger.utilities.CollapsingSet;
+
+/*
+ * A message split in fragments, one of them lost: the receiver acknowledges
+ * the others as they arrive, so only the lost one is sent again
+ */
+public class FragmentRetransmissionTest {
+
+    private static final String SENDER = "1";
+    private static final String RECEIVER = "2";
+    private static final int COUNT = 8;
+    private static final int LOST = 3;
+    private static final long TIMEOUT = 5;
+
+    private final Reassembler reassembler = new Reassembler(1, 64, 64, 64);
+    private final CollapsingSet received = new CollapsingSet(1 << 16);
+    private final AtomicReference<byte[]> body = new AtomicReference<>();
+
+    private synchronized void deliver(int messageId) {
+        Reassembler.Result result = reassembler.add(SENDER, 0,
+                new FragmentMessage(SENDER, messageId, COUNT, new byte[] { (byte) messageId }));
+        assertTrue(result.acknowledged());
+        received.add(messageId);
+        if (result.body() != null)
+            body.set(result.body());
+    }
+
+    private synchronized AckMessage ack() {
+        return PerfectLink.ackFor(RECEIVER, received);
+    }
+
+    @Test
+    public void onlyLostFragmentIsRetransmitted() throws InterruptedException {
+        RetransmissionScheduler scheduler = new RetransmissionScheduler("test", 2, 200, 10, 1000, 0, 16);
+        AtomicIntegerArray attempts = new AtomicIntegerArray(COUNT);
+        CountDownLatch sent = new CountDownLatch(COUNT);
+        CountDownLatch resent = new CountDownLatch(1);
+
+        for (int i = 0; i < COUNT; i++) {
+            int messageId = i;
+            scheduler.submit(RECEIVER, messageId, attempt -> {
+                attempts.incrementAndGet(messageId);
+                // The first copy of one fragment is lost
+                if (messageId != LOST || attempt > 1)
+                    deliver(messageId);
+                if (attempt > 1)
+                    resent.countDown();
+                sent.countDown();
+            });
+        }
+        assertTrue(sent.await(TIMEOUT, TimeUnit.SECONDS));
+        scheduler.transmitted(RECEIVER, List.of(0, 1, 2, 3, 4, 5, 6, 7));
+
+        // Cumulative up to the gap, selective after it
+        AckMessage ack = ack();
+        assertEquals(LOST - 1, ack.getCumulativeId());
+        assertEquals(COUNT - 1, PerfectLink.acknowledge(scheduler, ack));
+
+        assertTrue(resent.await(TIMEOUT, TimeUnit.SECONDS));
+        assertEquals(1, PerfectLink.acknowledge(scheduler, ack()));
+
+        for (int i = 0; i < COUNT; i++)
+            assertEquals(i == LOST ? 2 : 1, attempts.get(i));
+        assertEquals(1, scheduler.getRetransmissions(RECEIVER));
+        assertArrayEquals(new byte[] { 0, 1, 2, 3, 4, 5, 6, 7 }, body.get());
+    }
+}
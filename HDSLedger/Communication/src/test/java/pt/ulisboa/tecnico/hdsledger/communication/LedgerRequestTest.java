@@ -0,0 +1,62 @@
+package pt.ulisboa.tecnico.hdsledger.communication;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertSame;
+
+import java.math.BigDecimal;
+import java.security.KeyPairGenerator;
+import java.security.NoSuchAlgorithmException;
+import java.security.PublicKey;
+
+import org.junit.jupiter.api.Test;
+
+import com.google.gson.Gson;
+
+public class LedgerRequestTest {
+
+    private static PublicKey key() throws NoSuchAlgorithmException {
+        KeyPairGenerator generator = KeyPairGenerator.getInstance("RSA");
+        generator.initialize(1024);
+        return generator.generateKeyPair().getPublic();
+    }
+
+    private static LedgerRequest transfer(PublicKey source, PublicKey destination, int amount) {
+        String message = new Gson().toJson(new LedgerRequestTransfer(1, source, destination, BigDecimal.valueOf(amount)));
+        return new LedgerRequest("client1", Message.Type.TRANSFER, message, "signature");
+    }
+
+    @Test
+    public void copiesShareOneView() throws NoSuchAlgorithmException {
+        PublicKey source = key();
+        PublicKey destination = key();
+        LedgerRequest request = transfer(source, destination, 10);
+        LedgerRequest copy = transfer(source, destination, 10);
+
+        LedgerRequestTransfer view = request.deserializeTransfer();
+        assertSame(view, copy.deserializeTransfer());
+        assertSame(view, request.deserializeTransfer());
+
+        assertEquals(1, view.getNonce());
+        assertEquals(BigDecimal.valueOf(10), view.getAmount());
+        assertEquals(source, view.getSourcePubKey());
+        assertEquals(AccountId.of(source), view.getSourceAccountId());
+        assertEquals(AccountId.of(destination), view.getDestinationAccountId());
+    }
+
+    @Test
+    public void setMessageInvalidatesView() throws NoSuchAlgorithmException {
+        PublicKey source = key();
+        PublicKey destination = key();
+        LedgerRequest request = transfer(source, destination, 10);
+        LedgerRequestTransfer view = request.deserializeTransfer();
+
+        request.setMessage(transfer(source, destination, 21).getMessage());
+
+        LedgerRequestTransfer altered = request.deserializeTransfer();
+        assertNotSame(view, altered);
+        assertEquals(BigDecimal.valueOf(21), altered.getAmount());
+        // The shared view is untouched
+        assertEquals(BigDecimal.valueOf(10), view.getAmount());
+    }
+}
@@ -0,0 +1,60 @@
+package pt.ulisboa.tecnico.hdsledger.communication;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.NavigableMap;
+
+import org.junit.jupiter.api.Test;
+
+import pt.ulisboa.tecnico.hdsledger.communication.codec.Packet;
+
+public class OutboxTest {
+
+    private static PerfectLink.Outbox outbox() {
+        return new PerfectLink.Outbox(new InetSocketAddress("localhost", 0));
+    }
+
+    @Test
+    public void retransmissionReplacesQueuedCopy() {
+        PerfectLink.Outbox outbox = outbox();
+        byte[] retransmitted = { 3 };
+
+        outbox.queue(2, new byte[] { 2 });
+        outbox.queue(1, new byte[] { 1 });
+        outbox.queue(1, retransmitted);
+
+        NavigableMap<Integer, byte[]> frames = outbox.drain();
+        assertEquals(List.of(1, 2), new ArrayList<>(frames.keySet()));
+        assertArrayEquals(retransmitted, frames.get(1));
+        assertTrue(outbox.drain().isEmpty());
+    }
+
+    @Test
+    public void queuedMessagesShareDatagrams() {
+        PerfectLink.Outbox outbox = outbox();
+        for (int id = 0; id < 100; id++)
+            outbox.queue(id, new byte[1000]);
+
+        List<byte[]> frames = new ArrayList<>(outbox.drain().values());
+        List<List<byte[]>> datagrams = Packet.group(frames, Packet.MAX_SIZE);
+
+        // 65 frames of 1 KB fit in a datagram
+        assertEquals(2, datagrams.size());
+        assertEquals(100, datagrams.get(0).size() + datagrams.get(1).size());
+    }
+
+    @Test
+    public void largeFrameTravelsAlone() {
+        List<byte[]> frames = List.of(new byte[10], new byte[Packet.MAX_SIZE], new byte[10]);
+
+        List<List<byte[]>> datagrams = Packet.group(frames, Packet.MAX_SIZE);
+
+        assertEquals(3, datagrams.size());
+        assertEquals(Packet.MAX_SIZE, datagrams.get(1).get(0).length);
+    }
+}
@@ -0,0 +1,66 @@
+package pt.ulisboa.tecnico.hdsledger.communication;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import org.junit.jupiter.api.Test;
+
+public class ReassemblerTest {
+
+    private static final int FRAGMENT_SIZE = 4;
+
+    private static Reassembler reassembler() {
+        return new Reassembler(FRAGMENT_SIZE, 64, 64, 128);
+    }
+
+    private static FragmentMessage fragment(int index, int count, byte... chunk) {
+        return new FragmentMessage("1", index, count, chunk);
+    }
+
+    @Test
+    public void eachFragmentIsAcknowledged() {
+        Reassembler reassembler = reassembler();
+
+        Reassembler.Result first = reassembler.add("1", 10, fragment(1, 2, (byte) 5));
+        assertTrue(first.acknowledged());
+        assertNull(first.body());
+
+        Reassembler.Result last = reassembler.add("1", 10, fragment(0, 2, (byte) 1, (byte) 2, (byte) 3, (byte) 4));
+        assertTrue(last.acknowledged());
+        assertArrayEquals(new byte[] { 1, 2, 3, 4, 5 }, last.body());
+        assertEquals(0, reassembler.getReserved());
+    }
+
+    @Test
+    public void incompleteMessageIsKept() {
+        Reassembler reassembler = reassembler();
+        reassembler.add("1", 0, fragment(0, 3, (byte) 1));
+        reassembler.add("1", 0, fragment(2, 3, (byte) 3));
+
+        // However late the missing fragment is, the acknowledged ones are still there
+        Reassembler.Result last = reassembler.add("1", 0, fragment(1, 3, (byte) 2));
+        assertArrayEquals(new byte[] { 1, 2, 3 }, last.body());
+    }
+
+    @Test
+    public void malformedFragmentIsDropped() {
+        Reassembler reassembler = reassembler();
+
+        Reassembler.Result result = reassembler.add("1", 0, fragment(3, 2, (byte) 1));
+        assertTrue(result.acknowledged());
+        assertNull(result.body());
+        assertEquals(0, reassembler.getReserved());
+    }
+
+    @Test
+    public void overBudgetIsRefused() {
+        Reassembler reassembler = reassembler();
+        // 16 fragments fill the budget of the sender
+        assertTrue(reassembler.add("1", 0, fragment(0, 16, (byte) 1)).acknowledged());
+        assertFalse(reassembler.add("1", 16, fragment(0, 2, (byte) 1)).acknowledged());
+        assertEquals(16 * FRAGMENT_SIZE, reassembler.getReserved());
+    }
+}
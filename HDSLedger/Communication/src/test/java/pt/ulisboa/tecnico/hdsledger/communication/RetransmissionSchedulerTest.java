@@ -0,0 +1,86 @@
+package pt.ulisboa.tecnico.hdsledger.communication;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.jupiter.api.Test;
+
+public class RetransmissionSchedulerTest {
+
+    private static final String DEST = "2";
+    private static final long INITIAL_TIMEOUT = 200;
+    private static final long MIN_TIMEOUT = 10;
+    private static final long MAX_TIMEOUT = 1000;
+
+    private static RetransmissionScheduler scheduler() {
+        return new RetransmissionScheduler("test", 2, INITIAL_TIMEOUT, MIN_TIMEOUT, MAX_TIMEOUT, 0, 16);
+    }
+
+    /*
+     * Submits a message and waits until it was transmitted a number of times
+     */
+    private static void submit(RetransmissionScheduler scheduler, int messageId, int attempts)
+            throws InterruptedException {
+        CountDownLatch latch = new CountDownLatch(attempts);
+        scheduler.submit(DEST, messageId, attempt -> latch.countDown());
+        assertTrue(latch.await(5, TimeUnit.SECONDS));
+        scheduler.transmitted(DEST, List.of(messageId));
+    }
+
+    @Test
+    public void retransmittedMessageGivesNoSample() throws InterruptedException {
+        RetransmissionScheduler scheduler = scheduler();
+
+        submit(scheduler, 0, 2);
+        assertTrue(scheduler.acknowledge(DEST, 0));
+
+        // Karn's rule: the ACK may answer either copy, the timeout stays backed off
+        assertTrue(scheduler.getSmoothedRtt(DEST) < 0);
+        assertEquals(2 * INITIAL_TIMEOUT, scheduler.getTimeout(DEST));
+        assertEquals(1, scheduler.getRetransmissions(DEST));
+    }
+
+    @Test
+    public void firstAttemptGivesSample() throws InterruptedException {
+        RetransmissionScheduler scheduler = scheduler();
+
+        submit(scheduler, 0, 1);
+        assertTrue(scheduler.acknowledge(DEST, 0));
+
+        assertTrue(scheduler.getSmoothedRtt(DEST) >= 0);
+        assertEquals(MIN_TIMEOUT, scheduler.getTimeout(DEST));
+    }
+
+    @Test
+    public void messageNotWrittenGivesNoSample() throws InterruptedException {
+        RetransmissionScheduler scheduler = scheduler();
+        CountDownLatch latch = new CountDownLatch(1);
+
+        // Queued, but never flushed to the network (e.g. no session yet)
+        scheduler.submit(DEST, 0, attempt -> latch.countDown());
+        assertTrue(latch.await(5, TimeUnit.SECONDS));
+        assertTrue(scheduler.acknowledge(DEST, 0));
+
+        assertTrue(scheduler.getSmoothedRtt(DEST) < 0);
+    }
+
+    @Test
+    public void cumulativeAckResetsBackoff() throws InterruptedException {
+        RetransmissionScheduler scheduler = scheduler();
+        submit(scheduler, 0, 2);
+        assertEquals(1, scheduler.acknowledgeUpTo(DEST, 0));
+        assertEquals(2 * INITIAL_TIMEOUT, scheduler.getTimeout(DEST));
+
+        submit(scheduler, 1, 1);
+        submit(scheduler, 2, 1);
+        assertEquals(2, scheduler.acknowledgeUpTo(DEST, 2));
+
+        assertTrue(scheduler.getSmoothedRtt(DEST) >= 0);
+        assertEquals(MIN_TIMEOUT, scheduler.getTimeout(DEST));
+        assertEquals(0, scheduler.getPendingCount());
+    }
+}
@@ -0,0 +1,59 @@
+package pt.ulisboa.tecnico.hdsledger.communication;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import org.junit.jupiter.api.Test;
+
+public class RttEstimatorTest {
+
+    @Test
+    public void firstSampleSetsEstimate() {
+        RttEstimator rtt = new RttEstimator(1000, 10, 60_000);
+        assertTrue(rtt.getSmoothedRtt() < 0);
+        assertEquals(1000, rtt.getTimeout());
+
+        // SRTT = 100, RTTVAR = 50, RTO = 100 + 4 * 50
+        rtt.sample(100);
+        assertEquals(100, rtt.getSmoothedRtt());
+        assertEquals(300, rtt.getTimeout());
+    }
+
+    @Test
+    public void laterSamplesAreSmoothed() {
+        RttEstimator rtt = new RttEstimator(1000, 10, 60_000);
+        rtt.sample(100);
+
+        // RTTVAR = 3/4 * 50 + 1/4 * 100, SRTT = 7/8 * 100 + 1/8 * 200
+        rtt.sample(200);
+        assertEquals(112.5, rtt.getSmoothedRtt());
+        assertEquals(113 + 250, rtt.getTimeout());
+    }
+
+    @Test
+    public void backoffLastsUntilNextSample() {
+        RttEstimator rtt = new RttEstimator(1000, 10, 1000);
+        rtt.sample(100);
+
+        rtt.backoff();
+        assertEquals(600, rtt.getTimeout());
+        rtt.backoff();
+        assertEquals(1000, rtt.getTimeout());
+
+        // RTTVAR = 3/4 * 50
+        rtt.sample(100);
+        assertEquals(250, rtt.getTimeout());
+    }
+
+    @Test
+    public void timeoutIsBounded() {
+        RttEstimator rtt = new RttEstimator(5, 10, 1000);
+        assertEquals(10, rtt.getTimeout());
+
+        rtt.sample(0.1);
+        assertEquals(10, rtt.getTimeout());
+
+        rtt.sample(5000);
+        assertEquals(1000, rtt.getTimeout());
+    }
+}
@@ -0,0 +1,43 @@
+package pt.ulisboa.tecnico.hdsledger.communication.codec;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.util.List;
+import java.util.Map;
+
+import org.junit.jupiter.api.Test;
+
+import pt.ulisboa.tecnico.hdsledger.utilities.LedgerException;
+
+public class ByteReaderTest {
+
+    // size * 4 == 4 and size * 8 == 8 in int arithmetic
+    private static final int FORGED_SIZE = 0x40000001;
+
+    private static ByteReader forged(int size) {
+        // Enough bytes for the overflowed size, far too few for the real one
+        return new ByteReader(new ByteWriter().putInt(size).putLong(0).asByteBuffer());
+    }
+
+    @Test
+    public void listsRoundTrip() {
+        ByteReader in = new ByteReader(new ByteWriter().putIntList(List.of(1, 2, 3))
+                .putStringMap(Map.of("a", "b")).asByteBuffer());
+
+        assertEquals(List.of(1, 2, 3), in.getIntList());
+        assertEquals(Map.of("a", "b"), in.getStringMap());
+    }
+
+    @Test
+    public void oversizedIntListIsRejected() {
+        assertThrows(LedgerException.class, () -> forged(FORGED_SIZE).getIntList());
+        assertThrows(LedgerException.class, () -> forged(-2).getIntList());
+    }
+
+    @Test
+    public void oversizedStringMapIsRejected() {
+        assertThrows(LedgerException.class, () -> forged(FORGED_SIZE).getStringMap());
+        assertThrows(LedgerException.class, () -> forged(-2).getStringMap());
+    }
+}
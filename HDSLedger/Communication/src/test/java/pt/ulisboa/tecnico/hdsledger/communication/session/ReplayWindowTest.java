@@ -0,0 +1,56 @@
+package pt.ulisboa.tecnico.hdsledger.communication.session;
+
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import org.junit.jupiter.api.Test;
+
+public class ReplayWindowTest {
+
+    // Size used by Session
+    private static final int SIZE = 1024;
+
+    @Test
+    public void duplicateIsRejected() {
+        ReplayWindow window = new ReplayWindow(SIZE);
+
+        assertTrue(window.accept(0));
+        assertTrue(window.accept(2));
+        assertTrue(window.accept(1));
+
+        assertFalse(window.accept(0));
+        assertFalse(window.accept(1));
+        assertFalse(window.accept(2));
+        assertFalse(window.accept(-1));
+    }
+
+    @Test
+    public void oldestSequenceInWindowIsRemembered() {
+        ReplayWindow window = new ReplayWindow(SIZE);
+        assertTrue(window.accept(1));
+        assertTrue(window.accept(SIZE));
+
+        // 1 is the oldest sequence number still in the window, 0 just fell out
+        assertFalse(window.accept(1));
+        assertFalse(window.accept(0));
+        assertTrue(window.accept(2));
+
+        // Moving one further forgets 1, and it is then too old to be accepted
+        assertTrue(window.accept(SIZE + 1));
+        assertFalse(window.accept(1));
+        assertFalse(window.accept(2));
+        assertTrue(window.accept(3));
+    }
+
+    @Test
+    public void jumpPastWindowForgetsEverything() {
+        ReplayWindow window = new ReplayWindow(SIZE);
+        for (int sequence = 0; sequence < SIZE; sequence++)
+            assertTrue(window.accept(sequence));
+
+        assertTrue(window.accept(3L * SIZE));
+        assertFalse(window.accept(2L * SIZE));
+        assertTrue(window.accept(2L * SIZE + 1));
+        assertFalse(window.accept(3L * SIZE));
+    }
+}
@@ -0,0 +1,97 @@
+package pt.ulisboa.tecnico.hdsledger.communication.session;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.jupiter.api.Test;
+
+import pt.ulisboa.tecnico.hdsledger.communication.codec.Packet;
+
+public class SessionTest {
+
+    private static final byte[] FIRST_KEY = new byte[32];
+    private static final byte[] SECOND_KEY = new byte[32];
+
+    static {
+        FIRST_KEY[0] = 1;
+        SECOND_KEY[0] = 2;
+    }
+
+    private static Packet seal(Session session) {
+        ByteBuffer datagram = session.seal(List.of(new byte[] { 42 }));
+        return Packet.parse(datagram);
+    }
+
+    @Test
+    public void replayedPacketIsRejected() {
+        Session sender = new Session(1, "2", 10, FIRST_KEY);
+        Session receiver = new Session(1, "1", 10, FIRST_KEY);
+
+        Packet packet = seal(sender);
+        assertTrue(receiver.open(packet, true));
+        assertFalse(receiver.open(packet, true));
+    }
+
+    @Test
+    public void packetWithWrongKeyIsRejected() {
+        Session sender = new Session(1, "2", 10, FIRST_KEY);
+        Session receiver = new Session(1, "1", 10, SECOND_KEY);
+
+        assertFalse(receiver.open(seal(sender), true));
+    }
+
+    @Test
+    public void newIncarnationStartsNewWindow() {
+        Session oldSender = new Session(1, "2", 10, FIRST_KEY);
+        Session oldReceiver = new Session(1, "1", 10, FIRST_KEY);
+        Packet old = seal(oldSender);
+        assertTrue(oldReceiver.open(old, true));
+        for (int i = 0; i < 2000; i++)
+            assertTrue(oldReceiver.open(seal(oldSender), true));
+
+        // The peer restarted: a new session (and key) numbers its packets from 0 again
+        Session newSender = new Session(2, "2", 20, SECOND_KEY);
+        Session newReceiver = new Session(2, "1", 20, SECOND_KEY);
+        assertTrue(newReceiver.open(seal(newSender), true));
+
+        // A packet of the old session cannot be replayed on either session
+        assertFalse(newReceiver.open(old, true));
+        assertFalse(oldReceiver.open(old, true));
+    }
+
+    @Test
+    public void sessionIsStaleAfterRekeyInterval() {
+        Session session = new Session(1, "2", 10, FIRST_KEY);
+        long now = System.currentTimeMillis();
+
+        assertFalse(session.isStale(now, 60_000));
+        assertTrue(session.isStale(now + 60_000, 60_000));
+    }
+
+    @Test
+    public void packetsSealedOnSeveralThreadsAreAuthentic() throws InterruptedException {
+        Session sender = new Session(1, "2", 10, FIRST_KEY);
+        Session receiver = new Session(1, "1", 10, FIRST_KEY);
+        List<Packet> packets = Collections.synchronizedList(new ArrayList<>());
+
+        ExecutorService threads = Executors.newFixedThreadPool(4);
+        for (int i = 0; i < 400; i++)
+            threads.execute(() -> packets.add(seal(sender)));
+        threads.shutdown();
+        assertTrue(threads.awaitTermination(5, TimeUnit.SECONDS));
+
+        // Each thread reuses its HMAC, every packet is still authenticated on its own
+        assertEquals(400, packets.size());
+        for (Packet packet : packets)
+            assertTrue(receiver.open(packet, true));
+    }
+}
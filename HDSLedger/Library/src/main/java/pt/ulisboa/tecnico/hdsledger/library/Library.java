@@ -28,6 +28,8 @@ public class Library {
     private final ProcessConfig[] allConfigs;
     // Client identifier (self)
     private final ProcessConfig config;
+    // Keys of every node and client
+    private final KeyRing keyRing;
 
     // Link to communicate with blockchain nodes
     private final PerfectLink link;
@@ -64,9 +66,11 @@ public class Library {
         System.arraycopy(nodeConfigs, 0, this.allConfigs, 0, nodeConfigs.length);
         System.arraycopy(clientConfigs, 0, this.allConfigs, nodeConfigs.length, clientConfigs.length);
 
+        this.keyRing = new KeyRing(clientConfig, nodeConfigs, clientConfigs);
+
         // Create link to communicate with nodes
         this.link = new PerfectLink(clientConfig, clientConfig.getPort(), nodeConfigs, LedgerResponse.class,
-                activateLogs, 5000);
+                this.keyRing, activateLogs, 5000);
 
         int f = Math.floorDiv(nodeConfigs.length - 1, 3);
         this.smallQuorumSize = f + 1;
@@ -88,12 +92,7 @@ public class Library {
 
         int currentNonce = this.nonce.getAndIncrement();
 
-        PublicKey accountPubKey;
-        try {
-            accountPubKey = RSAEncryption.readPublicKey(this.config.getPublicKeyPath());
-        } catch (Exception e) {
-            throw new LedgerException(ErrorMessage.FailedToReadPublicKey);
-        }
+        PublicKey accountPubKey = this.keyRing.getOwnPublicKey();
 
         // Each LedgerRequest receives a specific ledger request which is serialized and
         // signed
@@ -101,7 +100,7 @@ public class Library {
         String serializedCreateRequest = new Gson().toJson(requestCreate);
         String signature;
         try {
-            signature = RSAEncryption.sign(serializedCreateRequest, config.getPrivateKeyPath());
+            signature = this.keyRing.sign(serializedCreateRequest);
         } catch (Exception e) {
             throw new LedgerException(ErrorMessage.FailedToSignMessage);
         }
@@ -141,13 +140,8 @@ public class Library {
         if (sourceConfig.isEmpty() || destinationConfig.isEmpty())
             throw new LedgerException(ErrorMessage.InvalidAccount);
 
-        PublicKey sourcePubKey, destinationPubKey;
-        try {
-            sourcePubKey = RSAEncryption.readPublicKey(sourceConfig.get().getPublicKeyPath());
-            destinationPubKey = RSAEncryption.readPublicKey(destinationConfig.get().getPublicKeyPath());
-        } catch (Exception e) {
-            throw new LedgerException(ErrorMessage.FailedToReadPublicKey);
-        }
+        PublicKey sourcePubKey = this.keyRing.getPublicKey(sourceId);
+        PublicKey destinationPubKey = this.keyRing.getPublicKey(destinationId);
 
         // BYZANTINE_TESTS
         if (this.config.getByzantineBehavior() == ProcessConfig.ByzantineBehavior.GREEDY_CLIENT) {
@@ -163,7 +157,7 @@ public class Library {
         String requestTransferSerialized = new Gson().toJson(requestTransfer);
         String signature;
         try {
-            signature = RSAEncryption.sign(requestTransferSerialized, config.getPrivateKeyPath());
+            signature = this.keyRing.sign(requestTransferSerialized);
         } catch (Exception e) {
             throw new LedgerException(ErrorMessage.FailedToSignMessage);
         }
@@ -184,13 +178,7 @@ public class Library {
                 .filter(c -> c.getId().equals(accountId)).findFirst();
         if (accountConfig.isEmpty())
             throw new LedgerException(ErrorMessage.InvalidAccount);
-        PublicKey accountPubKey;
-        try {
-            accountPubKey = RSAEncryption.readPublicKey(accountConfig.get().getPublicKeyPath());
-        } catch (Exception e) {
-            throw new LedgerException(ErrorMessage.FailedToReadPublicKey);
-        }
-        balance(accountPubKey, consistencyMode);
+        balance(this.keyRing.getPublicKey(accountId), consistencyMode);
     }
 
     /*
@@ -220,7 +208,7 @@ public class Library {
         String requestTransferSerialized = new Gson().toJson(requestRead);
         String signature;
         try {
-            signature = RSAEncryption.sign(requestTransferSerialized, config.getPrivateKeyPath());
+            signature = this.keyRing.sign(requestTransferSerialized);
         } catch (Exception e) {
             throw new LedgerException(ErrorMessage.FailedToSignMessage);
         }
@@ -251,17 +239,7 @@ public class Library {
      * @param publicKey Public key
      */
     private String findIdByPublicKey(PublicKey publicKey) {
-        for (ProcessConfig config : this.allConfigs) {
-            try {
-                PublicKey accountPubKey = RSAEncryption.readPublicKey(config.getPublicKeyPath());
-                if (accountPubKey.equals(publicKey)) {
-                    return config.getId();
-                }
-            } catch (Exception e) {
-                throw new LedgerException(ErrorMessage.FailedToReadPublicKey);
-            }
-        }
-        return null;
+        return this.keyRing.findIdByPublicKey(publicKey).orElse(null);
     }
 
     /*
@@ -345,7 +323,8 @@ public class Library {
 
     /*
      * Verify if the signatures within a LedgerResponse are all valid and have the
-     * minimum size of the small quorum
+     * minimum size of the small quorum. With a Merkle proof, the signatures are
+     * of the root the proof leads to from the account update.
      *
      * @param response LedgerResponse to verify
      */
@@ -358,6 +337,13 @@ public class Library {
             return false;
 
         String accountUpdateSerialized = new Gson().toJson(response.getUpdateAccount());
+        if (response.getProof() != null) {
+            byte[] root = response.getProof().computeRoot(response.getUpdateAccount());
+            if (root == null)
+                return false;
+            accountUpdateSerialized = AccountUpdateTree.signedData(root);
+        }
+
         for (var signature : response.getSignatures().entrySet()) {
             // Find public key of node that signed the response
             Optional<ProcessConfig> nodeConfig = Arrays.stream(this.nodeConfigs)
@@ -367,13 +353,8 @@ public class Library {
                 return false;
 
             // Verify signature
-            try {
-                if (!RSAEncryption.verifySignature(accountUpdateSerialized, signature.getValue(),
-                        nodeConfig.get().getPublicKeyPath()))
-                    return false;
-            } catch (Exception e) {
+            if (!this.keyRing.verifySignature(accountUpdateSerialized, signature.getValue(), signature.getKey()))
                 return false;
-            }
         }
 
         return true;
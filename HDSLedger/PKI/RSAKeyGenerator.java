@@ -13,34 +13,38 @@ public class RSAKeyGenerator {
     public static void main(String[] args) throws Exception {
 
         // check args
-        if (args.length != 3) {
-            System.err.println("Usage: RSAKeyGenerator [r|w] <priv-key-file> <pub-key-file>");
+        if (args.length != 3 && args.length != 4) {
+            System.err.println("Usage: RSAKeyGenerator [r|w] <priv-key-file> <pub-key-file> [rsa|ed25519]");
             return;
         }
 
         final String mode = args[0];
         final String privkeyPath = args[1];
         final String pubkeyPath = args[2];
+        // Key algorithm, must match the "signatureScheme" of the process (RSA by default)
+        final String algorithm = args.length == 4 && args[3].equalsIgnoreCase("ed25519") ? "Ed25519" : "RSA";
 
         if (mode.toLowerCase().startsWith("w")) {
             System.out.println("Generate and save keys");
-            write(privkeyPath, pubkeyPath);
+            write(privkeyPath, pubkeyPath, algorithm);
         } else {
             System.out.println("Load keys");
-            read(privkeyPath, "priv");
-            read(pubkeyPath, "pub");
+            read(privkeyPath, "priv", algorithm);
+            read(pubkeyPath, "pub", algorithm);
         }
 
         System.out.println("Done.");
     }
 
-    public static void write(String privKeyPath, String pubKeyPath) throws GeneralSecurityException, IOException {
-        // get an AES private key
-        System.out.println("Generating RSA key ..." );
-        KeyPairGenerator keyGen = KeyPairGenerator.getInstance("RSA");
-        keyGen.initialize(4096);
+    public static void write(String privKeyPath, String pubKeyPath, String algorithm)
+            throws GeneralSecurityException, IOException {
+        System.out.println("Generating " + algorithm + " key ..." );
+        KeyPairGenerator keyGen = KeyPairGenerator.getInstance(algorithm);
+        // Ed25519 keys have a fixed size
+        if (algorithm.equals("RSA"))
+            keyGen.initialize(4096);
         KeyPair keys = keyGen.generateKeyPair();
-        System.out.println("Finish generating RSA keys");
+        System.out.println("Finish generating " + algorithm + " keys");
         
         System.out.println("Private Key:");
         PrivateKey privKey = keys.getPrivate();
@@ -65,14 +69,15 @@ public class RSAKeyGenerator {
         }
     }
 
-    public static Key read(String keyPath, String type) throws IOException, NoSuchAlgorithmException, InvalidKeySpecException {
+    public static Key read(String keyPath, String type, String algorithm)
+            throws IOException, NoSuchAlgorithmException, InvalidKeySpecException {
         System.out.println("Reading key from file " + keyPath + " ...");
         byte[] encoded;
         try (FileInputStream fis = new FileInputStream(keyPath)) {
             encoded = new byte[fis.available()];
             fis.read(encoded);
         }
-        KeyFactory keyFactory = KeyFactory.getInstance("RSA");
+        KeyFactory keyFactory = KeyFactory.getInstance(algorithm);
         if (type.equals("pub") ){
             X509EncodedKeySpec keySpec = new X509EncodedKeySpec(encoded);
             return keyFactory.generatePublic(keySpec);
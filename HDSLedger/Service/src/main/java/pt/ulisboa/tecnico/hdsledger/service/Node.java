@@ -1,7 +1,9 @@
 package pt.ulisboa.tecnico.hdsledger.service;
 
+import pt.ulisboa.tecnico.hdsledger.service.services.AdaptiveBatchingPolicy;
 import pt.ulisboa.tecnico.hdsledger.service.services.Mempool;
 import pt.ulisboa.tecnico.hdsledger.utilities.CustomLogger;
+import pt.ulisboa.tecnico.hdsledger.utilities.KeyRing;
 import pt.ulisboa.tecnico.hdsledger.utilities.ProcessConfig;
 import pt.ulisboa.tecnico.hdsledger.utilities.ProcessConfigBuilder;
 import pt.ulisboa.tecnico.hdsledger.communication.LedgerRequest;
@@ -9,6 +11,7 @@ import pt.ulisboa.tecnico.hdsledger.communication.ConsensusMessage;
 import pt.ulisboa.tecnico.hdsledger.communication.PerfectLink;
 import pt.ulisboa.tecnico.hdsledger.service.services.LedgerService;
 import pt.ulisboa.tecnico.hdsledger.service.services.NodeService;
+import pt.ulisboa.tecnico.hdsledger.service.services.SignatureCache;
 
 import java.text.MessageFormat;
 import java.util.Arrays;
@@ -20,6 +23,8 @@ public class Node {
     // Hardcoded path to files
     private static String nodesConfigPath = "src/main/resources/";
     private static final String clientsConfigPath = "../Client/src/main/resources/client_config.json";
+    // Upper bound of the adaptive block size
+    private static final int MAX_BLOCK_SIZE = 256;
 
     public static void main(String[] args) {
 
@@ -28,6 +33,8 @@ public class Node {
             String id = args[0];
             nodesConfigPath += args[1];
             int blockSize = Integer.parseInt(args[2]);
+            // Optional, sockets receiving client requests (SO_REUSEPORT, Linux only)
+            int clientShards = args.length > 3 ? Integer.parseInt(args[3]) : 1;
 
             // Create configuration instances
             ProcessConfig[] nodeConfigs = new ProcessConfigBuilder().fromFile(nodesConfigPath);
@@ -45,20 +52,27 @@ public class Node {
                     nodeConfig.getId(), nodeConfig.getHostname(), nodeConfig.getPort(),
                     nodeConfig.getByzantineBehavior(), nodeConfig.isLeader()));
 
+            // Keys of every node and client, loaded once
+            KeyRing keyRing = new KeyRing(nodeConfig, nodeConfigs, clientConfigs);
+            // Signatures verified by either service, so a request is only verified once
+            SignatureCache signatures = new SignatureCache(keyRing, nodeConfig.getSignatureCacheCapacity());
+
             // Abstraction to send and receive messages
             PerfectLink linkToNodes = new PerfectLink(nodeConfig, nodeConfig.getPort(), nodeConfigs,
-                    ConsensusMessage.class);
+                    ConsensusMessage.class, keyRing);
             PerfectLink linkToClients = new PerfectLink(nodeConfig, nodeConfig.getClientPort(), clientConfigs,
-                    LedgerRequest.class);
+                    LedgerRequest.class, keyRing, clientShards);
 
             // Shared entities
-            Mempool mempool = new Mempool(blockSize);
+            Mempool mempool = new Mempool(new AdaptiveBatchingPolicy(blockSize, MAX_BLOCK_SIZE,
+                    nodeConfig.getBatchByteBudget(), nodeConfig.getBatchMaxWait(), nodeConfig.getPipelineDepth()),
+                    nodeConfig.getMempoolCapacity(), nodeConfig.getMempoolClientCapacity());
 
             // Services that implement listen from UDPService
             NodeService nodeService = new NodeService(clientConfigs, linkToNodes, linkToClients, nodeConfig, leaderConfig,
-                    nodeConfigs, mempool);
+                    nodeConfigs, mempool, keyRing, signatures);
             LedgerService ledgerService = new LedgerService(clientConfigs, linkToClients, nodeConfig,
-                    nodeService, mempool, leaderConfig);
+                    nodeService, mempool, leaderConfig, keyRing, signatures);
 
             nodeService.listen();
             ledgerService.listen();
@@ -2,6 +2,7 @@ package pt.ulisboa.tecnico.hdsledger.service.models;
 
 import java.math.BigDecimal;
 
+import pt.ulisboa.tecnico.hdsledger.communication.AccountId;
 import pt.ulisboa.tecnico.hdsledger.communication.UpdateAccount;
 
 public class Account {
@@ -11,7 +12,7 @@ public class Account {
     // Owner ID
     private String ownerId;
     // Account identifier
-    private String publicKeyHash;
+    private AccountId accountId;
     // Most recent consensus instance that updated balance
     private UpdateAccount mostRecentUpdateAccount;
     // Update account signature
@@ -21,9 +22,18 @@ public class Account {
     // Initial balance
     private static final int INITIAL_BALANCE = 100;
 
-    public Account(String ownerId, String publicKeyHash) {
+    public Account(String ownerId, AccountId accountId) {
         this.ownerId = ownerId;
-        this.publicKeyHash = publicKeyHash;
+        this.accountId = accountId;
+    }
+
+    public Account(Account account) {
+        this.active = account.active;
+        this.ownerId = account.ownerId;
+        this.accountId = account.accountId;
+        this.mostRecentUpdateAccount = account.mostRecentUpdateAccount;
+        this.updateAccountSignature = account.updateAccountSignature;
+        this.balance = account.balance;
     }
 
     public void activate() {
@@ -42,12 +52,12 @@ public class Account {
         return ownerId;
     }
 
-    public String getPublicKeyHash() {
-        return publicKeyHash;
+    public AccountId getAccountId() {
+        return accountId;
     }
 
-    public void setPublicKeyHash(String publicKeyHash) {
-        this.publicKeyHash = publicKeyHash;
+    public void setAccountId(AccountId accountId) {
+        this.accountId = accountId;
     }
 
     public BigDecimal getBalance() {
@@ -78,6 +88,6 @@ public class Account {
 
     @Override
     public int hashCode() {
-        return publicKeyHash.hashCode();
+        return accountId.hashCode();
     }
 }
@@ -11,6 +11,8 @@ public class InstanceInfo {
     private CommitMessage commitMessage;
     private Block inputBlock;
     private int committedRound = -1;
+    // When the instance started on this node (ms)
+    private final long startTime = System.currentTimeMillis();
 
     public InstanceInfo(Block inputBlock) {
         this.inputBlock = inputBlock;
@@ -56,6 +58,10 @@ public class InstanceInfo {
         this.committedRound = committedRound;
     }
 
+    public long getStartTime() {
+        return startTime;
+    }
+
     public CommitMessage getCommitMessage() {
         return commitMessage;
     }
@@ -1,40 +1,52 @@
 package pt.ulisboa.tecnico.hdsledger.service.models;
 
-import pt.ulisboa.tecnico.hdsledger.utilities.RSAEncryption;
-
 import java.math.BigDecimal;
-import java.security.NoSuchAlgorithmException;
-import java.security.PublicKey;
 import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Optional;
+import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
 
+import pt.ulisboa.tecnico.hdsledger.communication.AccountId;
 import pt.ulisboa.tecnico.hdsledger.communication.LedgerRequestCreate;
 import pt.ulisboa.tecnico.hdsledger.communication.LedgerRequestTransfer;
+import pt.ulisboa.tecnico.hdsledger.communication.MerkleProof;
 import pt.ulisboa.tecnico.hdsledger.communication.UpdateAccount;
+import pt.ulisboa.tecnico.hdsledger.service.storage.LedgerSnapshot;
+import pt.ulisboa.tecnico.hdsledger.service.storage.LedgerSnapshot.AccountState;
+import pt.ulisboa.tecnico.hdsledger.service.storage.LedgerSnapshot.SignedUpdate;
 
 public class Ledger {
 
-    // Store accounts (public key hash -> account)
-    private final Map<String, Account> accounts = new ConcurrentHashMap<>();
+    // Store accounts (account id -> account)
+    private final Map<AccountId, Account> accounts = new ConcurrentHashMap<>();
     // Store temporary account
     // When committing its necessary to apply transactions to check if they are
     // valid meaning we need to alter account balances. This state is "merged" with
     // accounts when the consensus is decided.
-    private final Map<String, Account> temporaryAccounts = new ConcurrentHashMap<>();
-    // Map consensus instance -> public key hash -> account update
-    private final Map<Integer, Map<String, UpdateAccount>> accountUpdates = new ConcurrentHashMap<>();
-    // Map consensus instance -> public key hash -> signer Id -> account update
+    private final Map<AccountId, Account> temporaryAccounts = new ConcurrentHashMap<>();
+    // Map consensus instance -> account id -> account update
+    private final Map<Integer, Map<AccountId, UpdateAccount>> accountUpdates = new ConcurrentHashMap<>();
+    // Map consensus instance -> account id -> signer Id -> account update
     // signature
-    private final Map<Integer, Map<String, Map<String, String>>> accountUpdateSignatures = new ConcurrentHashMap<>();
+    private final Map<Integer, Map<AccountId, Map<String, String>>> accountUpdateSignatures = new ConcurrentHashMap<>();
+    // Map consensus instance -> signer Id -> signature of the root of the tree of
+    // account updates (only with Merkle attestation)
+    private final Map<Integer, Map<String, String>> rootSignatures = new ConcurrentHashMap<>();
+    // Map consensus instance -> account id -> proof that the account update
+    // is part of the tree (only with Merkle attestation)
+    private final Map<Integer, Map<AccountId, MerkleProof>> accountUpdateProofs = new ConcurrentHashMap<>();
+    // Map account id -> most recent consensus instance with an account update
+    private final Map<AccountId, Integer> latestAccountUpdates = new ConcurrentHashMap<>();
 
     private BigDecimal fee = BigDecimal.ONE;
 
     private Account temporaryLeaderAccount;
 
-    public Ledger(String leaderId, String leaderPublicKeyHash) {
+    public Ledger(String leaderId, AccountId leaderAccountId) {
         /*
          * this.temporaryLeaderAccount = new Account(leaderId, leaderPublicKeyHash);
          * this.temporaryAccounts.put(leaderPublicKeyHash, this.temporaryLeaderAccount);
@@ -43,58 +55,69 @@ public class Ledger {
          */
     }
 
-    public Map<String, Account> getAccounts() {
+    public Map<AccountId, Account> getAccounts() {
         return accounts;
     }
 
-    public Map<String, Account> getTemporaryAccounts() {
+    public Map<AccountId, Account> getTemporaryAccounts() {
         return temporaryAccounts;
     }
 
-    public void addAccountUpdateSignature(int consensusInstance, String publicKeyHash, String signerId,
+    public void addAccountUpdateSignature(int consensusInstance, AccountId accountId, String signerId,
             String signature) {
         accountUpdateSignatures.putIfAbsent(consensusInstance, new ConcurrentHashMap<>());
-        accountUpdateSignatures.get(consensusInstance).putIfAbsent(publicKeyHash, new ConcurrentHashMap<>());
-        this.getAccountUpdateSignatures(consensusInstance, publicKeyHash).put(signerId, signature);
+        accountUpdateSignatures.get(consensusInstance).putIfAbsent(accountId, new ConcurrentHashMap<>());
+        this.getAccountUpdateSignatures(consensusInstance, accountId).put(signerId, signature);
     }
 
-    public Map<String, String> getAccountUpdateSignatures(int consensusInstance, String publicKeyHash) {
+    /*
+     * Signatures attesting an account update: with Merkle attestation, the
+     * signatures of the root of its instance (see getAccountUpdateProof)
+     */
+    public Map<String, String> getAccountUpdateSignatures(int consensusInstance, AccountId accountId) {
+        if (getAccountUpdateProof(consensusInstance, accountId) != null)
+            return rootSignatures.computeIfAbsent(consensusInstance, i -> new ConcurrentHashMap<>());
         accountUpdateSignatures.putIfAbsent(consensusInstance, new ConcurrentHashMap<>());
-        accountUpdateSignatures.get(consensusInstance).putIfAbsent(publicKeyHash, new ConcurrentHashMap<>());
-        return accountUpdateSignatures.get(consensusInstance).get(publicKeyHash);
+        accountUpdateSignatures.get(consensusInstance).putIfAbsent(accountId, new ConcurrentHashMap<>());
+        return accountUpdateSignatures.get(consensusInstance).get(accountId);
     }
 
-    public Map<Integer, Map<String, Map<String, String>>> getAccountUpdateSignatures() {
+    public Map<Integer, Map<AccountId, Map<String, String>>> getAccountUpdateSignatures() {
         return accountUpdateSignatures;
     }
 
-    public Optional<Account> createAccount(String ownerId, PublicKey publicKey) {
-        String publicKeyHash;
-        try {
-            publicKeyHash = RSAEncryption.digest(publicKey.toString());
-        } catch (NoSuchAlgorithmException e) {
-            return Optional.empty();
-        }
+    public void addRootSignature(int consensusInstance, String signerId, String signature) {
+        rootSignatures.computeIfAbsent(consensusInstance, i -> new ConcurrentHashMap<>()).put(signerId, signature);
+    }
+
+    public void addAccountUpdateProof(int consensusInstance, AccountId accountId, MerkleProof proof) {
+        accountUpdateProofs.computeIfAbsent(consensusInstance, i -> new ConcurrentHashMap<>()).put(accountId,
+                proof);
+    }
 
+    /*
+     * @return Proof that the account update is part of the tree of its instance,
+     * or null if it was signed on its own
+     */
+    public MerkleProof getAccountUpdateProof(int consensusInstance, AccountId accountId) {
+        return accountUpdateProofs.getOrDefault(consensusInstance, Map.of()).get(accountId);
+    }
+
+    public Optional<Account> createAccount(String ownerId, AccountId accountId) {
         // Put returns null if the key was not present
-        Account acc = new Account(ownerId, publicKeyHash);
-        this.temporaryAccounts.put(publicKeyHash, acc);
+        Account acc = new Account(ownerId, accountId);
+        this.temporaryAccounts.put(accountId, acc);
 
         return Optional.of(acc);
     }
 
-    public Optional<Account> activateAccount(String ownerId, PublicKey publicKey, PublicKey leaderPublicKey) {
-        String publicKeyHash;
-        String leaderPublicKeyHash;
-        try {
-            publicKeyHash = RSAEncryption.digest(publicKey.toString());
-            leaderPublicKeyHash = RSAEncryption.digest(leaderPublicKey.toString());
-        } catch (NoSuchAlgorithmException e) {
+    public Optional<Account> activateAccount(String ownerId, AccountId accountId, AccountId leaderAccountId) {
+        if (accountId == null)
             return Optional.empty();
-        }
-
         // Put returns null if the key was not present
-        Account acc = this.temporaryAccounts.get(publicKeyHash);
+        Account acc = this.temporaryAccounts.get(accountId);
+        if (acc == null)
+            return Optional.empty();
         if (!acc.isActive())
             acc.activate();
         else
@@ -102,49 +125,31 @@ public class Ledger {
 
         // Pay leader a fee
         acc.subtractBalance(this.fee);
-        temporaryAccounts.get(leaderPublicKeyHash).addBalance(this.fee);
+        temporaryAccounts.get(leaderAccountId).addBalance(this.fee);
 
         return Optional.of(acc);
     }
 
     public void revertCreateAccount(LedgerRequestCreate request) {
-        PublicKey publicKey = request.getAccountPubKey();
-        String publicKeyHash;
-
-        try {
-            publicKeyHash = RSAEncryption.digest(publicKey.toString());
-        } catch (NoSuchAlgorithmException e) {
-            return;
-        }
-
         // Put returns null if the key was not present
-        temporaryAccounts.get(publicKeyHash).deactivate();
+        temporaryAccounts.get(request.getAccountId()).deactivate();
     }
 
     public List<Account> transfer(
             int consensusInstance,
             BigDecimal amount,
-            PublicKey sourcePubKey,
-            PublicKey destinationPubKey,
-            PublicKey leaderPubKey) {
+            AccountId sourceAccountId,
+            AccountId destinationAccountId,
+            AccountId leaderAccountId) {
 
-        if (amount.compareTo(BigDecimal.ZERO) < 0)
+        if (amount.compareTo(BigDecimal.ZERO) < 0 || sourceAccountId == null || destinationAccountId == null)
             return new ArrayList<>();
 
-        String srcHash;
-        String destHash;
-        String leaderHash;
-        try {
-            srcHash = RSAEncryption.digest(sourcePubKey.toString());
-            destHash = RSAEncryption.digest(destinationPubKey.toString());
-            leaderHash = RSAEncryption.digest(leaderPubKey.toString());
-        } catch (NoSuchAlgorithmException e) {
+        Account srcAccount = temporaryAccounts.get(sourceAccountId);
+        Account destAccount = temporaryAccounts.get(destinationAccountId);
+        Account leaderAccount = temporaryAccounts.get(leaderAccountId);
+        if (srcAccount == null || destAccount == null)
             return new ArrayList<>();
-        }
-
-        Account srcAccount = temporaryAccounts.get(srcHash);
-        Account destAccount = temporaryAccounts.get(destHash);
-        Account leaderAccount = temporaryAccounts.get(leaderHash);
         // include in the subtract the leader fee
         if (!srcAccount.isActive() || !destAccount.isActive() || !srcAccount.subtractBalance(amount.add(this.fee))) {
             return new ArrayList<>();
@@ -159,19 +164,9 @@ public class Ledger {
     }
 
     public void revertTransfer(LedgerRequestTransfer request) {
-        String srcHash;
-        String destHash;
-
-        try {
-            srcHash = RSAEncryption.digest(request.getSourcePubKey().toString());
-            destHash = RSAEncryption.digest(request.getDestinationPubKey().toString());
-        } catch (NoSuchAlgorithmException e) {
-            return;
-        }
-
         BigDecimal amount = request.getAmount();
-        Account tmpSrcAccount = temporaryAccounts.get(srcHash);
-        Account tmpDestAccount = temporaryAccounts.get(destHash);
+        Account tmpSrcAccount = temporaryAccounts.get(request.getSourceAccountId());
+        Account tmpDestAccount = temporaryAccounts.get(request.getDestinationAccountId());
 
         // No need to check if accounts exist or if the balance is enough,
         // since the transfer was already successful
@@ -183,35 +178,162 @@ public class Ledger {
     public void commitTransactions(int consensusInstance) {
         if (this.accountUpdates.get(consensusInstance) == null)
             return;
-        this.accountUpdates.get(consensusInstance).forEach((pubKeyHash, update) -> {
+        this.accountUpdates.get(consensusInstance).forEach((accountId, update) -> {
             if(update.isValid()){
-                this.accounts.putIfAbsent(pubKeyHash, new Account(update.getOwnerId(), pubKeyHash));
-                Account acc = this.accounts.get(pubKeyHash);
+                this.accounts.putIfAbsent(accountId, new Account(update.getOwnerId(), accountId));
+                Account acc = this.accounts.get(accountId);
                 acc.activate();
-                acc.updateAccount(update, pubKeyHash);
+                acc.updateAccount(update, accountId.toString());
             }
         });
     }
 
-    public Account getAccount(String publicKeyHash) {
-        return this.accounts.get(publicKeyHash);
+    public Account getAccount(AccountId accountId) {
+        return this.accounts.get(accountId);
     }
 
-    public Account getTemporaryAccount(String publicKeyHash) {
-        return this.temporaryAccounts.get(publicKeyHash);
+    public Account getTemporaryAccount(AccountId accountId) {
+        return this.temporaryAccounts.get(accountId);
     }
 
-    public void addAccountUpdate(int consensusInstance, String publicKeyHash, UpdateAccount updateAccount) {
+    public void addAccountUpdate(int consensusInstance, AccountId accountId, UpdateAccount updateAccount) {
         accountUpdates.putIfAbsent(consensusInstance, new ConcurrentHashMap<>());
-        accountUpdates.get(consensusInstance).put(publicKeyHash, updateAccount);
+        accountUpdates.get(consensusInstance).put(accountId, updateAccount);
+        latestAccountUpdates.merge(accountId, consensusInstance, Math::max);
+    }
+
+    /*
+     * Consensus instance of the account update that must survive compaction:
+     * the one applied to the account or, if none was, the most recent one
+     */
+    private int retainedInstance(AccountId accountId) {
+        Account account = this.accounts.get(accountId);
+        if (account != null && account.getMostRecentAccountUpdate() != null)
+            return account.getMostRecentAccountUpdate().getConsensusInstance();
+        return this.latestAccountUpdates.getOrDefault(accountId, -1);
+    }
+
+    /*
+     * Drop the account updates and signatures of every instance up to watermark,
+     * except the latest update of each account (still needed to answer reads)
+     *
+     * @param watermark Last consensus instance to compact
+     */
+    public void compact(int watermark) {
+        this.accountUpdates.forEach((instance, updates) -> {
+            if (instance > watermark)
+                return;
+            updates.keySet().removeIf(accountId -> retainedInstance(accountId) != instance);
+            if (updates.isEmpty())
+                this.accountUpdates.remove(instance);
+        });
+        this.accountUpdateSignatures.forEach((instance, signatures) -> {
+            if (instance > watermark)
+                return;
+            signatures.keySet().removeIf(accountId -> retainedInstance(accountId) != instance);
+            if (signatures.isEmpty())
+                this.accountUpdateSignatures.remove(instance);
+        });
+        this.accountUpdateProofs.forEach((instance, proofs) -> {
+            if (instance > watermark)
+                return;
+            proofs.keySet().removeIf(accountId -> retainedInstance(accountId) != instance);
+            if (proofs.isEmpty())
+                this.accountUpdateProofs.remove(instance);
+        });
+        // The root signatures are kept while an update of the instance is
+        this.rootSignatures.keySet()
+                .removeIf(instance -> instance <= watermark && !this.accountUpdateProofs.containsKey(instance));
+    }
+
+    /*
+     * Captures the ledger right after a consensus instance was decided:
+     * the created accounts and the latest signed update of every account
+     * (later instances may already be prepared, they are left out)
+     *
+     * @param consensusInstance Last decided consensus instance
+     */
+    public LedgerSnapshot snapshot(int consensusInstance) {
+        // Account id -> instances of the updates to keep
+        Map<AccountId, Set<Integer>> retained = new HashMap<>();
+        Map<AccountId, Integer> latest = new HashMap<>();
+        this.accountUpdates.forEach((instance, updates) -> {
+            if (instance <= consensusInstance)
+                updates.keySet().forEach(accountId -> latest.merge(accountId, instance, Math::max));
+        });
+        latest.forEach((accountId, instance) -> retained.computeIfAbsent(accountId, h -> new HashSet<>())
+                .add(instance));
+
+        List<AccountState> accounts = new ArrayList<>();
+        this.accounts.values().forEach(account -> {
+            UpdateAccount update = account.getMostRecentAccountUpdate();
+            if (update == null)
+                return;
+            accounts.add(new AccountState(account.getOwnerId(), account.getAccountId(),
+                    update.getConsensusInstance()));
+            retained.computeIfAbsent(account.getAccountId(), h -> new HashSet<>())
+                    .add(update.getConsensusInstance());
+        });
+
+        List<SignedUpdate> updates = new ArrayList<>();
+        retained.forEach((accountId, instances) -> instances.forEach(instance -> {
+            UpdateAccount update = this.accountUpdates.getOrDefault(instance, Map.of()).get(accountId);
+            if (update == null)
+                return;
+            MerkleProof proof = getAccountUpdateProof(instance, accountId);
+            Map<String, String> signatures = proof != null
+                    ? this.rootSignatures.getOrDefault(instance, Map.of())
+                    : this.accountUpdateSignatures.getOrDefault(instance, Map.of())
+                            .getOrDefault(accountId, Map.of());
+            updates.add(new SignedUpdate(instance, update, new HashMap<>(signatures), proof));
+        }));
+
+        return new LedgerSnapshot(consensusInstance, accounts, updates);
+    }
+
+    /*
+     * Loads the state captured by snapshot (on an empty ledger)
+     */
+    public void restore(LedgerSnapshot snapshot) {
+        snapshot.getUpdates().forEach(signed -> {
+            AccountId accountId = signed.update().getAccountId();
+            addAccountUpdate(signed.consensusInstance(), accountId, signed.update());
+            if (signed.proof() != null) {
+                addAccountUpdateProof(signed.consensusInstance(), accountId, signed.proof());
+                signed.signatures().forEach((signerId, signature) -> addRootSignature(
+                        signed.consensusInstance(), signerId, signature));
+                return;
+            }
+            signed.signatures().forEach((signerId, signature) -> addAccountUpdateSignature(
+                    signed.consensusInstance(), accountId, signerId, signature));
+        });
+
+        snapshot.getAccounts().forEach(state -> {
+            Map<AccountId, UpdateAccount> updates = this.accountUpdates.get(state.updateInstance());
+            if (updates == null || updates.get(state.accountId()) == null)
+                return;
+            Account account = new Account(state.ownerId(), state.accountId());
+            account.activate();
+            account.updateAccount(updates.get(state.accountId()), state.accountId().toString());
+            this.accounts.put(state.accountId(), account);
+        });
+    }
+
+    /*
+     * Makes the temporary state match the committed one (e.g. after recovering
+     * the ledger, when no instance is in progress)
+     */
+    public void resetTemporaryAccounts() {
+        this.accounts.forEach((accountId, account) -> this.temporaryAccounts.put(accountId,
+                new Account(account)));
     }
 
-    public Map<String, UpdateAccount> getAccountUpdates(int consensusInstance) {
+    public Map<AccountId, UpdateAccount> getAccountUpdates(int consensusInstance) {
         return accountUpdates.get(consensusInstance);
     }
 
-    public UpdateAccount getAccountUpdate(int consensusInstance, String publicKeyHash) {
-        return this.accountUpdates.get(consensusInstance).get(publicKeyHash);
+    public UpdateAccount getAccountUpdate(int consensusInstance, AccountId accountId) {
+        return this.accountUpdates.get(consensusInstance).get(accountId);
     }
 
     public void setFee(int fee) {
@@ -4,9 +4,11 @@ import java.util.Map;
 import java.util.Optional;
 import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.logging.Level;
+import java.security.NoSuchAlgorithmException;
 import java.text.MessageFormat;
 
 import pt.ulisboa.tecnico.hdsledger.communication.CommitMessage;
@@ -14,117 +16,229 @@ import pt.ulisboa.tecnico.hdsledger.communication.ConsensusMessage;
 import pt.ulisboa.tecnico.hdsledger.communication.PrepareMessage;
 import pt.ulisboa.tecnico.hdsledger.communication.UpdateAccount;
 import pt.ulisboa.tecnico.hdsledger.utilities.CustomLogger;
+import pt.ulisboa.tecnico.hdsledger.utilities.RSAEncryption;
 
+/*
+ * Stores the messages of each <instance, round> and counts how many
+ * senders agree on each value. The value of a message is digested once,
+ * when it is added, so checking for a quorum does not parse anything.
+ */
 public class MessageBucket {
 
     private static final CustomLogger LOGGER = new CustomLogger(MessageBucket.class.getName());
     // Quorum size
     private final int quorumSize;
-    // Instance -> Round -> Sender ID -> Consensus message
-    private final Map<Integer, Map<Integer, Map<String, ConsensusMessage>>> bucket = new ConcurrentHashMap<>();
+    // Instance -> Round -> Tally of the messages
+    private final Map<Integer, Map<Integer, Tally>> bucket = new ConcurrentHashMap<>();
+    // Instances up to this one were pruned, late messages for them are not stored
+    private volatile int watermark = 0;
+
+    /*
+     * Messages of a single <instance, round>, grouped by value digest
+     */
+    private static class Tally {
+        // Sender ID -> Consensus message
+        private final Map<String, ConsensusMessage> messages = new LinkedHashMap<>();
+        // Sender ID -> Digest of the value it sent
+        private final Map<String, String> votes = new HashMap<>();
+        // Digest -> Number of senders
+        private final Map<String, Integer> counts = new HashMap<>();
+        // Digest that reached the quorum (if any)
+        private String quorumDigest;
+        // Block of the quorum (prepare only, parsed once)
+        private Block quorumBlock;
+    }
 
     public MessageBucket(int nodeCount) {
         int f = Math.floorDiv(nodeCount - 1, 3);
         quorumSize = Math.floorDiv(nodeCount + f, 2) + 1;
     }
 
+    /*
+     * Value agreed upon by a prepare message
+     */
+    public static String prepareValue(PrepareMessage message) {
+        return message.getBlock();
+    }
+
+    /*
+     * Value agreed upon by a commit message: its account updates,
+     * independently of the order (and of the signatures) they were sent with
+     */
+    public static String commitValue(CommitMessage message) {
+        return String.join("\n", message.getAccountUpdates().stream()
+                .map(UpdateAccount::toJson).sorted().toList());
+    }
+
+    private static String digest(String value) {
+        try {
+            return RSAEncryption.digest(value);
+        } catch (NoSuchAlgorithmException e) {
+            return value;
+        }
+    }
+
+    /*
+     * @return Tally of <instance, round>, created if needed, or null if the
+     * instance was pruned
+     */
+    private Tally getTally(int instance, int round) {
+        if (instance <= watermark)
+            return null;
+        Tally tally = bucket.computeIfAbsent(instance, i -> new ConcurrentHashMap<>())
+                .computeIfAbsent(round, r -> new Tally());
+        // Pruned meanwhile, do not leave the tally behind
+        if (instance <= watermark) {
+            bucket.remove(instance);
+            return null;
+        }
+        return tally;
+    }
+
+    /*
+     * @return Tally of <instance, round> or null if there is none
+     */
+    private Tally findTally(int instance, int round) {
+        Map<Integer, Tally> rounds = bucket.get(instance);
+        return rounds == null ? null : rounds.get(round);
+    }
+
     /*
      * Add a message to the bucket
-     * 
-     * @param consensusInstance
-     * 
-     * @param message
+     *
+     * @param message Consensus message
+     *
+     * @param value Value the message agrees upon (see prepareValue and commitValue)
+     *
+     * @return False if the message must be ignored: the sender already sent a
+     * different value for the same <instance, round> (the first value is kept)
+     * or the instance was pruned
      */
-    public void addMessage(ConsensusMessage message) {
-        int consensusInstance = message.getConsensusInstance();
-        int round = message.getRound();
+    public boolean addMessage(ConsensusMessage message, String value) {
+        String senderId = message.getSenderId();
+        Tally tally = getTally(message.getConsensusInstance(), message.getRound());
+        if (tally == null)
+            return false;
+        String digest = digest(value);
+
+        synchronized (tally) {
+            String previous = tally.votes.putIfAbsent(senderId, digest);
 
-        bucket.putIfAbsent(consensusInstance, new ConcurrentHashMap<>());
-        bucket.get(consensusInstance).putIfAbsent(round, new ConcurrentHashMap<>());
-        bucket.get(consensusInstance).get(round).put(message.getSenderId(), message);
+            if (previous != null && !previous.equals(digest)) {
+                LOGGER.log(Level.INFO, MessageFormat.format(
+                        "@@@@@@@@@@@@@@@@@@@@@@@@@@@@@@@@@@@@@@@@@@@@@@@@@\n"
+                                + "@    WARNING: NODE SENT TWO DIFFERENT VALUES!   @\n"
+                                + "@@@@@@@@@@@@@@@@@@@@@@@@@@@@@@@@@@@@@@@@@@@@@@@@@\n"
+                                + "IT IS POSSIBLE THAT NODE {0} IS DOING SOMETHING NASTY!",
+                        senderId));
+                return false;
+            }
+
+            tally.messages.put(senderId, message);
+            if (previous != null)
+                return true;
+
+            int count = tally.counts.merge(digest, 1, Integer::sum);
+            if (count >= quorumSize && tally.quorumDigest == null)
+                tally.quorumDigest = digest;
+        }
+        return true;
     }
 
     public Optional<Block> hasValidPrepareQuorum(String nodeId, int instance, int round) {
-        // Create mapping of value to frequency
-        HashMap<Block, Integer> frequency = new HashMap<>();
-        bucket.get(instance).get(round).values().forEach((message) -> {
-            PrepareMessage prepareMessage = message.deserializePrepareMessage();
-            Block block = Block.fromJson(prepareMessage.getBlock());
-            frequency.put(block, frequency.getOrDefault(block, 0) + 1);
-        });
+        Tally tally = findTally(instance, round);
+        if (tally == null)
+            return Optional.empty();
 
         // Only one value (if any, thus the optional) will have a frequency
         // greater than or equal to the quorum size
+        synchronized (tally) {
+            if (tally.quorumDigest == null)
+                return Optional.empty();
 
-        return frequency.entrySet().stream().filter((Map.Entry<Block, Integer> entry) -> {
-            return entry.getValue() >= quorumSize;
-        }).map((Map.Entry<Block, Integer> entry) -> {
-            return entry.getKey();
-        }).findFirst();
+            if (tally.quorumBlock == null) {
+                ConsensusMessage message = quorumMessages(tally).get(0);
+                tally.quorumBlock = Block.fromJson(message.deserializePrepareMessage().getBlock());
+            }
+            return Optional.of(tally.quorumBlock);
+        }
     }
 
-    /*
-     * 
-     */
     public Optional<List<ConsensusMessage>> hasValidCommitQuorum(String nodeId, int instance, int round) {
-        // Create mapping of value to frequency
-        HashMap<Integer, List<ConsensusMessage>> messages = new HashMap<>();
-        bucket.get(instance).get(round).values().forEach((message) -> {
-            // for each commit message i have received
-            CommitMessage commitMessage = message.deserializeCommitMessage();
-            // i get the list of Account Updates in each commit
-            List<UpdateAccount> updates = commitMessage.getUpdateAccountSignatures().values().stream().toList();
-            // Updates may be out of order which leads to a different hash code (even though its the same updates)
-            int hash = updates.stream().map(UpdateAccount::hashCode).reduce(0, (acc, next) -> acc ^ next);
-            List<ConsensusMessage> msgs = messages.getOrDefault(hash, new ArrayList<>());
-            msgs.add(message);
-            // I use the list of Account Updates and count the number of times I have seen
-            // the same collection
-            messages.put(hash, msgs);
-        });
+        Tally tally = findTally(instance, round);
+        if (tally == null)
+            return Optional.empty();
 
         // Only one value (if any, thus the optional) will have a frequency
         // greater than or equal to the quorum size
-        return messages.values().stream().filter(
-                consensusMessages -> consensusMessages.size() >= quorumSize).findFirst();
-    }
-
-    public void verifyReceivedCommitMessage(CommitMessage quorumMessage, int instance, int round) {
-        int quorumHash = quorumMessage
-                .getUpdateAccountSignatures().values().stream()
-                .map(UpdateAccount::hashCode)
-                .reduce(0, (acc, next) -> acc ^ next);
-        bucket.get(instance).get(round).values().forEach((message) -> {
-            CommitMessage commitMessage = message.deserializeCommitMessage();
-            int messageHash = commitMessage
-                    .getUpdateAccountSignatures().values().stream()
-                    .map(UpdateAccount::hashCode)
-                    .reduce(0, (acc, next) -> acc ^ next);
-            if (quorumHash != messageHash)
-                LOGGER.log(Level.INFO, MessageFormat.format(
-                        "@@@@@@@@@@@@@@@@@@@@@@@@@@@@@@@@@@@@@@@@@@@@@@@@@\n"
-                                +"@  WARNING: DIFFERENT COMMIT VALUES RECEIVED!  @\n"
-                                + "@@@@@@@@@@@@@@@@@@@@@@@@@@@@@@@@@@@@@@@@@@@@@@@@@\n"
-                                + "IT IS POSSIBLE THAT NODE {0} IS DOING SOMETHING NASTY!",
-                        message.getSenderId()));
-        });
+        synchronized (tally) {
+            if (tally.quorumDigest == null)
+                return Optional.empty();
+            return Optional.of(quorumMessages(tally));
+        }
     }
 
-    public void verifyReceivedPrepareMessage(Block block, int instance, int round) {
-        bucket.get(instance).get(round).values().forEach((message) -> {
-            PrepareMessage prepareMessage = message.deserializePrepareMessage();
-            Block receivedBlock = Block.fromJson(prepareMessage.getBlock());
-            if (!receivedBlock.equals(block))
-                LOGGER.log(Level.INFO, MessageFormat.format(
-                                  "@@@@@@@@@@@@@@@@@@@@@@@@@@@@@@@@@@@@@@@@@@@@@@@@@\n"
-                                + "@  WARNING: DIFFERENT PREPARE VALUES RECEIVED!  @\n"
-                                + "@@@@@@@@@@@@@@@@@@@@@@@@@@@@@@@@@@@@@@@@@@@@@@@@@\n"
-                                + "IT IS POSSIBLE THAT NODE {0} IS DOING SOMETHING NASTY!",
-                        message.getSenderId()));
+    private List<ConsensusMessage> quorumMessages(Tally tally) {
+        List<ConsensusMessage> messages = new ArrayList<>();
+        tally.votes.forEach((senderId, digest) -> {
+            if (digest.equals(tally.quorumDigest))
+                messages.add(tally.messages.get(senderId));
         });
+        return messages;
+    }
+
+    /*
+     * @return IDs of the senders whose value differs from the quorum one
+     */
+    private List<String> dissidents(int instance, int round) {
+        Tally tally = findTally(instance, round);
+        List<String> dissidents = new ArrayList<>();
+        if (tally == null)
+            return dissidents;
+        synchronized (tally) {
+            if (tally.quorumDigest == null)
+                return dissidents;
+            tally.votes.forEach((senderId, digest) -> {
+                if (!digest.equals(tally.quorumDigest))
+                    dissidents.add(senderId);
+            });
+        }
+        return dissidents;
+    }
+
+    public void verifyReceivedCommitMessage(int instance, int round) {
+        dissidents(instance, round).forEach(senderId -> LOGGER.log(Level.INFO, MessageFormat.format(
+                "@@@@@@@@@@@@@@@@@@@@@@@@@@@@@@@@@@@@@@@@@@@@@@@@@\n"
+                        + "@  WARNING: DIFFERENT COMMIT VALUES RECEIVED!  @\n"
+                        + "@@@@@@@@@@@@@@@@@@@@@@@@@@@@@@@@@@@@@@@@@@@@@@@@@\n"
+                        + "IT IS POSSIBLE THAT NODE {0} IS DOING SOMETHING NASTY!",
+                senderId)));
+    }
+
+    public void verifyReceivedPrepareMessage(int instance, int round) {
+        dissidents(instance, round).forEach(senderId -> LOGGER.log(Level.INFO, MessageFormat.format(
+                "@@@@@@@@@@@@@@@@@@@@@@@@@@@@@@@@@@@@@@@@@@@@@@@@@\n"
+                        + "@  WARNING: DIFFERENT PREPARE VALUES RECEIVED!  @\n"
+                        + "@@@@@@@@@@@@@@@@@@@@@@@@@@@@@@@@@@@@@@@@@@@@@@@@@\n"
+                        + "IT IS POSSIBLE THAT NODE {0} IS DOING SOMETHING NASTY!",
+                senderId)));
+    }
+
+    /*
+     * Drop the messages of every instance up to (and including) watermark
+     */
+    public void prune(int watermark) {
+        // Raised first, so messages arriving meanwhile do not bring the tallies back
+        this.watermark = Math.max(this.watermark, watermark);
+        bucket.keySet().removeIf(instance -> instance <= watermark);
     }
 
     public Map<String, ConsensusMessage> getMessages(int instance, int round) {
-        return bucket.get(instance).get(round);
+        Tally tally = findTally(instance, round);
+        if (tally == null)
+            return new LinkedHashMap<>();
+        synchronized (tally) {
+            return new LinkedHashMap<>(tally.messages);
+        }
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,99 @@
+package pt.ulisboa.tecnico.hdsledger.service.services;
+
+/*
+ * Cuts a block right away while there is room in the consensus pipeline.
+ * When the pipeline is full, requests accumulate until the block is full,
+ * reaches the byte budget or its oldest request waited for maxWait.
+ * The block size follows the requests expected to arrive while the previous
+ * blocks are being agreed upon (arrival rate x consensus latency).
+ */
+public class AdaptiveBatchingPolicy implements BatchingPolicy {
+
+    // Weight of the newest sample in the moving averages
+    private static final double ALPHA = 0.2;
+    // Upper bound of the batch size
+    private final int maxBatchSize;
+    // Maximum serialized size of the requests of a block (bytes)
+    private final long byteBudget;
+    // Maximum time a request waits for a block (ms)
+    private final long maxWait;
+    // Number of blocks that can be agreed upon at the same time
+    private final int pipelineDepth;
+    // Moving average of the time between requests (ms)
+    private double interArrival = -1;
+    // Moving average of the consensus latency (ms)
+    private double latency = -1;
+    // Arrival time of the last request (ms)
+    private long lastArrival = -1;
+    // Current batch size
+    private volatile int batchSize;
+
+    /*
+     * @param initialBatchSize Batch size until there are enough samples
+     *
+     * @param maxBatchSize Upper bound of the batch size
+     *
+     * @param byteBudget Maximum serialized size of the requests of a block
+     *
+     * @param maxWait Maximum time a request waits for a block (ms)
+     *
+     * @param pipelineDepth Number of blocks agreed upon at the same time
+     */
+    public AdaptiveBatchingPolicy(int initialBatchSize, int maxBatchSize, long byteBudget, long maxWait,
+            int pipelineDepth) {
+        this.maxBatchSize = Math.max(1, maxBatchSize);
+        this.byteBudget = byteBudget;
+        this.maxWait = maxWait;
+        this.pipelineDepth = Math.max(1, pipelineDepth);
+        this.batchSize = Math.max(1, Math.min(initialBatchSize, this.maxBatchSize));
+    }
+
+    @Override
+    public boolean shouldCut(int pendingRequests, long pendingBytes, long oldestWait, int blocksInFlight) {
+        if (pendingRequests == 0)
+            return false;
+        return blocksInFlight < pipelineDepth
+                || pendingRequests >= batchSize
+                || pendingBytes >= byteBudget
+                || oldestWait >= maxWait;
+    }
+
+    @Override
+    public int getBatchSize() {
+        return batchSize;
+    }
+
+    @Override
+    public long getByteBudget() {
+        return byteBudget;
+    }
+
+    @Override
+    public long getMaxWait() {
+        return maxWait;
+    }
+
+    @Override
+    public synchronized void onRequest(long timestamp) {
+        if (lastArrival >= 0) {
+            double sample = Math.max(0, timestamp - lastArrival);
+            interArrival = interArrival < 0 ? sample : ALPHA * sample + (1 - ALPHA) * interArrival;
+        }
+        lastArrival = timestamp;
+        adapt();
+    }
+
+    @Override
+    public synchronized void onBlockDecided(int requests, long latency) {
+        this.latency = this.latency < 0 ? latency : ALPHA * latency + (1 - ALPHA) * this.latency;
+        adapt();
+    }
+
+    private void adapt() {
+        if (interArrival < 0 || latency < 0)
+            return;
+        // Requests arriving during one consensus latency are split by the blocks in flight
+        double expected = latency / Math.max(interArrival, 1) / pipelineDepth;
+        batchSize = (int) Math.max(1, Math.min(maxBatchSize, Math.ceil(expected)));
+    }
+}
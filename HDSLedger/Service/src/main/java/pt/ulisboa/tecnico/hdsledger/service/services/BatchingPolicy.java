@@ -0,0 +1,51 @@
+package pt.ulisboa.tecnico.hdsledger.service.services;
+
+/*
+ * Decides when the leader cuts a block out of the mempool and how big it is
+ */
+public interface BatchingPolicy {
+
+    /*
+     * @param pendingRequests Number of requests in the mempool
+     *
+     * @param pendingBytes Serialized size of the requests in the mempool
+     *
+     * @param oldestWait Time the oldest request has been waiting (ms)
+     *
+     * @param blocksInFlight Blocks cut by this node that were not decided yet
+     *
+     * @return True if a block should be cut now
+     */
+    boolean shouldCut(int pendingRequests, long pendingBytes, long oldestWait, int blocksInFlight);
+
+    /*
+     * @return Maximum number of requests in the next block
+     */
+    int getBatchSize();
+
+    /*
+     * @return Maximum serialized size of the requests of a block (bytes)
+     */
+    long getByteBudget();
+
+    /*
+     * @return Maximum time a request waits before a partial block is cut (ms)
+     */
+    long getMaxWait();
+
+    /*
+     * Called when a request enters the mempool
+     *
+     * @param timestamp Arrival time (ms)
+     */
+    void onRequest(long timestamp);
+
+    /*
+     * Called when a block cut by this node was decided
+     *
+     * @param requests Number of requests in the block
+     *
+     * @param latency Time between starting consensus and deciding (ms)
+     */
+    void onBlockDecided(int requests, long latency);
+}
@@ -0,0 +1,136 @@
+package pt.ulisboa.tecnico.hdsledger.service.services;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/*
+ * Keeps up to depth consensus instances in flight while making sure
+ * their effects are applied strictly in instance order.
+ *
+ * Preparing an instance validates its block against the temporary state
+ * left by the previous one, so prepared instances are drained in order.
+ * Deciding an instance applies it to the ledger, which also happens in order
+ * and only after the instance was prepared locally.
+ *
+ * Actions sign and send, so they run outside the monitor, one at a time, on
+ * the thread that made them ready (later ones are left to that thread).
+ */
+public class ConsensusPipeline {
+
+    // Maximum number of undecided instances in flight
+    private final int depth;
+    // Prepared instances waiting for their predecessors
+    private final Map<Integer, Runnable> prepared = new HashMap<>();
+    // Decided instances waiting for their predecessors
+    private final Map<Integer, Runnable> decided = new HashMap<>();
+    // Last instance whose prepare action ran
+    private int lastPrepared = 0;
+    // Last instance whose decide action ran
+    private int lastDecided = 0;
+    // A thread is running the ready actions
+    private boolean draining = false;
+
+    public ConsensusPipeline(int depth) {
+        this.depth = Math.max(1, depth);
+    }
+
+    public int getDepth() {
+        return depth;
+    }
+
+    public synchronized int getLastDecided() {
+        return lastDecided;
+    }
+
+    /*
+     * Marks every instance up to a recovered one as prepared and decided
+     */
+    public synchronized void recovered(int instance) {
+        lastPrepared = Math.max(lastPrepared, instance);
+        lastDecided = Math.max(lastDecided, instance);
+        prepared.keySet().removeIf(i -> i <= instance);
+        decided.keySet().removeIf(i -> i <= instance);
+        notifyAll();
+    }
+
+    /*
+     * Blocks until an instance fits in the window, i.e. until at most
+     * depth - 1 instances before it are still undecided
+     *
+     * @param instance Consensus instance about to start
+     */
+    public synchronized void awaitSlot(int instance) throws InterruptedException {
+        while (instance - lastDecided > depth)
+            wait();
+    }
+
+    /*
+     * Runs action once every previous instance was prepared
+     *
+     * @return False if the instance was already prepared (or queued)
+     */
+    public boolean prepared(int instance, Runnable action) {
+        synchronized (this) {
+            if (instance <= lastPrepared || prepared.putIfAbsent(instance, action) != null)
+                return false;
+        }
+        drain();
+        return true;
+    }
+
+    /*
+     * Runs action once the instance was prepared and every previous instance was decided
+     *
+     * @return False if the instance was already decided (or queued)
+     */
+    public boolean decided(int instance, Runnable action) {
+        synchronized (this) {
+            if (instance <= lastDecided || decided.putIfAbsent(instance, action) != null)
+                return false;
+        }
+        drain();
+        return true;
+    }
+
+    private void drain() {
+        synchronized (this) {
+            // The running drain will also run the new action
+            if (draining)
+                return;
+            draining = true;
+        }
+
+        while (true) {
+            Runnable action;
+            boolean isPrepare;
+            synchronized (this) {
+                action = prepared.remove(lastPrepared + 1);
+                isPrepare = action != null;
+                if (!isPrepare && lastDecided < lastPrepared)
+                    action = decided.remove(lastDecided + 1);
+                if (action == null) {
+                    draining = false;
+                    return;
+                }
+            }
+
+            try {
+                action.run();
+            } catch (RuntimeException | Error e) {
+                synchronized (this) {
+                    draining = false;
+                }
+                throw e;
+            }
+
+            synchronized (this) {
+                if (isPrepare) {
+                    lastPrepared++;
+                } else {
+                    lastDecided++;
+                    notifyAll();
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,173 @@
+package pt.ulisboa.tecnico.hdsledger.service.services;
+
+import java.util.ArrayDeque;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/*
+ * Runs the tasks of each key (e.g. a consensus instance or a client) one at a
+ * time and in submission order, while tasks of different keys run in parallel
+ * on a fixed pool of threads. A key only takes a thread while it has tasks,
+ * and gives it back every few tasks so a busy key cannot starve the others.
+ *
+ * Submitting a task beyond the depth of its key or the capacity of the
+ * dispatcher blocks until there is room. Received messages were already
+ * acknowledged, so the receive thread is slowed down instead of dropping them.
+ */
+public class Dispatcher<K> {
+
+    // Tasks a key runs before yielding its thread
+    private static final int BATCH_SIZE = 16;
+
+    private static class Lane {
+        private final Queue<Runnable> tasks = new ArrayDeque<>();
+    }
+
+    // Runs the lanes with tasks
+    private final ExecutorService pool;
+    // Maximum number of queued tasks per key
+    private final int queueDepth;
+    // Maximum number of queued tasks in total
+    private final int capacity;
+    // Key -> tasks waiting to run (only keys with tasks have a lane)
+    private final Map<K, Lane> lanes = new ConcurrentHashMap<>();
+    // Tasks waiting to run
+    private final AtomicInteger pendingCount = new AtomicInteger(0);
+    // Submitters waiting for room (they wait on the dispatcher)
+    private final AtomicInteger waitingCount = new AtomicInteger(0);
+    // Submissions that had to wait because a queue was full
+    private final AtomicLong blockedCount = new AtomicLong(0);
+
+    /*
+     * @param name Prefix of the thread names
+     *
+     * @param threads Number of threads running tasks
+     *
+     * @param queueDepth Maximum number of queued tasks per key
+     *
+     * @param capacity Maximum number of queued tasks in total
+     */
+    public Dispatcher(String name, int threads, int queueDepth, int capacity) {
+        AtomicInteger threadCount = new AtomicInteger(0);
+        this.pool = Executors.newFixedThreadPool(threads, runnable -> {
+            Thread thread = new Thread(runnable, name + "-" + threadCount.getAndIncrement());
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.queueDepth = queueDepth;
+        this.capacity = capacity;
+    }
+
+    /*
+     * Queues a task after the previous ones of the same key, waiting for room
+     * if the queue of the key or the dispatcher is full
+     */
+    public void submit(K key, Runnable task) throws InterruptedException {
+        if (tryQueue(key, task))
+            return;
+
+        blockedCount.incrementAndGet();
+        synchronized (this) {
+            // Registered before trying again, so a task taken meanwhile notifies
+            waitingCount.incrementAndGet();
+            try {
+                while (!tryQueue(key, task))
+                    wait();
+            } finally {
+                waitingCount.decrementAndGet();
+            }
+        }
+    }
+
+    /*
+     * @return False if there was no room for the task
+     */
+    private boolean tryQueue(K key, Runnable task) {
+        if (pendingCount.incrementAndGet() > capacity) {
+            pendingCount.decrementAndGet();
+            return false;
+        }
+
+        boolean[] outcome = new boolean[2]; // accepted, start
+        lanes.compute(key, (k, lane) -> {
+            if (lane == null) {
+                lane = new Lane();
+                outcome[1] = true;
+            }
+            if (lane.tasks.size() < queueDepth) {
+                lane.tasks.add(task);
+                outcome[0] = true;
+            }
+            // A new lane that rejected its only task is not kept
+            return lane.tasks.isEmpty() ? null : lane;
+        });
+
+        if (!outcome[0]) {
+            pendingCount.decrementAndGet();
+            return false;
+        }
+        if (outcome[1])
+            pool.execute(() -> drain(key));
+        return true;
+    }
+
+    /*
+     * Runs the tasks of a key until it has none left (the lane is then
+     * removed) or it used its batch (it is then queued again)
+     */
+    private void drain(K key) {
+        for (int i = 0; i < BATCH_SIZE; i++) {
+            Runnable task = next(key);
+            if (task == null)
+                return;
+            pendingCount.decrementAndGet();
+            if (waitingCount.get() > 0) {
+                synchronized (this) {
+                    notifyAll();
+                }
+            }
+            try {
+                task.run();
+            } catch (RuntimeException e) {
+                e.printStackTrace();
+            }
+        }
+        if (lanes.containsKey(key))
+            pool.execute(() -> drain(key));
+    }
+
+    private Runnable next(K key) {
+        Runnable[] task = new Runnable[1];
+        lanes.computeIfPresent(key, (k, lane) -> {
+            task[0] = lane.tasks.poll();
+            return task[0] == null ? null : lane;
+        });
+        return task[0];
+    }
+
+    /*
+     * @return Number of tasks waiting to run
+     */
+    public int getPendingCount() {
+        return pendingCount.get();
+    }
+
+    /*
+     * @return Number of submissions that had to wait for room so far
+     */
+    public long getBlockedCount() {
+        return blockedCount.get();
+    }
+
+    /*
+     * @return Number of keys with tasks waiting or running
+     */
+    public int getActiveKeys() {
+        return lanes.size();
+    }
+}
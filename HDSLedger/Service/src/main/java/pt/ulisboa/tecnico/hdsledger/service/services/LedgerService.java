@@ -5,14 +5,17 @@ import pt.ulisboa.tecnico.hdsledger.communication.*;
 import pt.ulisboa.tecnico.hdsledger.service.models.Block;
 import pt.ulisboa.tecnico.hdsledger.utilities.CustomLogger;
 import pt.ulisboa.tecnico.hdsledger.utilities.ErrorMessage;
+import pt.ulisboa.tecnico.hdsledger.utilities.KeyRing;
 import pt.ulisboa.tecnico.hdsledger.utilities.LedgerException;
-import pt.ulisboa.tecnico.hdsledger.utilities.RSAEncryption;
 
 import java.io.IOException;
 import java.math.BigDecimal;
 import java.security.PublicKey;
 import java.text.MessageFormat;
 import java.util.*;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
 import java.util.logging.Level;
 
 import pt.ulisboa.tecnico.hdsledger.utilities.ProcessConfig;
@@ -20,6 +23,8 @@ import pt.ulisboa.tecnico.hdsledger.utilities.ProcessConfig;
 public class LedgerService implements UDPService {
 
     private static final CustomLogger LOGGER = new CustomLogger(LedgerService.class.getName());
+    // Time a request may wait in the mempool before the leader is suspected (ms)
+    private static final long CENSORSHIP_TIMEOUT = 30 * 1000;
     // Clients configurations
     private final ProcessConfig[] clientConfigs;
     // Link to communicate with client nodes
@@ -32,17 +37,36 @@ public class LedgerService implements UDPService {
     private final Mempool mempool;
     // Leader configuration
     private final ProcessConfig leaderConfig;
+    // Keys of every node and client
+    private final KeyRing keyRing;
+    // Client signatures already verified (shared with NodeService)
+    private final SignatureCache signatures;
     // Used for BYZANTINE_TESTS
     private ProcessConfig censoredClient = null;
+    // Cuts blocks whose requests waited for too long (leader only)
+    private final ScheduledExecutorService flusher = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "mempool-flusher");
+        thread.setDaemon(true);
+        return thread;
+    });
+    // Censorship deadlines of the pending client requests (non-leader only)
+    private final TimeoutWheel censorshipTimeouts = new TimeoutWheel("censorship-timeouts", 100, 512);
+    // Handles the requests of each client in order, different clients in parallel
+    private final Dispatcher<String> dispatcher;
 
     public LedgerService(ProcessConfig[] clientConfigs, PerfectLink link, ProcessConfig config,
-            NodeService service, Mempool mempool, ProcessConfig leaderConfig) {
+            NodeService service, Mempool mempool, ProcessConfig leaderConfig, KeyRing keyRing,
+            SignatureCache signatures) {
         this.clientConfigs = clientConfigs;
         this.link = link;
         this.config = config;
         this.service = service;
         this.mempool = mempool;
         this.leaderConfig = leaderConfig;
+        this.keyRing = keyRing;
+        this.signatures = signatures;
+        this.dispatcher = new Dispatcher<>(config.getId() + "-requests", config.getDispatchThreads(),
+                config.getDispatchQueueDepth(), config.getDispatchCapacity());
         // BYZANTINE_TESTS
         if (this.config.isLeader()
                 && this.config.getByzantineBehavior() == ProcessConfig.ByzantineBehavior.DICTATOR_LEADER) {
@@ -69,8 +93,7 @@ public class LedgerService implements UDPService {
             throw new LedgerException(ErrorMessage.NoSuchClient);
 
         // Verify client action was signed by him
-        if (RSAEncryption.verifySignature(request.getMessage(), request.getClientSignature(),
-                clientConfig.get().getPublicKeyPath()))
+        if (this.signatures.verifySignature(request.getMessage(), request.getClientSignature(), request.getSenderId()))
             return true;
 
         LOGGER.log(Level.INFO, MessageFormat.format(
@@ -83,9 +106,9 @@ public class LedgerService implements UDPService {
     }
 
     /*
-     * To detect byzantine leader cherry picking transactions, a timer is set
-     * for each client request. The timer must be cancelled when the request is
-     * processed, otherwise it will trigger a warning message.
+     * To detect byzantine leader cherry picking transactions, a timeout is set
+     * for each client request. The timeout is cancelled when the request leaves
+     * the mempool, otherwise it will trigger a warning message.
      * 
      * @param request LedgerRequest to set timer for
      */
@@ -97,22 +120,23 @@ public class LedgerService implements UDPService {
 
         String leaderId = this.leaderConfig.getId();
 
-        Timer timer = new Timer();
-        timer.schedule(new TimerTask() {
-            // Logger
-            CustomLogger LOGGER = LedgerService.LOGGER;
-
-            @Override
-            public void run() {
-                LOGGER.log(Level.INFO, MessageFormat.format(
+        TimeoutWheel.Timeout timeout = this.censorshipTimeouts.schedule(() -> LOGGER.log(Level.INFO,
+                MessageFormat.format(
                         "@@@@@@@@@@@@@@@@@@@@@@@@@@@@@@@@@@@@@@@@@@@@@@@@@@@@@@\n"
                                 + "@           WARNING: CLIENT REQUEST IGNORED!         @\n"
                                 + "@@@@@@@@@@@@@@@@@@@@@@@@@@@@@@@@@@@@@@@@@@@@@@@@@@@@@@\n"
-                                + "IT IS POSSIBLE THAT NODE {0} IS DOING SOMETHING NASTY!",
-                        leaderId));
-            }
-        }, 30 * 1000);
-        this.mempool.getTimers().put(request, timer);
+                                + "IT IS POSSIBLE THAT NODE {0} IS DOING SOMETHING NASTY!\n"
+                                + "Client requests ignored so far: {1}",
+                        leaderId, this.censorshipTimeouts.getExpiredCount())),
+                CENSORSHIP_TIMEOUT);
+        this.mempool.setTimeout(request, timeout);
+    }
+
+    /*
+     * @return Number of client requests that were not ordered within the censorship timeout
+     */
+    public long getCensoredRequestCount() {
+        return this.censorshipTimeouts.getExpiredCount();
     }
 
     public void createAccount(LedgerRequest request) {
@@ -137,9 +161,7 @@ public class LedgerService implements UDPService {
                 && this.config.getByzantineBehavior() != ProcessConfig.ByzantineBehavior.SILENT_LEADER)
             startConsensusIfBlock(mempool.add(request));
         else
-            mempool.accept(queue -> {
-                queue.add(request);
-            });
+            mempool.store(request);
 
         setTimer(request);
     }
@@ -172,9 +194,12 @@ public class LedgerService implements UDPService {
                 && new Random().nextBoolean()) {
             LOGGER.log(Level.INFO, MessageFormat.format("{0} - Altered transfer request {1}", this.config.getId(),
                     request.getSenderId()));
+            // Decoded views are read-only, the altered request gets a new payload
             LedgerRequestTransfer transfer = request.deserializeTransfer();
-            transfer.setAmount(new BigDecimal(transfer.getAmount().intValue() * 2 + 1));
-            String requestTransferSerialized = new Gson().toJson(transfer);
+            LedgerRequestTransfer alteredTransfer = new LedgerRequestTransfer(transfer.getNonce(),
+                    transfer.getSourcePubKey(), transfer.getDestinationPubKey(),
+                    new BigDecimal(transfer.getAmount().intValue() * 2 + 1));
+            String requestTransferSerialized = new Gson().toJson(alteredTransfer);
             request.setMessage(requestTransferSerialized);
         }
 
@@ -189,12 +214,7 @@ public class LedgerService implements UDPService {
             int currentNonce = 0;
             BigDecimal amount = clientTransfer.getAmount();
             PublicKey sourcePubKey = clientTransfer.getSourcePubKey();
-            PublicKey destinationPubKey;
-            try {
-                destinationPubKey = RSAEncryption.readPublicKey(this.config.getPublicKeyPath());
-            } catch (Exception e) {
-                throw new LedgerException(ErrorMessage.FailedToReadPublicKey);
-            }
+            PublicKey destinationPubKey = this.keyRing.getOwnPublicKey();
 
             LedgerRequestTransfer requestTransfer = new LedgerRequestTransfer(currentNonce, sourcePubKey,
                     destinationPubKey,
@@ -203,7 +223,7 @@ public class LedgerService implements UDPService {
             String requestTransferSerialized = new Gson().toJson(requestTransfer);
             String signature;
             try {
-                signature = RSAEncryption.sign(requestTransferSerialized, config.getPrivateKeyPath());
+                signature = this.keyRing.sign(requestTransferSerialized);
             } catch (Exception e) {
                 throw new LedgerException(ErrorMessage.FailedToSignMessage);
             }
@@ -220,9 +240,7 @@ public class LedgerService implements UDPService {
                 && this.config.getByzantineBehavior() != ProcessConfig.ByzantineBehavior.SILENT_LEADER)
             startConsensusIfBlock(mempool.add(request));
         else
-            mempool.accept(queue -> {
-                queue.add(request);
-            });
+            mempool.store(request);
 
         setTimer(request);
     }
@@ -242,11 +260,7 @@ public class LedgerService implements UDPService {
                     request.getSenderId()));
             return result;
         }
-        try {
-            result = RSAEncryption.readPublicKey(senderConfig.get().getPublicKeyPath()).equals(pubKey);
-        } catch (Exception e) {
-            throw new LedgerException(ErrorMessage.FailedToReadPublicKey);
-        }
+        result = pubKey != null && pubKey.equals(this.keyRing.getPublicKey(request.getSenderId()));
 
         if (!result) {
             LOGGER.log(Level.INFO, MessageFormat.format(
@@ -279,9 +293,7 @@ public class LedgerService implements UDPService {
                 if (this.config.isLeader())
                     startConsensusIfBlock(mempool.add(request));
                 else
-                    mempool.accept(queue -> {
-                        queue.add(request);
-                    });
+                    mempool.store(request);
 
                 setTimer(request);
             }
@@ -294,56 +306,98 @@ public class LedgerService implements UDPService {
         this.service.startConsensus(block.get());
     }
 
+    /*
+     * Cuts the blocks that are due (e.g. oldest request waited for too long)
+     */
+    private void flushMempool() {
+        try {
+            for (Optional<Block> block = mempool.flush(); block.isPresent(); block = mempool.flush())
+                this.service.startConsensus(block.get());
+        } catch (RuntimeException e) {
+            e.printStackTrace();
+        }
+    }
+
+    /*
+     * Queues the handling of a message on the executor of its sender (waits
+     * while too many messages are waiting, the message was already acknowledged)
+     */
+    private void dispatch(Message message, Runnable handler) throws InterruptedException {
+        dispatcher.submit(message.getSenderId(), handler);
+    }
+
     @Override
     public void listen() {
+        // BYZANTINE_TESTS
+        if (this.config.isLeader()
+                && this.config.getByzantineBehavior() != ProcessConfig.ByzantineBehavior.SILENT_LEADER) {
+            long period = Math.max(10, this.mempool.getPolicy().getMaxWait() / 4);
+            this.flusher.scheduleWithFixedDelay(this::flushMempool, period, period, TimeUnit.MILLISECONDS);
+            // A decided block leaves room for the requests that accumulated meanwhile
+            this.mempool.setBlockDecidedListener(() -> this.flusher.execute(this::flushMempool));
+        }
+
         try {
-            // Thread to listen on every request
-            // This is not thread safe but it's okay because
-            // a client only sends one request at a time
-            // thread listening for client requests on clientPort {Append, Read}
+            // Thread listening for client requests on clientPort {Append, Read}
             new Thread(() -> {
                 try {
                     while (true) {
+                        try {
+                            Message message = link.receive();
 
-                        Message message = link.receive();
-
-                        // Separate thread to handle each message
-                        new Thread(() -> {
-
+                            // Nothing to handle, and an IGNORE message may not even have a sender
                             switch (message.getType()) {
-                                case CREATE -> {
+                                case ACK -> {
                                     LOGGER.log(Level.INFO,
-                                            MessageFormat.format("{0} - Received CREATE message from {1}",
+                                            MessageFormat.format("{0} - Received ACK message from {1}",
                                                     this.config.getId(), message.getSenderId()));
-                                    createAccount((LedgerRequest) message);
+                                    continue;
                                 }
-                                case TRANSFER -> {
+                                case IGNORE -> {
                                     LOGGER.log(Level.INFO,
-                                            MessageFormat.format("{0} - Received TRANSFER message from {1}",
+                                            MessageFormat.format("{0} - Received IGNORE message from {1}",
                                                     this.config.getId(), message.getSenderId()));
-                                    transfer((LedgerRequest) message);
+                                    continue;
                                 }
-                                case BALANCE -> {
-                                    LOGGER.log(Level.INFO,
-                                            MessageFormat.format("{0} - Received BALANCE message from {1}",
-                                                    this.config.getId(), message.getSenderId()));
-                                    balance((LedgerRequest) message);
+                                default -> {
                                 }
-                                case ACK -> LOGGER.log(Level.INFO,
-                                        MessageFormat.format("{0} - Received ACK message from {1}",
-                                                this.config.getId(), message.getSenderId()));
-
-                                case IGNORE -> LOGGER.log(Level.INFO,
-                                        MessageFormat.format("{0} - Received IGNORE message from {1}",
-                                                this.config.getId(), message.getSenderId()));
-
-                                default -> throw new LedgerException(ErrorMessage.CannotParseMessage);
                             }
 
-                        }).start();
+                            // Requests of the same client are handled one at a time, in order
+                            dispatch(message, () -> {
+
+                                switch (message.getType()) {
+                                    case CREATE -> {
+                                        LOGGER.log(Level.INFO,
+                                                MessageFormat.format("{0} - Received CREATE message from {1}",
+                                                        this.config.getId(), message.getSenderId()));
+                                        createAccount((LedgerRequest) message);
+                                    }
+                                    case TRANSFER -> {
+                                        LOGGER.log(Level.INFO,
+                                                MessageFormat.format("{0} - Received TRANSFER message from {1}",
+                                                        this.config.getId(), message.getSenderId()));
+                                        transfer((LedgerRequest) message);
+                                    }
+                                    case BALANCE -> {
+                                        LOGGER.log(Level.INFO,
+                                                MessageFormat.format("{0} - Received BALANCE message from {1}",
+                                                        this.config.getId(), message.getSenderId()));
+                                        balance((LedgerRequest) message);
+                                    }
+                                    default -> throw new LedgerException(ErrorMessage.CannotParseMessage);
+                                }
+
+                            });
+                        } catch (RuntimeException e) {
+                            // A single bad message must not stop the node from taking requests
+                            e.printStackTrace();
+                        }
                     }
                 } catch (IOException | ClassNotFoundException e) {
                     e.printStackTrace();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
                 }
             }).start();
         } catch (Exception e) {
@@ -2,38 +2,125 @@ package pt.ulisboa.tecnico.hdsledger.service.services;
 
 import pt.ulisboa.tecnico.hdsledger.communication.LedgerRequest;
 import pt.ulisboa.tecnico.hdsledger.service.models.Block;
+import pt.ulisboa.tecnico.hdsledger.utilities.CustomLogger;
 
-import java.util.HashMap;
-import java.util.LinkedList;
+import java.text.MessageFormat;
+import java.util.LinkedHashMap;
 import java.util.Map;
 import java.util.Optional;
-import java.util.Queue;
-import java.util.Timer;
-import java.util.function.Consumer;
+import java.util.logging.Level;
 
 import com.google.gson.GsonBuilder;
 
+/*
+ * Pending client requests, indexed by <sender, message> so a decided request
+ * is found and removed in O(1). Requests are kept in arrival order, both
+ * globally (to know how long the oldest one waited) and per client (blocks
+ * take one request of each client in turn).
+ */
 public class Mempool {
 
-    private final Queue<LedgerRequest> pool = new LinkedList<>();
-    // Timer for each request
-    private final Map<LedgerRequest, Timer> timers = new HashMap<>();
+    private static final CustomLogger LOGGER = new CustomLogger(Mempool.class.getName());
 
-    private final int blocksize;
+    // Identifies a request independently of the message id it was received with
+    private record RequestKey(String senderId, String message) {
+        private static RequestKey of(LedgerRequest request) {
+            return new RequestKey(request.getSenderId(), request.getMessage());
+        }
+    }
+
+    private static class Entry {
+        private final LedgerRequest request;
+        // Arrival time (ms)
+        private final long arrival;
+        // Serialized size (bytes)
+        private final long size;
+        // Censorship timeout (non-leader only)
+        private TimeoutWheel.Timeout timeout;
+
+        private Entry(LedgerRequest request, long arrival) {
+            this.request = request;
+            this.arrival = arrival;
+            this.size = sizeOf(request);
+        }
+    }
 
-    public Mempool(int blocksize) {
-        this.blocksize = blocksize;
+    // Every pooled request, in arrival order
+    private final LinkedHashMap<RequestKey, Entry> pool = new LinkedHashMap<>();
+    // Client id -> its pooled requests in arrival order (clients in turn order)
+    private final LinkedHashMap<String, LinkedHashMap<RequestKey, Entry>> clients = new LinkedHashMap<>();
+    // Decides when blocks are cut
+    private final BatchingPolicy policy;
+    // Maximum number of pooled requests
+    private final int capacity;
+    // Maximum number of pooled requests of a single client
+    private final int clientCapacity;
+    // Serialized size of the pooled requests (bytes)
+    private long pendingBytes = 0;
+    // Requests refused because the mempool (or the client share) was full
+    private long rejected = 0;
+    // Blocks cut by this node that were not decided yet
+    private int blocksInFlight = 0;
+    // Called when a block is decided (there may be room for a new one)
+    private Runnable blockDecidedListener = () -> {
+    };
+
+    public Mempool(BatchingPolicy policy, int capacity, int clientCapacity) {
+        this.policy = policy;
+        this.capacity = capacity;
+        this.clientCapacity = clientCapacity;
     }
 
-    public Map<LedgerRequest, Timer> getTimers() {
-        return timers;
+    public BatchingPolicy getPolicy() {
+        return policy;
     }
 
-    public void removeRequest(LedgerRequest request) {
-        this.pool.remove(request);
-        Timer timer = this.timers.remove(request);
-        if (timer != null)
-            timer.cancel();
+    private static long sizeOf(LedgerRequest request) {
+        long size = request.getMessage() == null ? 0 : request.getMessage().length();
+        return size + (request.getClientSignature() == null ? 0 : request.getClientSignature().length());
+    }
+
+    private void unlink(RequestKey key, Entry entry) {
+        this.pool.remove(key);
+        Map<RequestKey, Entry> queue = this.clients.get(key.senderId());
+        if (queue != null) {
+            queue.remove(key);
+            if (queue.isEmpty())
+                this.clients.remove(key.senderId());
+        }
+        this.pendingBytes -= entry.size;
+        if (entry.timeout != null)
+            entry.timeout.cancel();
+    }
+
+    /*
+     * Ties a censorship timeout to a pooled request, it is cancelled when the
+     * request leaves the mempool (or right away if it already did)
+     */
+    public void setTimeout(LedgerRequest request, TimeoutWheel.Timeout timeout) {
+        synchronized (this.pool) {
+            Entry entry = this.pool.get(RequestKey.of(request));
+            if (entry != null && entry.request == request)
+                entry.timeout = timeout;
+            else
+                timeout.cancel();
+        }
+    }
+
+    /*
+     * Removes the pooled copy of a request (e.g. one decided in a block cut by the leader)
+     *
+     * @return The pooled request, which carries the message id it was received with
+     */
+    public Optional<LedgerRequest> removeRequest(LedgerRequest request) {
+        synchronized (this.pool) {
+            RequestKey key = RequestKey.of(request);
+            Entry entry = this.pool.get(key);
+            if (entry == null)
+                return Optional.empty();
+            unlink(key, entry);
+            return Optional.of(entry.request);
+        }
     }
 
     /*
@@ -45,39 +132,122 @@ public class Mempool {
      */
     private Optional<Block> checkTransactionThreshold() {
         synchronized (this.pool) {
-            if (this.pool.size() < this.blocksize)
+            if (this.pool.isEmpty())
+                return Optional.empty();
+
+            long now = System.currentTimeMillis();
+            long waited = now - this.pool.values().iterator().next().arrival;
+            if (!this.policy.shouldCut(this.pool.size(), this.pendingBytes, waited, this.blocksInFlight))
                 return Optional.empty();
+
+            int batchSize = this.policy.getBatchSize();
+            long byteBudget = this.policy.getByteBudget();
+
+            // Take the oldest request of each client in turn
             var block = new Block();
+            long blockBytes = 0;
+            while (!this.clients.isEmpty() && block.getRequests().size() < batchSize) {
+                String clientId = this.clients.keySet().iterator().next();
+                Map.Entry<RequestKey, Entry> oldest = this.clients.get(clientId).entrySet().iterator().next();
+                Entry entry = oldest.getValue();
+                if (!block.getRequests().isEmpty() && blockBytes + entry.size > byteBudget)
+                    break;
+
+                unlink(oldest.getKey(), entry);
+                // Move the client to the end of the turn order
+                LinkedHashMap<RequestKey, Entry> queue = this.clients.remove(clientId);
+                if (queue != null)
+                    this.clients.put(clientId, queue);
 
-            for (int i = 0; i < this.blocksize; i++){
-                LedgerRequest req = this.pool.poll();
-                block.addRequest(req);
-                Timer timer = this.timers.remove(req);
-                if (timer != null)
-                    timer.cancel();
+                block.addRequest(entry.request);
+                blockBytes += entry.size;
             }
+            this.blocksInFlight++;
             return Optional.of(block);
         }
     }
 
-    public Queue<LedgerRequest> getInnerPool() {
-        return pool;
+    /*
+     * Stores a request without trying to create a block
+     *
+     * @return False if the request was rejected (mempool full, client over its
+     * share or request already pooled)
+     */
+    public boolean store(LedgerRequest request) {
+        synchronized (this.pool) {
+            RequestKey key = RequestKey.of(request);
+            Map<RequestKey, Entry> queue = this.clients.get(key.senderId());
+            if (this.pool.containsKey(key))
+                return false;
+            if (this.pool.size() >= this.capacity || (queue != null && queue.size() >= this.clientCapacity)) {
+                this.rejected++;
+                LOGGER.log(Level.INFO, MessageFormat.format(
+                        "Mempool full ({0} requests, {1} from {2}), rejected request from {2}",
+                        this.pool.size(), queue == null ? 0 : queue.size(), key.senderId()));
+                return false;
+            }
+
+            Entry entry = new Entry(request, System.currentTimeMillis());
+            this.pool.put(key, entry);
+            this.clients.computeIfAbsent(key.senderId(), id -> new LinkedHashMap<>()).put(key, entry);
+            this.pendingBytes += entry.size;
+            return true;
+        }
     }
 
+    /*
+     * Stores a request and creates a block if it is due
+     *
+     * @return Empty if no block is due or the request was rejected
+     */
     public Optional<Block> add(LedgerRequest request) {
+        this.policy.onRequest(System.currentTimeMillis());
+        if (!store(request))
+            return Optional.empty();
+        return checkTransactionThreshold();
+    }
+
+    /*
+     * Creates a block if the oldest request waited for too long
+     */
+    public Optional<Block> flush() {
+        return checkTransactionThreshold();
+    }
+
+    /*
+     * Feeds the batching policy with the latency of a block cut by this node
+     */
+    public void blockDecided(int requests, long latency) {
         synchronized (this.pool) {
-            this.pool.add(request);
+            this.blocksInFlight = Math.max(0, this.blocksInFlight - 1);
         }
-        return checkTransactionThreshold();
+        this.policy.onBlockDecided(requests, latency);
+        this.blockDecidedListener.run();
+    }
+
+    /*
+     * @param listener Called (on the deciding thread) after a block cut by this node is decided
+     */
+    public void setBlockDecidedListener(Runnable listener) {
+        this.blockDecidedListener = listener;
     }
 
-    public void accept(Consumer<Queue<LedgerRequest>> handler) {
+    public int size() {
         synchronized (this.pool) {
-            handler.accept(this.pool);
+            return this.pool.size();
+        }
+    }
+
+    public long getRejectedCount() {
+        synchronized (this.pool) {
+            return this.rejected;
         }
     }
 
     public String toString() {
-        return new GsonBuilder().setPrettyPrinting().create().toJson(this.pool);
+        synchronized (this.pool) {
+            return new GsonBuilder().setPrettyPrinting().create()
+                    .toJson(this.pool.values().stream().map(entry -> entry.request).toList());
+        }
     }
 }
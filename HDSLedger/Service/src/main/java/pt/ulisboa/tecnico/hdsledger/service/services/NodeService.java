@@ -4,21 +4,25 @@ import pt.ulisboa.tecnico.hdsledger.communication.*;
 import pt.ulisboa.tecnico.hdsledger.communication.Message.Type;
 import pt.ulisboa.tecnico.hdsledger.communication.builder.ConsensusMessageBuilder;
 import pt.ulisboa.tecnico.hdsledger.service.models.*;
+import pt.ulisboa.tecnico.hdsledger.service.storage.DecidedBlock;
+import pt.ulisboa.tecnico.hdsledger.service.storage.Storage;
 import pt.ulisboa.tecnico.hdsledger.utilities.CustomLogger;
 import pt.ulisboa.tecnico.hdsledger.utilities.ErrorMessage;
+import pt.ulisboa.tecnico.hdsledger.utilities.KeyRing;
 import pt.ulisboa.tecnico.hdsledger.utilities.LedgerException;
 import pt.ulisboa.tecnico.hdsledger.utilities.ProcessConfig;
-import pt.ulisboa.tecnico.hdsledger.utilities.RSAEncryption;
 import pt.ulisboa.tecnico.hdsledger.utilities.ProcessConfig.ByzantineBehavior;
 
 import java.io.IOException;
 import java.math.BigDecimal;
-import java.security.NoSuchAlgorithmException;
+import java.nio.file.Path;
 import java.security.PublicKey;
 import java.text.MessageFormat;
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
 import java.util.logging.Level;
 
 public class NodeService implements UDPService {
@@ -32,9 +36,13 @@ public class NodeService implements UDPService {
     private final ProcessConfig config;
     // Leader configuration
     private final ProcessConfig leaderConfig;
-    // Leader public key and hash
+    // Leader public key and account
     private final PublicKey leaderPublicKey;
-    private final String leaderPublicKeyHash;
+    private final AccountId leaderAccountId;
+    // Keys of every node and client
+    private final KeyRing keyRing;
+    // Client and leader signatures already verified (shared with LedgerService)
+    private final SignatureCache signatures;
 
     // Link to communicate with blockchain nodes
     private final PerfectLink link;
@@ -52,17 +60,24 @@ public class NodeService implements UDPService {
     private final Map<Integer, InstanceInfo> instanceInfo = new ConcurrentHashMap<>();
     // Current consensus instance
     private final AtomicInteger consensusInstance = new AtomicInteger(0);
-    // Last decided consensus instance
-    private final AtomicInteger lastDecidedConsensusInstance = new AtomicInteger(0);
+    // Instances in flight, applied in order
+    private final ConsensusPipeline pipeline;
+    // State of the instances up to this one was pruned
+    private final AtomicInteger pruneWatermark = new AtomicInteger(0);
     // Store accounts and signatures of updates to accounts
     private final Ledger ledger;
     // Map of unconfirmed transactions
     private final Mempool mempool;
     // Account refresh threshold (# instances)
     private final int refreshThreshold = 2;
+    // Block log and snapshots (null if the node does not persist its state)
+    private final Storage storage;
+    // Handles the messages of each consensus instance in order, different instances in parallel
+    private final Dispatcher<Integer> dispatcher;
 
     public NodeService(ProcessConfig[] clientsConfig, PerfectLink link, PerfectLink clientLink, ProcessConfig config,
-            ProcessConfig leaderConfig, ProcessConfig[] nodesConfig, Mempool mempool) {
+            ProcessConfig leaderConfig, ProcessConfig[] nodesConfig, Mempool mempool, KeyRing keyRing,
+            SignatureCache signatures) {
 
         this.clientsConfig = clientsConfig;
         this.link = link;
@@ -70,20 +85,26 @@ public class NodeService implements UDPService {
         this.config = config;
         this.leaderConfig = leaderConfig;
         this.nodesConfig = nodesConfig;
+        this.keyRing = keyRing;
+        this.signatures = signatures;
 
         this.mempool = mempool;
+        this.pipeline = new ConsensusPipeline(config.getPipelineDepth());
+
+        this.dispatcher = new Dispatcher<>(config.getId() + "-consensus", config.getDispatchThreads(),
+                config.getDispatchQueueDepth(), config.getDispatchCapacity());
 
         this.prepareMessages = new MessageBucket(nodesConfig.length);
         this.commitMessages = new MessageBucket(nodesConfig.length);
 
         try {
-            this.leaderPublicKey = RSAEncryption.readPublicKey(leaderConfig.getPublicKeyPath());
-            this.leaderPublicKeyHash = RSAEncryption.digest(this.leaderPublicKey.toString());
+            this.leaderPublicKey = Objects.requireNonNull(keyRing.getPublicKey(leaderConfig.getId()));
+            this.leaderAccountId = AccountId.of(this.leaderPublicKey);
         } catch (Exception e) {
             throw new LedgerException(ErrorMessage.FailedToReadPublicKey);
         }
 
-        this.ledger = new Ledger(this.leaderConfig.getId(), this.leaderPublicKeyHash);
+        this.ledger = new Ledger(this.leaderConfig.getId(), this.leaderAccountId);
 
         // BYZANTINE_TESTS
         if (this.config.isLeader()
@@ -91,6 +112,10 @@ public class NodeService implements UDPService {
             this.ledger.setFee(this.ledger.getFee().intValue() * 2);
         }
 
+        this.storage = config.getStoragePath() == null ? null : new Storage(Path.of(config.getStoragePath()));
+        if (this.storage != null)
+            this.recover();
+
     }
 
     public ProcessConfig getConfig() {
@@ -104,19 +129,14 @@ public class NodeService implements UDPService {
     public void read(LedgerRequest request) {
         LedgerRequestBalance requestBalance = request.deserializeBalance();
 
-        String publicKeyHash;
-        try {
-            publicKeyHash = RSAEncryption.digest(requestBalance.getAccountPubKey().toString());
-        } catch (NoSuchAlgorithmException e) {
-            return;
-        }
+        AccountId accountId = requestBalance.getAccountId();
 
         // Get latest account update and corresponding signatures
-        Account account = this.ledger.getAccount(publicKeyHash);
+        Account account = this.ledger.getAccount(accountId);
         UpdateAccount accountUpdate = account.getMostRecentAccountUpdate();
 
         Map<String, String> signatures = this.ledger.getAccountUpdateSignatures(accountUpdate.getConsensusInstance(),
-                publicKeyHash);
+                accountId);
 
         // BYZANTINE_TESTS
         if (this.config.getByzantineBehavior() == ByzantineBehavior.FAKE_WEAK) {
@@ -130,6 +150,7 @@ public class NodeService implements UDPService {
         LedgerResponse response = new LedgerResponse(this.config.getId(), accountUpdate.isValid(), accountUpdate,
                 signatures,
                 requestBalance.getNonce());
+        response.setProof(this.ledger.getAccountUpdateProof(accountUpdate.getConsensusInstance(), accountId));
 
         List<Integer> repliesTo = new ArrayList<>();
         repliesTo.add(request.getMessageId());
@@ -138,6 +159,68 @@ public class NodeService implements UDPService {
         this.clientLink.send(request.getSenderId(), response);
     }
 
+    /*
+     * Creates the (inactive) temporary account of every client and the
+     * (active) account of the leader, as done by the genesis block
+     */
+    private List<Account> createGenesisAccounts() {
+        List<Account> accounts = new ArrayList<>();
+        Arrays.stream(this.clientsConfig).forEach(client -> {
+            PublicKey pubKey = this.keyRing.getPublicKey(client.getId());
+            if (pubKey == null)
+                throw new LedgerException(ErrorMessage.FailedToReadPublicKey);
+            Optional<Account> account = this.ledger.createAccount(client.getId(), AccountId.of(pubKey));
+            if (account.isEmpty()) {
+                throw new LedgerException(ErrorMessage.InvalidAccount);
+            }
+            accounts.add(account.get());
+        });
+        Optional<Account> account = this.ledger.createAccount(this.leaderConfig.getId(), this.leaderAccountId);
+        account.get().activate();
+        accounts.add(account.get());
+        return accounts;
+    }
+
+    /*
+     * Rebuilds the ledger from the latest snapshot and the decided blocks
+     * logged after it. Blocks are not executed again, the account updates
+     * signed by their commit quorum are applied instead.
+     */
+    private void recover() {
+        Storage.Recovery recovery = this.storage.recover();
+
+        int lastInstance = 0;
+        if (recovery.snapshot().isPresent()) {
+            this.ledger.restore(recovery.snapshot().get());
+            lastInstance = recovery.snapshot().get().getConsensusInstance();
+        }
+
+        for (DecidedBlock block : recovery.blocks()) {
+            int instance = block.getConsensusInstance();
+            // Every member of the quorum signed the same updates
+            block.getQuorum().values().stream().findFirst().ifPresent(commit -> commit.getAccountUpdates()
+                    .forEach(update -> this.ledger.addAccountUpdate(instance, update.getAccountId(), update)));
+            this.applyCommitQuorum(instance, block.isValid(), block.getQuorum());
+            lastInstance = instance;
+        }
+
+        if (lastInstance == 0)
+            return;
+
+        // Accounts that were not created yet keep the state given by the genesis block
+        this.createGenesisAccounts();
+        this.ledger.resetTemporaryAccounts();
+
+        this.consensusInstance.set(lastInstance);
+        this.pipeline.recovered(lastInstance);
+        // Messages of the recovered instances are late, there is nothing left to agree on
+        this.pruneWatermark.set(lastInstance);
+
+        LOGGER.log(Level.INFO, MessageFormat.format(
+                "{0} - Recovered state up to Consensus Instance {1} ({2} decided blocks replayed)",
+                config.getId(), lastInstance, recovery.blocks().size()));
+    }
+
     /*
      * Checks if a block can be added to the blockchain
      *
@@ -145,39 +228,19 @@ public class NodeService implements UDPService {
      *
      * @param block - Block to validate
      *
-     * @return - Map signature -> account update it's signing or empty map if block
-     * is invalid
+     * @return - Account updates of the block (marked invalid if the block is
+     * invalid)
      */
-    private Map<String, UpdateAccount> tryAddBlock(int instance, Block block) {
+    private List<UpdateAccount> tryAddBlock(int instance, Block block) {
 
-        // Public key hash -> {nonces}
-        Map<String, List<Integer>> nonces = new HashMap<>();
+        // Account id -> {nonces}
+        Map<AccountId, List<Integer>> nonces = new HashMap<>();
 
         boolean isValid = true;
 
         if (instance == 1) {
-            Arrays.stream(this.clientsConfig).forEach(client -> {
-                PublicKey pubKey;
-                try {
-                    pubKey = RSAEncryption.readPublicKey(client.getPublicKeyPath());
-                } catch (Exception e) {
-                    throw new LedgerException(ErrorMessage.FailedToReadPublicKey);
-                }
-                Optional<Account> account = this.ledger.createAccount(client.getId(), pubKey);
-                if (account.isEmpty()) {
-                    throw new LedgerException(ErrorMessage.InvalidAccount);
-                }
-                nonces.putIfAbsent(account.get().getPublicKeyHash(), new ArrayList<>());
-            });
-            PublicKey pubKey;
-            try {
-                pubKey = RSAEncryption.readPublicKey(this.leaderConfig.getPublicKeyPath());
-            } catch (Exception e) {
-                throw new LedgerException(ErrorMessage.FailedToReadPublicKey);
-            }
-            Optional<Account> account = this.ledger.createAccount(this.leaderConfig.getId(), pubKey);
-            account.get().activate();
-            nonces.putIfAbsent(account.get().getPublicKeyHash(), new ArrayList<>());
+            this.createGenesisAccounts()
+                    .forEach(account -> nonces.putIfAbsent(account.getAccountId(), new ArrayList<>()));
             /*
              * Will create UpdateAccount with valid: False.
              * This will create and UpdateAccount for accounts that do not exist yet
@@ -196,8 +259,8 @@ public class NodeService implements UDPService {
                 if (request.getType() == LedgerRequest.Type.CREATE) {
                     LedgerRequestCreate create = request.deserializeCreate();
                     Optional<Account> newAcc = this.ledger.activateAccount(request.getSenderId(),
-                            create.getAccountPubKey(),
-                            this.leaderPublicKey);
+                            create.getAccountId(),
+                            this.leaderAccountId);
                     if (newAcc.isEmpty()) {
                         isValid = false;
                         break;
@@ -205,10 +268,10 @@ public class NodeService implements UDPService {
                         appliedCreations.add(create);
                         List<Integer> nonceSet = new ArrayList<>();
                         nonceSet.add(create.getNonce());
-                        nonces.put(newAcc.get().getPublicKeyHash(), nonceSet);
+                        nonces.put(newAcc.get().getAccountId(), nonceSet);
 
                         // create update account for leader account
-                        nonces.putIfAbsent(this.leaderPublicKeyHash, new ArrayList<>());
+                        nonces.putIfAbsent(this.leaderAccountId, new ArrayList<>());
                     }
                 }
             }
@@ -230,9 +293,9 @@ public class NodeService implements UDPService {
                     case TRANSFER -> {
                         LedgerRequestTransfer transfer = request.deserializeTransfer();
                         List<Account> accounts = this.ledger.transfer(instance, transfer.getAmount(),
-                                transfer.getSourcePubKey(),
-                                transfer.getDestinationPubKey(),
-                                this.leaderPublicKey);
+                                transfer.getSourceAccountId(),
+                                transfer.getDestinationAccountId(),
+                                this.leaderAccountId);
                         if (accounts.size() == 0) {
                             isValid = false;
                             break;
@@ -240,15 +303,15 @@ public class NodeService implements UDPService {
                             appliedTransfers.add(transfer);
 
                             // Create two UpdateAccounts (one with a nonce and the other empty)
-                            String srcAccount = accounts.get(0).getPublicKeyHash();
+                            AccountId srcAccount = accounts.get(0).getAccountId();
                             nonces.putIfAbsent(srcAccount, new ArrayList<>());
                             nonces.get(srcAccount).add(transfer.getNonce());
 
-                            String destAccount = accounts.get(1).getPublicKeyHash();
+                            AccountId destAccount = accounts.get(1).getAccountId();
                             nonces.putIfAbsent(destAccount, new ArrayList<>());
 
                             // create update account for leader account
-                            nonces.putIfAbsent(this.leaderPublicKeyHash, new ArrayList<>());
+                            nonces.putIfAbsent(this.leaderAccountId, new ArrayList<>());
                         }
                     }
                     case BALANCE -> {
@@ -282,73 +345,54 @@ public class NodeService implements UDPService {
                     LOGGER.log(Level.INFO,
                             MessageFormat.format("{0} - Refreshing signatures for account {1}",
                                     config.getId(), account.getOwnerId()));
-                    nonces.putIfAbsent(account.getPublicKeyHash(), new ArrayList<>());
+                    nonces.putIfAbsent(account.getAccountId(), new ArrayList<>());
                 }
             }
         }
 
-        // Create account updates and sign them
-        HashMap<String, UpdateAccount> accountUpdates = new HashMap<>();
+        // Create account updates
+        List<UpdateAccount> accountUpdates = new ArrayList<>();
 
-        for (Map.Entry<String, List<Integer>> entry : nonces.entrySet()) {
+        for (Map.Entry<AccountId, List<Integer>> entry : nonces.entrySet()) {
             Account account = this.ledger.getTemporaryAccount(entry.getKey());
             List<Integer> accountNonces = entry.getValue();
-            String accountSignature;
-            UpdateAccount upAcc = new UpdateAccount(account.getOwnerId(), account.getPublicKeyHash(),
+            UpdateAccount upAcc = new UpdateAccount(account.getOwnerId(), account.getAccountId().toString(),
                     account.getBalance(), instance, accountNonces, instance == 1 ? account.isActive() : isValid);
-            try {
-                accountSignature = RSAEncryption.sign(upAcc.toJson(), this.config.getPrivateKeyPath());
-            } catch (Exception e) {
-                LOGGER.log(Level.INFO,
-                        MessageFormat.format("{0} - Error signing account update for consensus instance {1}",
-                                config.getId(), consensusInstance));
-                e.printStackTrace();
-                return this.createEmptyUpdateAccounts(instance, block);
-            }
 
-            accountUpdates.put(accountSignature, upAcc);
+            accountUpdates.add(upAcc);
 
-            this.ledger.addAccountUpdate(instance, account.getPublicKeyHash(), upAcc);
+            this.ledger.addAccountUpdate(instance, account.getAccountId(), upAcc);
         }
         return accountUpdates;
     }
 
-    private String hashPubKey(PublicKey pubKey) {
-        String pubKeyHash;
-        try {
-            pubKeyHash = RSAEncryption.digest(pubKey.toString());
-        } catch (NoSuchAlgorithmException e) {
-            return "";
-        }
-        return pubKeyHash;
-    }
-
     /*
-     * 
+     * Creates the (invalid) account updates of an invalid block, which only
+     * carry the nonces of its requests
      */
-    private Map<String, UpdateAccount> createEmptyUpdateAccounts(int instance, Block block) {
+    private List<UpdateAccount> createEmptyUpdateAccounts(int instance, Block block) {
 
-        // senderId -> pubKeyHash
-        Map<String, String> senderToPubKeyHash = new HashMap<>();
-        // pubKeyHash -> {nonces}
-        Map<String, List<Integer>> nonces = new HashMap<>();
+        // senderId -> account id
+        Map<String, AccountId> senderToAccountId = new HashMap<>();
+        // account id -> {nonces}
+        Map<AccountId, List<Integer>> nonces = new HashMap<>();
 
         List<LedgerRequest> requests = block.getRequests();
         for (LedgerRequest request : requests) {
             switch (request.getType()) {
                 case CREATE -> {
                     LedgerRequestCreate create = request.deserializeCreate();
-                    String pubKeyHash = hashPubKey(create.getAccountPubKey());
-                    nonces.putIfAbsent(pubKeyHash, new ArrayList<>());
-                    nonces.get(pubKeyHash).add(create.getNonce());
-                    senderToPubKeyHash.put(request.getSenderId(), pubKeyHash);
+                    AccountId accountId = create.getAccountId();
+                    nonces.putIfAbsent(accountId, new ArrayList<>());
+                    nonces.get(accountId).add(create.getNonce());
+                    senderToAccountId.put(request.getSenderId(), accountId);
                 }
                 case TRANSFER -> {
                     LedgerRequestTransfer transfer = request.deserializeTransfer();
-                    String pubKeyHash = hashPubKey(transfer.getSourcePubKey());
-                    nonces.putIfAbsent(pubKeyHash, new ArrayList<>());
-                    nonces.get(pubKeyHash).add(transfer.getNonce());
-                    senderToPubKeyHash.put(request.getSenderId(), pubKeyHash);
+                    AccountId accountId = transfer.getSourceAccountId();
+                    nonces.putIfAbsent(accountId, new ArrayList<>());
+                    nonces.get(accountId).add(transfer.getNonce());
+                    senderToAccountId.put(request.getSenderId(), accountId);
                 }
                 case BALANCE -> {
                     // do nothing
@@ -360,42 +404,58 @@ public class NodeService implements UDPService {
             }
         }
 
-        // signature -> update account
-        Map<String, UpdateAccount> accountUpdates = new HashMap<>();
-        for (Map.Entry<String, String> entry : senderToPubKeyHash.entrySet()) {
+        List<UpdateAccount> accountUpdates = new ArrayList<>();
+        for (Map.Entry<String, AccountId> entry : senderToAccountId.entrySet()) {
             String senderId = entry.getKey();
-            String pubKeyHash = entry.getValue();
+            AccountId accountId = entry.getValue();
 
-            List<Integer> senderNonces = nonces.get(pubKeyHash);
+            List<Integer> senderNonces = nonces.get(accountId);
 
-            UpdateAccount upAcc = new UpdateAccount(senderId, pubKeyHash, BigDecimal.ZERO, instance, senderNonces,
-                    false);
+            UpdateAccount upAcc = new UpdateAccount(senderId, accountId.toString(), BigDecimal.ZERO, instance,
+                    senderNonces, false);
 
-            String accountSignature;
-            try {
-                accountSignature = RSAEncryption.sign(upAcc.toJson(), this.config.getPrivateKeyPath());
-            } catch (Exception e) {
-                LOGGER.log(Level.INFO,
-                        MessageFormat.format("{0} - Error signing account update for consensus instance {1}",
-                                config.getId(), consensusInstance));
-                e.printStackTrace();
-                return new HashMap<>();
-            }
+            accountUpdates.add(upAcc);
 
-            accountUpdates.put(accountSignature, upAcc);
-
-            this.ledger.addAccountUpdate(instance, pubKeyHash, upAcc);
+            this.ledger.addAccountUpdate(instance, accountId, upAcc);
         }
 
         return accountUpdates;
     }
 
+    /*
+     * Signs the account updates of a consensus instance: each one on its own or,
+     * with Merkle attestation, only the root of their tree
+     *
+     * @return Commit message with the signed updates (and no updates if signing
+     * failed)
+     */
+    private CommitMessage attest(int instance, boolean isValidBlock, List<UpdateAccount> accountUpdates) {
+        try {
+            if (this.config.isMerkleAttestation()) {
+                AccountUpdateTree tree = new AccountUpdateTree(accountUpdates);
+                return new CommitMessage(isValidBlock, tree, this.keyRing.sign(tree.getSignedData()));
+            }
+
+            // signature -> update account
+            Map<String, UpdateAccount> signedUpdates = new HashMap<>();
+            for (UpdateAccount upAcc : accountUpdates)
+                signedUpdates.put(this.keyRing.sign(upAcc.toJson()), upAcc);
+            return new CommitMessage(isValidBlock, signedUpdates);
+        } catch (Exception e) {
+            LOGGER.log(Level.INFO,
+                    MessageFormat.format("{0} - Error signing account updates for consensus instance {1}",
+                            config.getId(), instance));
+            e.printStackTrace();
+            return new CommitMessage(isValidBlock);
+        }
+    }
+
     /*
      * Verify if a block was signed by the leader
      */
     private boolean checkIfSignedByLeader(String block, String leaderMessage, String errorLog) {
         if (this.config.getByzantineBehavior() == ProcessConfig.ByzantineBehavior.NONE
-                && !RSAEncryption.verifySignature(block, leaderMessage, this.leaderConfig.getPublicKeyPath())) {
+                && !this.signatures.verifySignature(block, leaderMessage, this.leaderConfig.getId())) {
             LOGGER.log(Level.INFO, errorLog);
             return false;
         }
@@ -416,8 +476,8 @@ public class NodeService implements UDPService {
             Optional<ProcessConfig> clientConfig = Arrays.stream(this.clientsConfig)
                     .filter(client -> client.getId().equals(clientId)).findFirst();
 
-            if (clientConfig.isEmpty() || !RSAEncryption.verifySignature(serializedRequest, clientBlockSignature,
-                    clientConfig.get().getPublicKeyPath())) {
+            if (clientConfig.isEmpty()
+                    || !this.signatures.verifySignature(serializedRequest, clientBlockSignature, clientId)) {
                 LOGGER.log(Level.INFO,
                         MessageFormat.format("  @@@@@@@@@@@@@@@@@@@@@@@@@@@@@@@@@@@@@@@@@@@@@@@@@\n"
                                 + "  @       WARNING: INVALID CLIENT SIGNATURE!      @\n"
@@ -453,7 +513,7 @@ public class NodeService implements UDPService {
         String blockSignature;
         String blockJson = block.toJson();
         try {
-            blockSignature = RSAEncryption.sign(blockJson, this.config.getPrivateKeyPath());
+            blockSignature = this.keyRing.sign(blockJson);
         } catch (Exception e) {
             LOGGER.log(Level.INFO, MessageFormat.format("{0} - Error signing block for consensus instance {1}",
                     config.getId(), instance));
@@ -492,15 +552,13 @@ public class NodeService implements UDPService {
             return;
         }
 
-        // Only start a consensus instance if the last one was decided
-        // We need to be sure that the previous block has been decided
-        // RIP Multi-paxos :'-(
-        while (lastDecidedConsensusInstance.get() < localConsensusInstance - 1) {
-            try {
-                Thread.sleep(1000);
-            } catch (InterruptedException e) {
-                e.printStackTrace();
-            }
+        // Only start a consensus instance once it fits in the pipeline window
+        // (with a depth of 1 the previous block must have been decided)
+        try {
+            this.pipeline.awaitSlot(localConsensusInstance);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return;
         }
 
         // Leader broadcasts PRE-PREPARE message
@@ -548,6 +606,9 @@ public class NodeService implements UDPService {
         String senderId = message.getSenderId();
         int senderMessageId = message.getMessageId();
 
+        if (isPruned(consensusInstance, message))
+            return;
+
         PrePrepareMessage prePrepareMessage = message.deserializePrePrepareMessage();
 
         Block block = Block.fromJson(prePrepareMessage.getBlock());
@@ -576,12 +637,20 @@ public class NodeService implements UDPService {
                 return;
 
         // Set instance blocks (node may not receive a call from the client)
-        this.instanceInfo.putIfAbsent(consensusInstance, new InstanceInfo(block));
+        if (stateOf(this.instanceInfo, consensusInstance, i -> new InstanceInfo(block)) == null) {
+            isPruned(consensusInstance, message);
+            return;
+        }
 
         // Within an instance of the algorithm, each upon rule is triggered at most once
         // for any round r
-        receivedPrePrepare.putIfAbsent(consensusInstance, new ConcurrentHashMap<>());
-        if (receivedPrePrepare.get(consensusInstance).put(round, true) != null) {
+        Map<Integer, Boolean> rounds = stateOf(this.receivedPrePrepare, consensusInstance,
+                i -> new ConcurrentHashMap<>());
+        if (rounds == null) {
+            isPruned(consensusInstance, message);
+            return;
+        }
+        if (rounds.put(round, true) != null) {
             LOGGER.log(Level.INFO,
                     MessageFormat.format(
                             "{0} - Already received PRE-PREPARE message for Consensus Instance {1}, Round {2}, "
@@ -605,16 +674,21 @@ public class NodeService implements UDPService {
     }
 
     /*
-     * Handle prepare messages and if there is a valid quorum broadcast commit
+     * Handle prepare messages and if there is a valid quorum broadcast commit.
+     * Messages of the same instance are handled one at a time (see dispatch),
+     * the state of an instance is also changed by prepareBlock, under its lock.
      *
      * @param message Message to be handled
      */
-    public synchronized void uponPrepare(ConsensusMessage message) {
+    public void uponPrepare(ConsensusMessage message) {
 
         int consensusInstance = message.getConsensusInstance();
         int round = message.getRound();
         String senderId = message.getSenderId();
 
+        if (isPruned(consensusInstance, message))
+            return;
+
         PrepareMessage prepareMessage = message.deserializePrepareMessage();
 
         Block block = Block.fromJson(prepareMessage.getBlock());
@@ -638,43 +712,74 @@ public class NodeService implements UDPService {
                 && verifyTransactions(block.getRequests(), senderId)))
             return;
 
-        // Doesn't add duplicate messages
-        prepareMessages.addMessage(message);
+        // Doesn't add duplicate messages, a second (different) value from the same
+        // sender is ignored
+        if (!prepareMessages.addMessage(message, MessageBucket.prepareValue(prepareMessage)))
+            return;
 
         // Set instance blocks
-        this.instanceInfo.putIfAbsent(consensusInstance, new InstanceInfo(block));
-        InstanceInfo instance = this.instanceInfo.get(consensusInstance);
+        InstanceInfo instance = stateOf(this.instanceInfo, consensusInstance, i -> new InstanceInfo(block));
+        if (instance == null) {
+            isPruned(consensusInstance, message);
+            return;
+        }
 
         // Within an instance of the algorithm, each upon rule is triggered at most once
         // for any round r
         // Late prepare (consensus already ended for other nodes) only reply to him (as
         // an ACK)
-        if (instance.getPreparedRound() >= round) {
-            LOGGER.log(Level.INFO,
-                    MessageFormat.format(
-                            "{0} - Already received PREPARE message for Consensus Instance {1}, Round {2}, "
-                                    + "replying again to make sure it reaches the initial sender",
-                            config.getId(), consensusInstance, round));
+        // The message was added before the check, so if the instance was not prepared
+        // yet, prepareBlock will reply to it
+        synchronized (instance) {
+            if (instance.getPreparedRound() >= round) {
+                LOGGER.log(Level.INFO,
+                        MessageFormat.format(
+                                "{0} - Already received PREPARE message for Consensus Instance {1}, Round {2}, "
+                                        + "replying again to make sure it reaches the initial sender",
+                                config.getId(), consensusInstance, round));
 
-            ConsensusMessage m = new ConsensusMessageBuilder(config.getId(), Message.Type.COMMIT)
-                    .setConsensusInstance(consensusInstance)
-                    .setRound(round)
-                    .setReplyTo(senderId)
-                    .setReplyToMessageId(message.getMessageId())
-                    .setMessage(instance.getCommitMessage().toJson())
-                    .build();
+                ConsensusMessage m = new ConsensusMessageBuilder(config.getId(), Message.Type.COMMIT)
+                        .setConsensusInstance(consensusInstance)
+                        .setRound(round)
+                        .setReplyTo(senderId)
+                        .setReplyToMessageId(message.getMessageId())
+                        .setMessage(instance.getCommitMessage().toJson())
+                        .build();
 
-            link.send(senderId, m);
-            return;
+                link.send(senderId, m);
+                return;
+            }
         }
 
-        // Find block with valid quorum
+        // Find block with valid quorum (the pipeline prepares each instance once)
         Optional<Block> preparedBlock = prepareMessages.hasValidPrepareQuorum(config.getId(), consensusInstance, round);
-        if (preparedBlock.isPresent() && instance.getPreparedRound() < round) {
+        if (preparedBlock.isPresent()) {
+            // Blocks are validated against the state left by the previous instance,
+            // so wait until every previous instance was prepared
+            Block quorumBlock = preparedBlock.get();
+            this.pipeline.prepared(consensusInstance,
+                    () -> prepareBlock(consensusInstance, round, instance, quorumBlock));
+        }
+    }
 
-            prepareMessages.verifyReceivedPrepareMessage(preparedBlock.get(), consensusInstance, round);
+    /*
+     * Validate a prepared block and reply to the prepare senders with the
+     * signed account updates (commit)
+     *
+     * @param consensusInstance Consensus instance
+     *
+     * @param round Round in which the block was prepared
+     *
+     * @param instance Instance information
+     *
+     * @param preparedBlock Block with a valid prepare quorum
+     */
+    private void prepareBlock(int consensusInstance, int round, InstanceInfo instance, Block preparedBlock) {
+        // Late prepare messages wait for the commit message (see uponPrepare)
+        synchronized (instance) {
+            prepareMessages.verifyReceivedPrepareMessage(consensusInstance, round);
 
-            instance.setPreparedBlock(preparedBlock.get());
+            instance.setPreparedBlock(preparedBlock);
             instance.setPreparedRound(round);
 
             // Must reply to prepare message senders
@@ -682,15 +787,13 @@ public class NodeService implements UDPService {
                     .values();
 
             // Verify transactions validity and update temporary state
-            Map<String, UpdateAccount> accountUpdates = this.tryAddBlock(consensusInstance, preparedBlock.get());
+            List<UpdateAccount> accountUpdates = this.tryAddBlock(consensusInstance, preparedBlock);
 
             // If block is invalid, create "invalid" updateAccount with the requests nonce
             // to reply to the client requests, this instance will not update the blockchain
             // but the updateAccounts will be stored (as invalid)
             boolean isValidBlock = true;
-            if (accountUpdates.values().size() == 0) {
-                accountUpdates = new HashMap<>();
-            } else if (consensusInstance != 1 && !accountUpdates.values().stream().toList().get(0).isValid()) {
+            if (consensusInstance != 1 && accountUpdates.size() > 0 && !accountUpdates.get(0).isValid()) {
                 isValidBlock = false;
             }
 
@@ -698,7 +801,7 @@ public class NodeService implements UDPService {
             // account
             // This serves as proof that the update is valid (if a quorum of signatures is
             // obtained)
-            CommitMessage c = new CommitMessage(isValidBlock, accountUpdates);
+            CommitMessage c = this.attest(consensusInstance, isValidBlock, accountUpdates);
             instance.setCommitMessage(c);
 
             sendersMessage.forEach(senderMessage -> {
@@ -736,11 +839,7 @@ public class NodeService implements UDPService {
                     request.getSenderId()));
             return result;
         }
-        try {
-            result = RSAEncryption.readPublicKey(senderConfig.get().getPublicKeyPath()).equals(pubKey);
-        } catch (Exception e) {
-            throw new LedgerException(ErrorMessage.FailedToReadPublicKey);
-        }
+        result = pubKey != null && pubKey.equals(this.keyRing.getPublicKey(request.getSenderId()));
 
         if (!result) {
             LOGGER.log(Level.INFO, MessageFormat.format(
@@ -755,7 +854,8 @@ public class NodeService implements UDPService {
     }
 
     /*
-     * Verify if the signatures of the updated accounts are valid
+     * Verify if the signatures of the updated accounts are valid (with Merkle
+     * attestation, the signature of the root of their tree)
      */
     private boolean verifyAccountSignatures(String senderId, int consensusInstance, CommitMessage message) {
         Map<String, UpdateAccount> accountSignatures = message.getUpdateAccountSignatures();
@@ -767,12 +867,24 @@ public class NodeService implements UDPService {
             return false;
         }
 
+        // Every node must attest the updates in the same way
+        if (message.isMerkleAttested() != this.config.isMerkleAttestation())
+            return false;
+
+        if (message.isMerkleAttested()) {
+            // The order is fixed so that every member of a quorum signs the same root
+            List<UpdateAccount> updates = message.getAttestedUpdates();
+            if (updates == null || !AccountUpdateTree.isSorted(updates))
+                return false;
+            return this.keyRing.verifySignature(new AccountUpdateTree(updates).getSignedData(),
+                    message.getRootSignature(), senderId);
+        }
+
         for (var entry : accountSignatures.entrySet()) {
             String signature = entry.getKey();
             UpdateAccount accountUpdate = entry.getValue();
 
-            if (!RSAEncryption.verifySignature(accountUpdate.toJson(), signature,
-                    senderConfig.get().getPublicKeyPath())) {
+            if (!this.keyRing.verifySignature(accountUpdate.toJson(), signature, senderId)) {
                 return false;
             }
         }
@@ -785,7 +897,7 @@ public class NodeService implements UDPService {
      *
      * @param message Message to be handled
      */
-    public synchronized void uponCommit(ConsensusMessage message) {
+    public void uponCommit(ConsensusMessage message) {
 
         String senderId = message.getSenderId();
         int consensusInstance = message.getConsensusInstance();
@@ -795,6 +907,9 @@ public class NodeService implements UDPService {
                 MessageFormat.format("{0} - Received COMMIT message from {1}: Consensus Instance {2}, Round {3}",
                         config.getId(), message.getSenderId(), consensusInstance, round));
 
+        if (isPruned(consensusInstance, message))
+            return;
+
         CommitMessage commitMessage = message.deserializeCommitMessage();
 
         if (!verifyAccountSignatures(senderId, consensusInstance, commitMessage)) {
@@ -808,7 +923,9 @@ public class NodeService implements UDPService {
             return;
         }
 
-        commitMessages.addMessage(message);
+        // A second (different) value from the same sender is ignored
+        if (!commitMessages.addMessage(message, MessageBucket.commitValue(commitMessage)))
+            return;
 
         // Technically, we already received a prepare which created a instanceInfo
         // however, this may not be the case :-)
@@ -823,157 +940,278 @@ public class NodeService implements UDPService {
             return;
         }
 
-        // Within an instance of the algorithm, each upon rule is triggered at most once
-        // for any round r
-        if (instance.getCommittedRound() >= round) {
-            LOGGER.log(Level.INFO,
-                    MessageFormat.format(
-                            "{0} - Already received COMMIT message for Consensus Instance {1}, Round {2}, ignoring",
-                            config.getId(), consensusInstance, round));
-            return;
-        }
-
-        Optional<List<ConsensusMessage>> commitQuorum = commitMessages.hasValidCommitQuorum(config.getId(),
-                consensusInstance, round);
+        Optional<List<ConsensusMessage>> commitQuorum;
+        synchronized (instance) {
+            // Within an instance of the algorithm, each upon rule is triggered at most once
+            // for any round r
+            if (instance.getCommittedRound() >= round) {
+                LOGGER.log(Level.INFO,
+                        MessageFormat.format(
+                                "{0} - Already received COMMIT message for Consensus Instance {1}, Round {2}, ignoring",
+                                config.getId(), consensusInstance, round));
+                return;
+            }
 
-        if (commitQuorum.isPresent() && instance.getCommittedRound() < round) {
+            commitQuorum = commitMessages.hasValidCommitQuorum(config.getId(), consensusInstance, round);
+            if (commitQuorum.isEmpty())
+                return;
 
-            instance = this.instanceInfo.get(consensusInstance);
             instance.setCommittedRound(round);
+        }
 
-            // They are all the same, so we can just get the first one
-            CommitMessage quorumCommitMessage = commitQuorum.get().stream().toList().get(0).deserializeCommitMessage();
-
-            // Check if any of the commit messages received was different
-            commitMessages.verifyReceivedCommitMessage(quorumCommitMessage, consensusInstance, round);
-
-            // Verify if update accounts are valid or not
-            boolean successfulAdd = quorumCommitMessage.isValidBlock();
+        // Decisions are applied in order, after the block was prepared locally
+        // (not under the lock of the instance, the pipeline takes it to prepare)
+        List<ConsensusMessage> quorum = commitQuorum.get();
+        this.pipeline.decided(consensusInstance, () -> decide(consensusInstance, round, quorum));
+    }
 
-            // Store signatures from other nodes
-            commitQuorum.get().forEach((m) -> {
-                String signerId = m.getSenderId();
-                Map<String, UpdateAccount> updates = m.deserializeCommitMessage().getUpdateAccountSignatures();
-                updates.forEach((signature, accountUpdate) -> this.ledger.addAccountUpdateSignature(consensusInstance,
-                        accountUpdate.getHashPubKey(), signerId, signature));
-            });
+    /*
+     * Apply a decided block to the ledger and reply to the clients
+     *
+     * @param consensusInstance Consensus instance
+     *
+     * @param round Round in which the block was committed
+     *
+     * @param commitQuorum Quorum of equal commit messages
+     */
+    private void decide(int consensusInstance, int round, List<ConsensusMessage> commitQuorum) {
+        // They are all the same, so we can just get the first one
+        CommitMessage quorumCommitMessage = commitQuorum.get(0).deserializeCommitMessage();
 
-            if (successfulAdd) {
-                // Apply temporary transactions to account and append block to blockchain
-                this.ledger.commitTransactions(consensusInstance);
-            }
+        // Check if any of the commit messages received was different
+        commitMessages.verifyReceivedCommitMessage(consensusInstance, round);
 
-            /*
-             * What we have
-             * {HashPubKey -> UpdateAccount}
-             * LedgerRequests[]
-             * 
-             * What we want
-             * Create a LedgerResponse with UpdateAccount and nonces that lead to that
-             * and a LedgerResponse for each
-             * 
-             * For create and transfer we respond in bulk
-             * For balance we respond individually
-             */
+        // Verify if update accounts are valid or not
+        boolean successfulAdd = quorumCommitMessage.isValidBlock();
 
-            Map<String, LedgerResponse> responses = new HashMap<>();
-
-            this.instanceInfo.get(consensusInstance).getPreparedBlock().getRequests()
-                    .forEach(request -> {
-                        switch (request.getType()) {
-                            case CREATE, TRANSFER -> {
-                                String accountHashPublicKey;
-                                if (request.getType().equals(Type.CREATE))
-                                    accountHashPublicKey = hashPubKey(request.deserializeCreate().getAccountPubKey());
-                                else
-                                    accountHashPublicKey = hashPubKey(request.deserializeTransfer().getSourcePubKey());
-
-                                LedgerResponse response = responses.get(request.getSenderId());
-                                if (response == null) {
-                                    UpdateAccount updateAccount = this.ledger.getAccountUpdate(consensusInstance, accountHashPublicKey);
-
-                                    response = new LedgerResponse(this.config.getId(), successfulAdd,
-                                            updateAccount,
-                                            this.ledger.getAccountUpdateSignatures(
-                                                    updateAccount.getConsensusInstance(),
-                                                    accountHashPublicKey));
-
-                                    responses.put(request.getSenderId(), response);
-                                }
+        // Signer ID -> Commit message
+        Map<String, CommitMessage> quorum = new HashMap<>();
+        commitQuorum.forEach((m) -> quorum.put(m.getSenderId(), m.deserializeCommitMessage()));
 
-                                if (this.config.isLeader())
-                                    responses.get(request.getSenderId()).addReplyTo(request.getMessageId());
-                                else {
-                                    mempool.accept(queue -> {
-                                        for (var storedRequest : queue) {
-                                            if (storedRequest.getMessage().equals(request.getMessage())) {
-                                                responses.get(request.getSenderId())
-                                                        .addReplyTo(storedRequest.getMessageId());
-                                                mempool.removeRequest(storedRequest);
-                                                return;
-                                            }
-                                        }
-                                    });
-                                }
-                            }
-                            case BALANCE -> {
-                                LedgerRequestBalance balance = request.deserializeBalance();
-                                String accountHashPublicKey = hashPubKey(balance.getAccountPubKey());
+        this.applyCommitQuorum(consensusInstance, successfulAdd, quorum);
 
-                                Account acc = this.ledger.getAccount(accountHashPublicKey);
+        // Completed once the block is durable (consensus goes on meanwhile)
+        CompletableFuture<Void> durable = this.storage == null ? CompletableFuture.completedFuture(null)
+                : this.storage.append(new DecidedBlock(consensusInstance, round, successfulAdd,
+                        this.instanceInfo.get(consensusInstance).getPreparedBlock().toJson(), quorum));
 
-                                UpdateAccount accountUpdate = acc.getMostRecentAccountUpdate();
+        /*
+         * What we have
+         * {HashPubKey -> UpdateAccount}
+         * LedgerRequests[]
+         * 
+         * What we want
+         * Create a LedgerResponse with UpdateAccount and nonces that lead to that
+         * and a LedgerResponse for each
+         * 
+         * For create and transfer we respond in bulk
+         * For balance we respond individually
+         */
 
-                                LedgerResponse response = new LedgerResponse(this.config.getId(),
-                                        accountUpdate.isValid(),
-                                        accountUpdate,
+        Map<String, LedgerResponse> responses = new HashMap<>();
+        // Client ID -> Response, sent once the block is durable
+        List<Map.Entry<String, LedgerResponse>> replies = new ArrayList<>();
+
+        this.instanceInfo.get(consensusInstance).getPreparedBlock().getRequests()
+                .forEach(request -> {
+                    switch (request.getType()) {
+                        case CREATE, TRANSFER -> {
+                            AccountId accountId;
+                            if (request.getType().equals(Type.CREATE))
+                                accountId = request.deserializeCreate().getAccountId();
+                            else
+                                accountId = request.deserializeTransfer().getSourceAccountId();
+
+                            LedgerResponse response = responses.get(request.getSenderId());
+                            if (response == null) {
+                                UpdateAccount updateAccount = this.ledger.getAccountUpdate(consensusInstance, accountId);
+
+                                response = new LedgerResponse(this.config.getId(), successfulAdd,
+                                        updateAccount,
                                         this.ledger.getAccountUpdateSignatures(
-                                                accountUpdate.getConsensusInstance(),
-                                                accountHashPublicKey),
-                                        balance.getNonce());
-
-                                if (this.config.isLeader()) {
-                                    response.addReplyTo(request.getMessageId());
-                                } else {
-                                    mempool.accept(queue -> {
-                                        for (var storedRequest : queue) {
-                                            if (storedRequest.getMessage().equals(request.getMessage())) {
-                                                response.addReplyTo(storedRequest.getMessageId());
-                                                mempool.removeRequest(storedRequest);
-                                                return;
-                                            }
-                                        }
-                                    });
-                                }
+                                                updateAccount.getConsensusInstance(),
+                                                accountId));
+                                response.setProof(this.ledger.getAccountUpdateProof(
+                                        updateAccount.getConsensusInstance(), accountId));
 
-                                this.clientLink.send(request.getSenderId(), response);
+                                responses.put(request.getSenderId(), response);
                             }
-                            default -> {
-                                // Should not happen
-                                System.out.println("UNKNOWN REQUEST TYPE");
+
+                            if (this.config.isLeader())
+                                responses.get(request.getSenderId()).addReplyTo(request.getMessageId());
+                            else {
+                                LedgerResponse senderResponse = responses.get(request.getSenderId());
+                                mempool.removeRequest(request)
+                                        .ifPresent(storedRequest -> senderResponse.addReplyTo(storedRequest.getMessageId()));
                             }
                         }
-                    });
+                        case BALANCE -> {
+                            LedgerRequestBalance balance = request.deserializeBalance();
+                            AccountId accountId = balance.getAccountId();
+
+                            Account acc = this.ledger.getAccount(accountId);
+
+                            UpdateAccount accountUpdate = acc.getMostRecentAccountUpdate();
+
+                            LedgerResponse response = new LedgerResponse(this.config.getId(),
+                                    accountUpdate.isValid(),
+                                    accountUpdate,
+                                    this.ledger.getAccountUpdateSignatures(
+                                            accountUpdate.getConsensusInstance(),
+                                            accountId),
+                                    balance.getNonce());
+                            response.setProof(this.ledger.getAccountUpdateProof(
+                                    accountUpdate.getConsensusInstance(), accountId));
+
+                            if (this.config.isLeader()) {
+                                response.addReplyTo(request.getMessageId());
+                            } else {
+                                mempool.removeRequest(request)
+                                        .ifPresent(storedRequest -> response.addReplyTo(storedRequest.getMessageId()));
+                            }
 
-            for (var entry : responses.entrySet()) {
-                this.clientLink.send(entry.getKey(), entry.getValue());
+                            replies.add(Map.entry(request.getSenderId(), response));
+                        }
+                        default -> {
+                            // Should not happen
+                            System.out.println("UNKNOWN REQUEST TYPE");
+                        }
+                    }
+                });
+
+        replies.addAll(responses.entrySet());
+
+        // A client is never told about a block that a crash of every node could lose
+        durable.whenComplete((ignored, e) -> {
+            if (e != null) {
+                LOGGER.log(Level.INFO, MessageFormat.format("{0} - Cannot store Consensus Instance {1}: {2}",
+                        config.getId(), consensusInstance, e.getMessage()));
+                return;
             }
+            replies.forEach(reply -> this.clientLink.send(reply.getKey(), reply.getValue()));
+        });
 
-            lastDecidedConsensusInstance.getAndIncrement();
+        // Let the batching policy adapt to the consensus latency
+        if (this.config.isLeader()) {
+            InstanceInfo instance = this.instanceInfo.get(consensusInstance);
+            this.mempool.blockDecided(instance.getPreparedBlock().getRequests().size(),
+                    System.currentTimeMillis() - instance.getStartTime());
+        }
 
-            LOGGER.log(Level.INFO,
-                    MessageFormat.format(
-                            "{0} - Decided on Consensus Instance {1}, Round {2}, Successful? {3}",
-                            config.getId(), consensusInstance, round, successfulAdd));
+        LOGGER.log(Level.INFO,
+                MessageFormat.format(
+                        "{0} - Decided on Consensus Instance {1}, Round {2}, Successful? {3}",
+                        config.getId(), consensusInstance, round, successfulAdd));
+
+        prune(consensusInstance);
+
+        if (this.storage != null && consensusInstance % this.config.getSnapshotInterval() == 0)
+            this.storage.snapshot(this.ledger.snapshot(consensusInstance));
+    }
+
+    /*
+     * Stores the signatures of the commit quorum and, if the block is valid,
+     * applies its account updates to the ledger
+     *
+     * @param quorum Signer ID -> Commit message
+     */
+    private void applyCommitQuorum(int consensusInstance, boolean valid, Map<String, CommitMessage> quorum) {
+        // Every member of the quorum attested the same tree, its proofs are shared
+        quorum.values().stream().filter(CommitMessage::isMerkleAttested).findFirst().ifPresent(commit -> {
+            AccountUpdateTree tree = new AccountUpdateTree(commit.getAttestedUpdates());
+            for (int i = 0; i < tree.getUpdates().size(); i++)
+                this.ledger.addAccountUpdateProof(consensusInstance, tree.getUpdates().get(i).getAccountId(),
+                        tree.getProof(i));
+        });
+
+        // Store signatures from other nodes
+        quorum.forEach((signerId, commit) -> {
+            if (commit.isMerkleAttested()) {
+                this.ledger.addRootSignature(consensusInstance, signerId, commit.getRootSignature());
+                return;
+            }
+            commit.getUpdateAccountSignatures().forEach((signature, accountUpdate) -> this.ledger
+                    .addAccountUpdateSignature(consensusInstance, accountUpdate.getAccountId(), signerId, signature));
+        });
+
+        if (valid) {
+            // Apply temporary transactions to account and append block to blockchain
+            this.ledger.commitTransactions(consensusInstance);
         }
     }
 
+    /*
+     * Drop the state of the instances that fell out of the retention window.
+     * Every decided instance is backed by a commit quorum, so nothing older
+     * than the window is needed except the latest update of each account.
+     *
+     * @param decidedInstance Last decided (and applied) consensus instance
+     */
+    private void prune(int decidedInstance) {
+        int watermark = decidedInstance - this.config.getRetentionWindow();
+        int previous = this.pruneWatermark.get();
+        if (watermark <= previous)
+            return;
+
+        // Late messages for these instances are ignored from now on
+        this.pruneWatermark.set(watermark);
+
+        for (int instance = previous + 1; instance <= watermark; instance++) {
+            this.instanceInfo.remove(instance);
+            this.receivedPrePrepare.remove(instance);
+        }
+        this.prepareMessages.prune(watermark);
+        this.commitMessages.prune(watermark);
+        this.ledger.compact(watermark);
+
+        LOGGER.log(Level.INFO, MessageFormat.format("{0} - Pruned state up to Consensus Instance {1}",
+                config.getId(), watermark));
+    }
+
+    /*
+     * @return State of an instance in one of the per-instance maps, created if
+     * needed, or null if the instance was pruned (the watermark is checked
+     * again after the state is created, so an instance pruned meanwhile does
+     * not keep it, as in MessageBucket)
+     */
+    private <T> T stateOf(Map<Integer, T> states, int consensusInstance, Function<Integer, T> create) {
+        T state = states.computeIfAbsent(consensusInstance, create);
+        if (consensusInstance <= this.pruneWatermark.get()) {
+            states.remove(consensusInstance);
+            return null;
+        }
+        return state;
+    }
+
+    private boolean isPruned(int consensusInstance, ConsensusMessage message) {
+        if (consensusInstance > this.pruneWatermark.get())
+            return false;
+        LOGGER.log(Level.INFO,
+                MessageFormat.format("{0} - Ignoring {1} message from {2} for pruned Consensus Instance {3}",
+                        config.getId(), message.getType(), message.getSenderId(), consensusInstance));
+        return true;
+    }
+
+    /*
+     * Queues the handling of a message on the executor of its consensus instance
+     * (messages that are not part of an instance share one). Waits while too
+     * many messages are waiting, the message was already acknowledged.
+     */
+    private void dispatch(Message message, Runnable handler) throws InterruptedException {
+        int instance = message instanceof ConsensusMessage consensusMessage ? consensusMessage.getConsensusInstance()
+                : -1;
+        dispatcher.submit(instance, handler);
+    }
+
     @Override
     public void listen() {
         // Create Genesis block (amen) to ensure all states are signed
-        Block genesisBlock = new Block();
-        genesisBlock.setConsensusInstance(0);
-        this.startConsensus(genesisBlock);
+        // (unless the state was recovered from storage)
+        if (this.consensusInstance.get() == 0) {
+            Block genesisBlock = new Block();
+            genesisBlock.setConsensusInstance(0);
+            this.startConsensus(genesisBlock);
+        }
         try {
             // Thread to listen on every request
             // This is not thread safe but it's okay because
@@ -982,61 +1220,79 @@ public class NodeService implements UDPService {
             new Thread(() -> {
                 try {
                     while (true) {
-                        Message message = link.receive();
-
-                        /*
-                         * Sends ACK to incoming message but doesn't broadcast anything
-                         * Meaning that the other nodes will not be stuck waiting for a reply
-                         */
-                        if (config.getByzantineBehavior() == ByzantineBehavior.DROP) {
-                            LOGGER.log(Level.INFO,
-                                    MessageFormat.format("{0} - Byzantine Don't Reply", config.getId()));
-                            // don't reply
-                            continue;
-                        }
-
-                        // Separate thread to handle each message
-                        new Thread(() -> {
+                        try {
+                            Message message = link.receive();
+
+                            /*
+                             * Sends ACK to incoming message but doesn't broadcast anything
+                             * Meaning that the other nodes will not be stuck waiting for a reply
+                             */
+                            if (config.getByzantineBehavior() == ByzantineBehavior.DROP) {
+                                LOGGER.log(Level.INFO,
+                                        MessageFormat.format("{0} - Byzantine Don't Reply", config.getId()));
+                                // don't reply
+                                continue;
+                            }
 
                             switch (message.getType()) {
 
-                                case PRE_PREPARE ->
-                                    uponPrePrepare((ConsensusMessage) message);
-
-
-                                case PREPARE ->
-                                    uponPrepare((ConsensusMessage) message);
-
-
-                                case COMMIT ->
-                                    uponCommit((ConsensusMessage) message);
-
+                                case PRE_PREPARE, PREPARE, COMMIT -> {
+                                    // handled below
+                                }
 
-                                case ACK ->
+                                case ACK -> {
                                     LOGGER.log(Level.INFO, MessageFormat.format("{0} - Received ACK message from {1}",
                                             config.getId(), message.getSenderId()));
                                     // ignore
+                                    continue;
+                                }
 
-
-                                case IGNORE ->
+                                case IGNORE -> {
                                     LOGGER.log(Level.INFO,
                                             MessageFormat.format("{0} - Received IGNORE message from {1}",
                                                     config.getId(), message.getSenderId()));
                                     // ignore
+                                    continue;
+                                }
 
-
-                                default ->
+                                default -> {
                                     LOGGER.log(Level.INFO,
                                             MessageFormat.format("{0} - Received unknown message from {1}",
                                                     config.getId(), message.getSenderId()));
                                     // ignore
-
+                                    continue;
+                                }
                             }
 
-                        }).start();
+                            // Handled after the previous messages of the same instance
+                            dispatch(message, () -> {
+
+                                switch (message.getType()) {
+
+                                    case PRE_PREPARE ->
+                                        uponPrePrepare((ConsensusMessage) message);
+
+                                    case PREPARE ->
+                                        uponPrepare((ConsensusMessage) message);
+
+                                    case COMMIT ->
+                                        uponCommit((ConsensusMessage) message);
+
+                                    default -> {
+                                        // filtered out above
+                                    }
+                                }
+
+                            });
+                        } catch (RuntimeException e) {
+                            // A single bad message must not stop the node from taking part in consensus
+                            e.printStackTrace();
+                        }
                     }
                 } catch (IOException | ClassNotFoundException e) {
                     e.printStackTrace();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
                 }
             }).start();
         } catch (Exception e) {
@@ -0,0 +1,106 @@
+package pt.ulisboa.tecnico.hdsledger.service.services;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import pt.ulisboa.tecnico.hdsledger.utilities.KeyRing;
+import pt.ulisboa.tecnico.hdsledger.utilities.RSAEncryption;
+
+/*
+ * Signatures this node already verified, so a client request is verified once
+ * even though it arrives on its own, in the PRE-PREPARE and in every PREPARE.
+ * Entries are the digest of (signer, signature, data), only valid signatures
+ * are remembered.
+ *
+ * Bounded with two generations: new entries go to the current one, which
+ * replaces the previous one once it is full, and hits in the previous one are
+ * moved back to the current one. Recently used entries survive, without a lock.
+ */
+public class SignatureCache {
+
+    private static final Boolean VERIFIED = Boolean.TRUE;
+
+    // Verifies the signatures that are not cached
+    private final KeyRing keyRing;
+    // Entries per generation
+    private final int generationSize;
+    // Generation new entries go to
+    private volatile Map<ByteBuffer, Boolean> current = new ConcurrentHashMap<>();
+    // Generation being phased out
+    private volatile Map<ByteBuffer, Boolean> previous = new ConcurrentHashMap<>();
+    // Verifications answered by the cache
+    private final AtomicLong hits = new AtomicLong(0);
+    // Verifications that ran the signature scheme
+    private final AtomicLong misses = new AtomicLong(0);
+
+    /*
+     * @param capacity Maximum number of signatures remembered
+     */
+    public SignatureCache(KeyRing keyRing, int capacity) {
+        this.keyRing = keyRing;
+        this.generationSize = Math.max(1, capacity / 2);
+    }
+
+    /*
+     * Verifies a signature made by a given process (see KeyRing.verifySignature)
+     */
+    public boolean verifySignature(String data, String signature, String signerId) {
+        if (data == null || signature == null || signerId == null)
+            return false;
+
+        ByteBuffer key = keyOf(data, signature, signerId);
+        if (current.containsKey(key)) {
+            hits.incrementAndGet();
+            return true;
+        }
+        if (previous.containsKey(key)) {
+            hits.incrementAndGet();
+            remember(key);
+            return true;
+        }
+
+        misses.incrementAndGet();
+        if (!keyRing.verifySignature(data, signature, signerId))
+            return false;
+        remember(key);
+        return true;
+    }
+
+    private static ByteBuffer keyOf(String data, String signature, String signerId) {
+        // Length prefixes keep the fields apart
+        String material = signerId.length() + ":" + signerId + signature.length() + ":" + signature + data;
+        return ByteBuffer.wrap(RSAEncryption.digest(ByteBuffer.wrap(material.getBytes(StandardCharsets.UTF_8))));
+    }
+
+    private void remember(ByteBuffer key) {
+        Map<ByteBuffer, Boolean> generation = current;
+        generation.put(key, VERIFIED);
+        if (generation.size() < generationSize)
+            return;
+        synchronized (this) {
+            // Another thread may have rotated the generations already
+            if (current == generation) {
+                previous = generation;
+                current = new ConcurrentHashMap<>();
+            }
+        }
+    }
+
+    public long getHits() {
+        return hits.get();
+    }
+
+    public long getMisses() {
+        return misses.get();
+    }
+
+    /*
+     * @return Number of signatures currently remembered
+     */
+    public int getSize() {
+        return current.size() + previous.size();
+    }
+}
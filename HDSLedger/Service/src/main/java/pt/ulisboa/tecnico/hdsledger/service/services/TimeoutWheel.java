@@ -0,0 +1,150 @@
+package pt.ulisboa.tecnico.hdsledger.service.services;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/*
+ * Hashed timing wheel: a single thread advances a ring of slots once per tick
+ * and fires the timeouts of the current slot. Scheduling and cancelling are
+ * O(1), so a large number of pending deadlines costs neither threads nor a
+ * priority queue.
+ */
+public class TimeoutWheel {
+
+    // Duration of a tick (ms)
+    private final long tickDuration;
+    // Slot index mask (the number of slots is a power of two)
+    private final int mask;
+    // Slot -> doubly linked list of timeouts
+    private final Timeout[] slots;
+    // Advances the wheel
+    private final ScheduledExecutorService ticker;
+    // Next tick to be processed
+    private long tick = 0;
+    // Timeouts scheduled and not yet fired or cancelled
+    private int pending = 0;
+    // Timeouts that fired
+    private final AtomicLong expired = new AtomicLong(0);
+
+    public final class Timeout {
+        private final Runnable task;
+        // Full turns of the wheel left before firing
+        private long rounds;
+        private int slot;
+        private Timeout prev;
+        private Timeout next;
+        private boolean scheduled = true;
+
+        private Timeout(Runnable task) {
+            this.task = task;
+        }
+
+        /*
+         * @return False if the timeout already fired or was cancelled
+         */
+        public boolean cancel() {
+            synchronized (TimeoutWheel.this) {
+                if (!scheduled)
+                    return false;
+                unlink(this);
+                return true;
+            }
+        }
+    }
+
+    /*
+     * @param name Name of the ticker thread
+     *
+     * @param tickDuration Resolution of the wheel (ms)
+     *
+     * @param wheelSize Number of slots (rounded up to a power of two)
+     */
+    public TimeoutWheel(String name, long tickDuration, int wheelSize) {
+        int size = Integer.highestOneBit(Math.max(1, wheelSize - 1)) << 1;
+        this.tickDuration = Math.max(1, tickDuration);
+        this.mask = size - 1;
+        this.slots = new Timeout[size];
+        this.ticker = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, name);
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.ticker.scheduleAtFixedRate(this::advance, this.tickDuration, this.tickDuration,
+                TimeUnit.MILLISECONDS);
+    }
+
+    /*
+     * Runs task (on the ticker thread) once delay has elapsed
+     *
+     * @param delay Delay in milliseconds, rounded up to the tick duration
+     */
+    public synchronized Timeout schedule(Runnable task, long delay) {
+        long ticks = Math.max(1, (delay + tickDuration - 1) / tickDuration);
+        Timeout timeout = new Timeout(task);
+        timeout.rounds = (ticks - 1) / slots.length;
+        timeout.slot = (int) ((tick + ticks - 1) & mask);
+
+        timeout.next = slots[timeout.slot];
+        if (timeout.next != null)
+            timeout.next.prev = timeout;
+        slots[timeout.slot] = timeout;
+        pending++;
+        return timeout;
+    }
+
+    private void unlink(Timeout timeout) {
+        if (timeout.prev != null)
+            timeout.prev.next = timeout.next;
+        else
+            slots[timeout.slot] = timeout.next;
+        if (timeout.next != null)
+            timeout.next.prev = timeout.prev;
+        timeout.prev = null;
+        timeout.next = null;
+        timeout.scheduled = false;
+        pending--;
+    }
+
+    private void advance() {
+        List<Timeout> due = new ArrayList<>();
+        synchronized (this) {
+            Timeout timeout = slots[(int) (tick & mask)];
+            while (timeout != null) {
+                Timeout next = timeout.next;
+                if (timeout.rounds == 0) {
+                    unlink(timeout);
+                    due.add(timeout);
+                } else {
+                    timeout.rounds--;
+                }
+                timeout = next;
+            }
+            tick++;
+        }
+
+        for (Timeout timeout : due) {
+            expired.incrementAndGet();
+            try {
+                timeout.task.run();
+            } catch (RuntimeException e) {
+                e.printStackTrace();
+            }
+        }
+    }
+
+    public synchronized int getPendingCount() {
+        return pending;
+    }
+
+    public long getExpiredCount() {
+        return expired.get();
+    }
+
+    public void stop() {
+        ticker.shutdownNow();
+    }
+}
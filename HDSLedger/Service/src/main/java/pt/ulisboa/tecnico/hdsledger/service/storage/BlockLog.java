@@ -0,0 +1,258 @@
+package pt.ulisboa.tecnico.hdsledger.service.storage;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.function.ObjIntConsumer;
+import java.util.stream.Stream;
+import java.util.zip.CRC32C;
+
+import pt.ulisboa.tecnico.hdsledger.utilities.ErrorMessage;
+import pt.ulisboa.tecnico.hdsledger.utilities.LedgerException;
+
+/*
+ * Append-only log of decided instances split in fixed size segments, each one
+ * memory mapped. A record is laid out as
+ * length (int) | consensus instance (int) | CRC32C of the payload (int) | payload
+ * and is followed by a zero length that marks the end of the log. Appending
+ * only copies bytes into the mapping, the caller forces the dirty segments
+ * to disk (see takeDirty).
+ *
+ * Not thread safe, Storage serializes every call.
+ */
+public class BlockLog {
+
+    private static final String PREFIX = "segment-";
+    private static final String SUFFIX = ".log";
+    // length + instance + crc
+    private static final int HEADER_SIZE = 3 * Integer.BYTES;
+
+    private static class Segment {
+        // Instance of the first record
+        private final int firstInstance;
+        private final Path path;
+        private final MappedByteBuffer buffer;
+        // Instance of the last record (firstInstance - 1 when empty)
+        private int lastInstance;
+        // Written since the last sync
+        private boolean dirty = false;
+
+        private Segment(int firstInstance, Path path, MappedByteBuffer buffer) {
+            this.firstInstance = firstInstance;
+            this.path = path;
+            this.buffer = buffer;
+            this.lastInstance = firstInstance - 1;
+        }
+    }
+
+    // Directory holding the segments
+    private final Path directory;
+    // Size of a new segment (bytes)
+    private final int segmentSize;
+    // First instance -> segment
+    private final TreeMap<Integer, Segment> segments = new TreeMap<>();
+    // Segment being appended to
+    private Segment active;
+
+    /*
+     * Opens the log, dropping anything after the first torn or corrupted record
+     *
+     * @param directory Directory of the segments (created if missing)
+     *
+     * @param segmentSize Size of each segment in bytes
+     */
+    public BlockLog(Path directory, int segmentSize) throws IOException {
+        this.directory = Files.createDirectories(directory);
+        this.segmentSize = segmentSize;
+
+        List<Path> paths;
+        try (Stream<Path> files = Files.list(directory)) {
+            paths = files.filter(path -> isSegment(path.getFileName().toString())).sorted().toList();
+        }
+
+        boolean truncated = false;
+        for (Path path : paths) {
+            if (truncated) {
+                // Records after a corrupted one cannot be trusted (there is a gap)
+                Files.delete(path);
+                continue;
+            }
+            Segment segment = map(firstInstanceOf(path), path, (int) Files.size(path));
+            truncated = !scan(segment);
+            segments.put(segment.firstInstance, segment);
+            active = segment;
+        }
+    }
+
+    private static boolean isSegment(String name) {
+        return name.startsWith(PREFIX) && name.endsWith(SUFFIX);
+    }
+
+    private static int firstInstanceOf(Path path) {
+        String name = path.getFileName().toString();
+        return Integer.parseInt(name.substring(PREFIX.length(), name.length() - SUFFIX.length()));
+    }
+
+    private Segment map(int firstInstance, Path path, int size) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                StandardOpenOption.WRITE)) {
+            // The mapping stays valid after the channel is closed
+            return new Segment(firstInstance, path, channel.map(FileChannel.MapMode.READ_WRITE, 0, size));
+        }
+    }
+
+    private static int crc(ByteBuffer payload) {
+        CRC32C crc = new CRC32C();
+        crc.update(payload.duplicate());
+        return (int) crc.getValue();
+    }
+
+    /*
+     * Moves the position of the segment to the end of its last valid record
+     *
+     * @return False if the segment ends with a torn or corrupted record
+     */
+    private boolean scan(Segment segment) {
+        MappedByteBuffer buffer = segment.buffer;
+        buffer.position(0);
+        while (buffer.remaining() >= Integer.BYTES) {
+            int start = buffer.position();
+            int length = buffer.getInt(start);
+            if (length == 0) {
+                buffer.position(start);
+                return true;
+            }
+            if (length < 0 || buffer.remaining() < HEADER_SIZE + length) {
+                endAt(segment, start);
+                return false;
+            }
+
+            int instance = buffer.getInt(start + 4);
+            int checksum = buffer.getInt(start + 8);
+            ByteBuffer payload = buffer.slice(start + HEADER_SIZE, length);
+            if (checksum != crc(payload) || instance <= segment.lastInstance) {
+                endAt(segment, start);
+                return false;
+            }
+
+            segment.lastInstance = instance;
+            buffer.position(start + HEADER_SIZE + length);
+        }
+        return true;
+    }
+
+    private void endAt(Segment segment, int position) {
+        segment.buffer.position(position);
+        if (segment.buffer.remaining() >= Integer.BYTES)
+            segment.buffer.putInt(position, 0);
+        segment.dirty = true;
+    }
+
+    /*
+     * @return Instance of the last record in the log (0 if empty)
+     */
+    public int getLastInstance() {
+        return active == null ? 0 : active.lastInstance;
+    }
+
+    /*
+     * Appends a record, which is only durable once its segment is forced
+     *
+     * @param instance Consensus instance of the record, greater than the previous one
+     */
+    public void append(int instance, ByteBuffer payload) {
+        int length = payload.remaining();
+        int needed = HEADER_SIZE + length + Integer.BYTES;
+
+        if (active == null || active.buffer.remaining() < needed) {
+            try {
+                int size = Math.max(segmentSize, needed);
+                Path path = directory.resolve(String.format("%s%010d%s", PREFIX, instance, SUFFIX));
+                active = map(instance, path, size);
+                segments.put(instance, active);
+            } catch (IOException e) {
+                throw new LedgerException(ErrorMessage.CannotWriteStorage);
+            }
+        }
+
+        MappedByteBuffer buffer = active.buffer;
+        int start = buffer.position();
+        buffer.putInt(start + 4, instance);
+        buffer.putInt(start + 8, crc(payload));
+        buffer.put(start + HEADER_SIZE, payload, payload.position(), length);
+        // End marker first, then the length that makes the record visible
+        if (buffer.capacity() - (start + HEADER_SIZE + length) >= Integer.BYTES)
+            buffer.putInt(start + HEADER_SIZE + length, 0);
+        buffer.putInt(start, length);
+        buffer.position(start + HEADER_SIZE + length);
+
+        active.lastInstance = instance;
+        active.dirty = true;
+    }
+
+    /*
+     * @return Mappings written since the last call, the records appended so far
+     * are durable once every one of them is forced
+     */
+    public List<MappedByteBuffer> takeDirty() {
+        List<MappedByteBuffer> dirty = new ArrayList<>();
+        for (Segment segment : segments.values()) {
+            if (!segment.dirty)
+                continue;
+            dirty.add(segment.buffer);
+            segment.dirty = false;
+        }
+        return dirty;
+    }
+
+    /*
+     * Reads the records after a given instance, in order
+     *
+     * @param afterInstance Records up to this instance are skipped
+     *
+     * @param consumer Receives each payload and its instance
+     */
+    public void replay(int afterInstance, ObjIntConsumer<ByteBuffer> consumer) {
+        for (Segment segment : segments.values()) {
+            if (segment.lastInstance <= afterInstance)
+                continue;
+            ByteBuffer buffer = segment.buffer.duplicate();
+            int end = buffer.position();
+            int position = 0;
+            while (position < end) {
+                int length = buffer.getInt(position);
+                int instance = buffer.getInt(position + 4);
+                if (instance > afterInstance)
+                    consumer.accept(buffer.slice(position + HEADER_SIZE, length), instance);
+                position += HEADER_SIZE + length;
+            }
+        }
+    }
+
+    /*
+     * Deletes the segments whose records are all up to (and including) an instance
+     */
+    public void truncateUpTo(int instance) {
+        List<Integer> obsolete = new ArrayList<>();
+        for (Map.Entry<Integer, Segment> entry : segments.entrySet()) {
+            Segment segment = entry.getValue();
+            if (segment != active && segment.lastInstance <= instance)
+                obsolete.add(entry.getKey());
+        }
+        for (Integer firstInstance : obsolete) {
+            try {
+                Files.deleteIfExists(segments.remove(firstInstance).path);
+            } catch (IOException e) {
+                throw new LedgerException(ErrorMessage.CannotWriteStorage);
+            }
+        }
+    }
+}
@@ -0,0 +1,122 @@
+package pt.ulisboa.tecnico.hdsledger.service.storage;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import pt.ulisboa.tecnico.hdsledger.communication.AccountUpdateTree;
+import pt.ulisboa.tecnico.hdsledger.communication.CommitMessage;
+import pt.ulisboa.tecnico.hdsledger.communication.UpdateAccount;
+import pt.ulisboa.tecnico.hdsledger.communication.codec.ByteReader;
+import pt.ulisboa.tecnico.hdsledger.communication.codec.ByteWriter;
+import pt.ulisboa.tecnico.hdsledger.communication.codec.LedgerResponseCodec;
+
+/*
+ * Record of the block log: a decided block and the commit quorum that decided it.
+ * Replaying the account updates of the quorum rebuilds the ledger without
+ * executing the block again.
+ */
+public class DecidedBlock {
+
+    // Consensus instance
+    private final int consensusInstance;
+    // Round in which it was decided
+    private final int round;
+    // True if the block was applied to the ledger
+    private final boolean valid;
+    // Block (JSON)
+    private final String block;
+    // Signer ID -> Commit message it sent
+    private final Map<String, CommitMessage> quorum;
+
+    public DecidedBlock(int consensusInstance, int round, boolean valid, String block,
+            Map<String, CommitMessage> quorum) {
+        this.consensusInstance = consensusInstance;
+        this.round = round;
+        this.valid = valid;
+        this.block = block;
+        this.quorum = quorum;
+    }
+
+    public int getConsensusInstance() {
+        return consensusInstance;
+    }
+
+    public int getRound() {
+        return round;
+    }
+
+    public boolean isValid() {
+        return valid;
+    }
+
+    public String getBlock() {
+        return block;
+    }
+
+    public Map<String, CommitMessage> getQuorum() {
+        return quorum;
+    }
+
+    public ByteBuffer encode() {
+        ByteWriter out = new ByteWriter();
+        out.putInt(consensusInstance);
+        out.putInt(round);
+        out.putBoolean(valid);
+        out.putString(block);
+
+        out.putInt(quorum.size());
+        quorum.forEach((signerId, commit) -> {
+            out.putString(signerId);
+            writeCommit(commit, out);
+        });
+        return out.asByteBuffer();
+    }
+
+    private static void writeCommit(CommitMessage commit, ByteWriter out) {
+        out.putBoolean(commit.isValidBlock());
+        out.putString(commit.getRootSignature());
+        if (commit.isMerkleAttested()) {
+            out.putInt(commit.getAttestedUpdates().size());
+            commit.getAttestedUpdates().forEach(update -> LedgerResponseCodec.writeUpdateAccount(update, out));
+            return;
+        }
+        out.putInt(commit.getUpdateAccountSignatures().size());
+        commit.getUpdateAccountSignatures().forEach((signature, update) -> {
+            out.putString(signature);
+            LedgerResponseCodec.writeUpdateAccount(update, out);
+        });
+    }
+
+    private static CommitMessage readCommit(ByteReader in) {
+        boolean validBlock = in.getBoolean();
+        String rootSignature = in.getString();
+        int updateCount = in.getInt();
+        if (rootSignature != null) {
+            List<UpdateAccount> updates = new ArrayList<>();
+            for (int i = 0; i < updateCount; i++)
+                updates.add(LedgerResponseCodec.readUpdateAccount(in));
+            return new CommitMessage(validBlock, new AccountUpdateTree(updates), rootSignature);
+        }
+        Map<String, UpdateAccount> updates = new HashMap<>();
+        for (int i = 0; i < updateCount; i++)
+            updates.put(in.getString(), LedgerResponseCodec.readUpdateAccount(in));
+        return new CommitMessage(validBlock, updates);
+    }
+
+    public static DecidedBlock decode(ByteReader in) {
+        int consensusInstance = in.getInt();
+        int round = in.getInt();
+        boolean valid = in.getBoolean();
+        String block = in.getString();
+
+        int signerCount = in.getInt();
+        Map<String, CommitMessage> quorum = new HashMap<>();
+        for (int i = 0; i < signerCount; i++)
+            quorum.put(in.getString(), readCommit(in));
+
+        return new DecidedBlock(consensusInstance, round, valid, block, quorum);
+    }
+}
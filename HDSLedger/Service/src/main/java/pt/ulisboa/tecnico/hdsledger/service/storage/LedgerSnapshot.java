@@ -0,0 +1,98 @@
+package pt.ulisboa.tecnico.hdsledger.service.storage;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import pt.ulisboa.tecnico.hdsledger.communication.AccountId;
+import pt.ulisboa.tecnico.hdsledger.communication.MerkleProof;
+import pt.ulisboa.tecnico.hdsledger.communication.UpdateAccount;
+import pt.ulisboa.tecnico.hdsledger.communication.codec.ByteReader;
+import pt.ulisboa.tecnico.hdsledger.communication.codec.ByteWriter;
+import pt.ulisboa.tecnico.hdsledger.communication.codec.LedgerResponseCodec;
+
+/*
+ * State of the ledger right after a consensus instance was decided:
+ * the latest signed update of each account (which also holds its balance)
+ * and the accounts that were created
+ */
+public class LedgerSnapshot {
+
+    /*
+     * Account update and the signatures of the commit quorum that decided it
+     * (with Merkle attestation, of the root the proof leads to)
+     */
+    public record SignedUpdate(int consensusInstance, UpdateAccount update, Map<String, String> signatures,
+            MerkleProof proof) {
+    }
+
+    /*
+     * Created account, its state is the update of updateInstance
+     */
+    public record AccountState(String ownerId, AccountId accountId, int updateInstance) {
+    }
+
+    // Last consensus instance included
+    private final int consensusInstance;
+    // Created accounts
+    private final List<AccountState> accounts;
+    // Signed updates still needed to answer reads
+    private final List<SignedUpdate> updates;
+
+    public LedgerSnapshot(int consensusInstance, List<AccountState> accounts, List<SignedUpdate> updates) {
+        this.consensusInstance = consensusInstance;
+        this.accounts = accounts;
+        this.updates = updates;
+    }
+
+    public int getConsensusInstance() {
+        return consensusInstance;
+    }
+
+    public List<AccountState> getAccounts() {
+        return accounts;
+    }
+
+    public List<SignedUpdate> getUpdates() {
+        return updates;
+    }
+
+    public ByteBuffer encode() {
+        ByteWriter out = new ByteWriter();
+        out.putInt(consensusInstance);
+
+        out.putInt(accounts.size());
+        for (AccountState account : accounts) {
+            out.putString(account.ownerId());
+            out.putString(account.accountId().toString());
+            out.putInt(account.updateInstance());
+        }
+
+        out.putInt(updates.size());
+        for (SignedUpdate update : updates) {
+            out.putInt(update.consensusInstance());
+            LedgerResponseCodec.writeUpdateAccount(update.update(), out);
+            out.putStringMap(update.signatures());
+            LedgerResponseCodec.writeProof(update.proof(), out);
+        }
+        return out.asByteBuffer();
+    }
+
+    public static LedgerSnapshot decode(ByteReader in) {
+        int consensusInstance = in.getInt();
+
+        int accountCount = in.getInt();
+        List<AccountState> accounts = new ArrayList<>();
+        for (int i = 0; i < accountCount; i++)
+            accounts.add(new AccountState(in.getString(), AccountId.fromString(in.getString()), in.getInt()));
+
+        int updateCount = in.getInt();
+        List<SignedUpdate> updates = new ArrayList<>();
+        for (int i = 0; i < updateCount; i++)
+            updates.add(new SignedUpdate(in.getInt(), LedgerResponseCodec.readUpdateAccount(in), in.getStringMap(),
+                    LedgerResponseCodec.readProof(in)));
+
+        return new LedgerSnapshot(consensusInstance, accounts, updates);
+    }
+}
@@ -0,0 +1,103 @@
+package pt.ulisboa.tecnico.hdsledger.service.storage;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Optional;
+import java.util.stream.Stream;
+import java.util.zip.CRC32C;
+
+import pt.ulisboa.tecnico.hdsledger.communication.codec.ByteReader;
+import pt.ulisboa.tecnico.hdsledger.utilities.ErrorMessage;
+import pt.ulisboa.tecnico.hdsledger.utilities.LedgerException;
+
+/*
+ * Keeps the latest ledger snapshot on disk. A snapshot is written to a
+ * temporary file, forced and then atomically renamed, so a crash leaves
+ * either the previous snapshot or the new one.
+ * Layout: CRC32C of the payload (int) | payload
+ */
+public class SnapshotStore {
+
+    private static final String PREFIX = "snapshot-";
+    private static final String SUFFIX = ".snap";
+
+    // Directory holding the snapshots
+    private final Path directory;
+
+    public SnapshotStore(Path directory) throws IOException {
+        this.directory = Files.createDirectories(directory);
+    }
+
+    private static boolean isSnapshot(String name) {
+        return name.startsWith(PREFIX) && name.endsWith(SUFFIX);
+    }
+
+    private List<Path> list() throws IOException {
+        try (Stream<Path> files = Files.list(directory)) {
+            return files.filter(path -> isSnapshot(path.getFileName().toString()))
+                    .sorted(Comparator.reverseOrder()).toList();
+        }
+    }
+
+    private static int crc(ByteBuffer payload) {
+        CRC32C crc = new CRC32C();
+        crc.update(payload.duplicate());
+        return (int) crc.getValue();
+    }
+
+    /*
+     * Durably stores a snapshot and deletes the older ones
+     */
+    public void write(LedgerSnapshot snapshot) {
+        ByteBuffer payload = snapshot.encode();
+        Path path = directory.resolve(String.format("%s%010d%s", PREFIX, snapshot.getConsensusInstance(), SUFFIX));
+        Path temporary = directory.resolve(path.getFileName() + ".tmp");
+
+        try {
+            try (FileChannel channel = FileChannel.open(temporary, StandardOpenOption.CREATE,
+                    StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+                ByteBuffer header = ByteBuffer.allocate(Integer.BYTES).putInt(0, crc(payload));
+                channel.write(new ByteBuffer[] { header, payload });
+                channel.force(true);
+            }
+            Files.move(temporary, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+
+            for (Path older : list())
+                if (older.compareTo(path) < 0)
+                    Files.delete(older);
+        } catch (IOException e) {
+            throw new LedgerException(ErrorMessage.CannotWriteStorage);
+        }
+    }
+
+    /*
+     * @return The most recent snapshot that is intact, if any
+     */
+    public Optional<LedgerSnapshot> readLatest() {
+        try {
+            for (Path path : list()) {
+                ByteBuffer buffer = ByteBuffer.wrap(Files.readAllBytes(path));
+                if (buffer.remaining() < Integer.BYTES)
+                    continue;
+                int checksum = buffer.getInt();
+                if (checksum != crc(buffer))
+                    continue;
+                try {
+                    return Optional.of(LedgerSnapshot.decode(new ByteReader(buffer)));
+                } catch (LedgerException e) {
+                    // Fall back to an older snapshot
+                }
+            }
+            return Optional.empty();
+        } catch (IOException e) {
+            throw new LedgerException(ErrorMessage.CannotReadStorage);
+        }
+    }
+}
@@ -0,0 +1,138 @@
+package pt.ulisboa.tecnico.hdsledger.service.storage;
+
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.file.Path;
+import java.text.MessageFormat;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.logging.Level;
+
+import pt.ulisboa.tecnico.hdsledger.communication.codec.ByteReader;
+import pt.ulisboa.tecnico.hdsledger.utilities.CustomLogger;
+import pt.ulisboa.tecnico.hdsledger.utilities.ErrorMessage;
+import pt.ulisboa.tecnico.hdsledger.utilities.LedgerException;
+
+/*
+ * Durable state of a node: the log of decided blocks and the latest ledger
+ * snapshot. Appending only writes to memory, a single background thread
+ * forces the log to disk, covering every record appended since its previous
+ * pass (group commit), and writes the snapshots.
+ */
+public class Storage {
+
+    private static final CustomLogger LOGGER = new CustomLogger(Storage.class.getName());
+    // Size of a log segment (bytes)
+    private static final int SEGMENT_SIZE = 16 * 1024 * 1024;
+
+    /*
+     * State found on disk: the latest snapshot (if any) and the decided blocks after it
+     */
+    public record Recovery(Optional<LedgerSnapshot> snapshot, List<DecidedBlock> blocks) {
+    }
+
+    // Decided blocks
+    private final BlockLog log;
+    // Ledger snapshots
+    private final SnapshotStore snapshots;
+    // Forces the log and writes snapshots, in submission order
+    private final ExecutorService syncer = Executors.newSingleThreadExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "storage-sync");
+        thread.setDaemon(true);
+        return thread;
+    });
+    // Completed once the records appended so far are durable
+    private List<CompletableFuture<Void>> waiting = new ArrayList<>();
+    // A sync pass is queued and has not collected the waiting records yet
+    private boolean syncQueued = false;
+
+    public Storage(Path directory) {
+        try {
+            this.log = new BlockLog(directory.resolve("log"), SEGMENT_SIZE);
+            this.snapshots = new SnapshotStore(directory.resolve("snapshots"));
+        } catch (IOException e) {
+            throw new LedgerException(ErrorMessage.CannotReadStorage);
+        }
+    }
+
+    /*
+     * Loads the latest snapshot and the decided blocks that follow it
+     * (up to the first missing instance)
+     */
+    public synchronized Recovery recover() {
+        Optional<LedgerSnapshot> snapshot = this.snapshots.readLatest();
+        int last = snapshot.map(LedgerSnapshot::getConsensusInstance).orElse(0);
+
+        List<DecidedBlock> blocks = new ArrayList<>();
+        int[] next = { last + 1 };
+        this.log.replay(last, (payload, instance) -> {
+            if (instance != next[0])
+                return;
+            try {
+                blocks.add(DecidedBlock.decode(new ByteReader(payload)));
+                next[0]++;
+            } catch (LedgerException e) {
+                LOGGER.log(Level.INFO, MessageFormat.format("Cannot decode decided block {0}", instance));
+            }
+        });
+        return new Recovery(snapshot, blocks);
+    }
+
+    /*
+     * Appends a decided block to the log
+     *
+     * @return Completed once the block is durable
+     */
+    public synchronized CompletableFuture<Void> append(DecidedBlock block) {
+        this.log.append(block.getConsensusInstance(), block.encode());
+
+        CompletableFuture<Void> durable = new CompletableFuture<>();
+        this.waiting.add(durable);
+        if (!this.syncQueued) {
+            this.syncQueued = true;
+            this.syncer.execute(this::sync);
+        }
+        return durable;
+    }
+
+    private void sync() {
+        List<CompletableFuture<Void>> done;
+        List<MappedByteBuffer> dirty;
+        synchronized (this) {
+            done = this.waiting;
+            this.waiting = new ArrayList<>();
+            this.syncQueued = false;
+            dirty = this.log.takeDirty();
+        }
+
+        // Appends go on while the segments are forced
+        try {
+            dirty.forEach(MappedByteBuffer::force);
+            done.forEach(future -> future.complete(null));
+        } catch (RuntimeException e) {
+            done.forEach(future -> future.completeExceptionally(e));
+        }
+    }
+
+    /*
+     * Writes a snapshot once the blocks appended before it are durable,
+     * then drops the log segments it covers
+     */
+    public void snapshot(LedgerSnapshot snapshot) {
+        this.syncer.execute(() -> {
+            try {
+                this.snapshots.write(snapshot);
+                synchronized (this) {
+                    this.log.truncateUpTo(snapshot.getConsensusInstance());
+                }
+            } catch (LedgerException e) {
+                LOGGER.log(Level.INFO, MessageFormat.format("Cannot write snapshot of instance {0}: {1}",
+                        snapshot.getConsensusInstance(), e.getMessage()));
+            }
+        });
+    }
+}
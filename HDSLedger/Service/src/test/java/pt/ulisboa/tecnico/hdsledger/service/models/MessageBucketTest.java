@@ -0,0 +1,75 @@
+package pt.ulisboa.tecnico.hdsledger.service.models;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+
+import pt.ulisboa.tecnico.hdsledger.communication.ConsensusMessage;
+import pt.ulisboa.tecnico.hdsledger.communication.Message;
+import pt.ulisboa.tecnico.hdsledger.communication.builder.ConsensusMessageBuilder;
+
+public class MessageBucketTest {
+
+    // Four nodes tolerate one fault, so the quorum is three
+    private static final int NODE_COUNT = 4;
+
+    private static ConsensusMessage commit(String senderId, int instance) {
+        return new ConsensusMessageBuilder(senderId, Message.Type.COMMIT)
+                .setConsensusInstance(instance)
+                .setRound(1)
+                .build();
+    }
+
+    @Test
+    public void secondDifferentVoteDoesNotCount() {
+        MessageBucket bucket = new MessageBucket(NODE_COUNT);
+        ConsensusMessage first = commit("1", 1);
+
+        assertTrue(bucket.addMessage(first, "A"));
+        assertTrue(bucket.addMessage(commit("2", 1), "A"));
+        assertFalse(bucket.addMessage(commit("1", 1), "B"));
+        assertTrue(bucket.addMessage(commit("3", 1), "B"));
+
+        assertTrue(bucket.addMessage(commit("4", 1), "B"));
+
+        // Three nodes sent "B", but node 1 only counts for its first value
+        assertTrue(bucket.hasValidCommitQuorum("1", 1, 1).isEmpty());
+        assertEquals(first, bucket.getMessages(1, 1).get("1"));
+    }
+
+    @Test
+    public void repeatedVoteCountsOnce() {
+        MessageBucket bucket = new MessageBucket(NODE_COUNT);
+
+        assertTrue(bucket.addMessage(commit("1", 1), "A"));
+        assertTrue(bucket.addMessage(commit("1", 1), "A"));
+        assertTrue(bucket.addMessage(commit("2", 1), "A"));
+        assertTrue(bucket.hasValidCommitQuorum("1", 1, 1).isEmpty());
+
+        assertTrue(bucket.addMessage(commit("3", 1), "A"));
+        List<ConsensusMessage> quorum = bucket.hasValidCommitQuorum("1", 1, 1).orElseThrow();
+        assertEquals(3, quorum.size());
+    }
+
+    @Test
+    public void lateMessageDoesNotRecreatePrunedTally() {
+        MessageBucket bucket = new MessageBucket(NODE_COUNT);
+        bucket.addMessage(commit("1", 1), "A");
+        bucket.addMessage(commit("1", 2), "A");
+
+        bucket.prune(1);
+        assertTrue(bucket.getMessages(1, 1).isEmpty());
+
+        assertFalse(bucket.addMessage(commit("2", 1), "A"));
+        assertTrue(bucket.getMessages(1, 1).isEmpty());
+        assertTrue(bucket.hasValidCommitQuorum("1", 1, 1).isEmpty());
+
+        // Instances after the watermark are kept
+        assertEquals(1, bucket.getMessages(2, 1).size());
+        assertTrue(bucket.addMessage(commit("2", 2), "A"));
+    }
+}
@@ -0,0 +1,69 @@
+package pt.ulisboa.tecnico.hdsledger.service.services;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTimeoutPreemptively;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.jupiter.api.Test;
+
+public class ConsensusPipelineTest {
+
+    private static final long TIMEOUT = 5;
+
+    @Test
+    public void actionsRunInInstanceOrder() {
+        ConsensusPipeline pipeline = new ConsensusPipeline(4);
+        List<String> ran = new ArrayList<>();
+
+        pipeline.decided(1, () -> ran.add("decide 1"));
+        pipeline.prepared(2, () -> ran.add("prepare 2"));
+        pipeline.decided(2, () -> ran.add("decide 2"));
+        pipeline.prepared(1, () -> ran.add("prepare 1"));
+
+        assertEquals(List.of("prepare 1", "prepare 2", "decide 1", "decide 2"), ran);
+        assertEquals(2, pipeline.getLastDecided());
+    }
+
+    @Test
+    public void slowActionDoesNotHoldThePipeline() throws InterruptedException {
+        ConsensusPipeline pipeline = new ConsensusPipeline(1);
+        List<Integer> decided = Collections.synchronizedList(new ArrayList<>());
+        CountDownLatch running = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+
+        pipeline.prepared(1, () -> {});
+        pipeline.prepared(2, () -> {});
+        Thread slow = new Thread(() -> pipeline.decided(1, () -> {
+            running.countDown();
+            try {
+                release.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            decided.add(1);
+        }));
+        slow.start();
+        assertTrue(running.await(TIMEOUT, TimeUnit.SECONDS));
+
+        // Queued behind the running action, without waiting for it
+        assertTimeoutPreemptively(Duration.ofSeconds(TIMEOUT), () -> {
+            pipeline.decided(2, () -> decided.add(2));
+            assertEquals(0, pipeline.getLastDecided());
+        });
+        assertTrue(decided.isEmpty());
+
+        // The draining thread runs the queued action once the slow one is done
+        release.countDown();
+        pipeline.awaitSlot(3);
+        slow.join(TimeUnit.SECONDS.toMillis(TIMEOUT));
+        assertEquals(List.of(1, 2), decided);
+        assertEquals(2, pipeline.getLastDecided());
+    }
+}
@@ -0,0 +1,149 @@
+package pt.ulisboa.tecnico.hdsledger.service.services;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.IntStream;
+
+import org.junit.jupiter.api.Test;
+
+public class DispatcherTest {
+
+    private static final long TIMEOUT = 5;
+
+    @Test
+    public void sameKeyRunsInOrder() throws InterruptedException {
+        Dispatcher<Integer> dispatcher = new Dispatcher<>("test", 4, 1000, 1000);
+        List<Integer> ran = Collections.synchronizedList(new ArrayList<>());
+        CountDownLatch done = new CountDownLatch(100);
+
+        for (int i = 0; i < 100; i++) {
+            int task = i;
+            dispatcher.submit(1, () -> {
+                ran.add(task);
+                done.countDown();
+            });
+        }
+
+        assertTrue(done.await(TIMEOUT, TimeUnit.SECONDS));
+        assertEquals(IntStream.range(0, 100).boxed().toList(), ran);
+    }
+
+    @Test
+    public void differentKeysRunInParallel() throws InterruptedException {
+        Dispatcher<Integer> dispatcher = new Dispatcher<>("test", 2, 10, 10);
+        // Each task waits for the other one, so they only finish if they run together
+        CountDownLatch running = new CountDownLatch(2);
+        CountDownLatch done = new CountDownLatch(2);
+        Runnable task = () -> {
+            running.countDown();
+            try {
+                if (running.await(TIMEOUT, TimeUnit.SECONDS))
+                    done.countDown();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        };
+
+        dispatcher.submit(1, task);
+        dispatcher.submit(2, task);
+
+        assertTrue(done.await(TIMEOUT, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void fullLaneBlocksInsteadOfDropping() throws InterruptedException {
+        Dispatcher<Integer> dispatcher = new Dispatcher<>("test", 1, 2, 100);
+        List<Integer> ran = Collections.synchronizedList(new ArrayList<>());
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch gate = new CountDownLatch(1);
+        CountDownLatch done = new CountDownLatch(4);
+
+        dispatcher.submit(1, () -> {
+            started.countDown();
+            try {
+                gate.await(TIMEOUT, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            ran.add(0);
+            done.countDown();
+        });
+        assertTrue(started.await(TIMEOUT, TimeUnit.SECONDS));
+
+        // The running task left the lane, two more fill it
+        for (int i = 1; i <= 2; i++) {
+            int task = i;
+            dispatcher.submit(1, () -> {
+                ran.add(task);
+                done.countDown();
+            });
+        }
+
+        CountDownLatch submitted = new CountDownLatch(1);
+        Thread submitter = new Thread(() -> {
+            try {
+                dispatcher.submit(1, () -> {
+                    ran.add(3);
+                    done.countDown();
+                });
+                submitted.countDown();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        });
+        submitter.start();
+
+        assertFalse(submitted.await(200, TimeUnit.MILLISECONDS));
+        assertEquals(1, dispatcher.getBlockedCount());
+
+        gate.countDown();
+        assertTrue(submitted.await(TIMEOUT, TimeUnit.SECONDS));
+        assertTrue(done.await(TIMEOUT, TimeUnit.SECONDS));
+        assertEquals(List.of(0, 1, 2, 3), ran);
+    }
+
+    @Test
+    public void fullDispatcherBlocksInsteadOfDropping() throws InterruptedException {
+        Dispatcher<Integer> dispatcher = new Dispatcher<>("test", 1, 10, 1);
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch gate = new CountDownLatch(1);
+        CountDownLatch done = new CountDownLatch(3);
+
+        dispatcher.submit(1, () -> {
+            started.countDown();
+            try {
+                gate.await(TIMEOUT, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            done.countDown();
+        });
+        assertTrue(started.await(TIMEOUT, TimeUnit.SECONDS));
+        dispatcher.submit(2, done::countDown);
+
+        // Another key, but the dispatcher is full
+        CountDownLatch submitted = new CountDownLatch(1);
+        new Thread(() -> {
+            try {
+                dispatcher.submit(3, done::countDown);
+                submitted.countDown();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }).start();
+
+        assertFalse(submitted.await(200, TimeUnit.MILLISECONDS));
+
+        gate.countDown();
+        assertTrue(submitted.await(TIMEOUT, TimeUnit.SECONDS));
+        assertTrue(done.await(TIMEOUT, TimeUnit.SECONDS));
+        assertEquals(0, dispatcher.getPendingCount());
+    }
+}
@@ -0,0 +1,105 @@
+package pt.ulisboa.tecnico.hdsledger.service.storage;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.Stream;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+public class BlockLogTest {
+
+    private static final int SEGMENT_SIZE = 1024;
+    // length + instance + crc
+    private static final int HEADER_SIZE = 12;
+
+    @TempDir
+    Path directory;
+
+    private static ByteBuffer payload(int instance) {
+        return ByteBuffer.wrap(("block " + instance).getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static List<String> replay(BlockLog log, int afterInstance) {
+        List<String> records = new ArrayList<>();
+        log.replay(afterInstance, (payload, instance) -> {
+            byte[] bytes = new byte[payload.remaining()];
+            payload.get(bytes);
+            records.add(instance + ":" + new String(bytes, StandardCharsets.UTF_8));
+        });
+        return records;
+    }
+
+    private List<Path> segments() throws IOException {
+        try (Stream<Path> files = Files.list(directory)) {
+            return files.sorted().toList();
+        }
+    }
+
+    private static void write(Path segment, int position, int value) throws IOException {
+        try (FileChannel channel = FileChannel.open(segment, StandardOpenOption.WRITE)) {
+            channel.write(ByteBuffer.allocate(Integer.BYTES).putInt(0, value), position);
+        }
+    }
+
+    private static int recordSize(int instance) {
+        return HEADER_SIZE + payload(instance).remaining();
+    }
+
+    @Test
+    public void replaysRecordsAfterReopening() throws IOException {
+        BlockLog log = new BlockLog(directory, SEGMENT_SIZE);
+        for (int i = 1; i <= 3; i++)
+            log.append(i, payload(i));
+
+        BlockLog reopened = new BlockLog(directory, SEGMENT_SIZE);
+        assertEquals(3, reopened.getLastInstance());
+        assertEquals(List.of("1:block 1", "2:block 2", "3:block 3"), replay(reopened, 0));
+        assertEquals(List.of("3:block 3"), replay(reopened, 2));
+    }
+
+    @Test
+    public void tornTailIsDropped() throws IOException {
+        BlockLog log = new BlockLog(directory, SEGMENT_SIZE);
+        for (int i = 1; i <= 3; i++)
+            log.append(i, payload(i));
+
+        // The length of the last record claims more bytes than the segment holds
+        write(segments().get(0), recordSize(1) + recordSize(2), SEGMENT_SIZE);
+
+        BlockLog reopened = new BlockLog(directory, SEGMENT_SIZE);
+        assertEquals(2, reopened.getLastInstance());
+        assertEquals(List.of("1:block 1", "2:block 2"), replay(reopened, 0));
+
+        // Appending goes on where the valid records end
+        reopened.append(3, payload(3));
+        assertEquals(List.of("1:block 1", "2:block 2", "3:block 3"), replay(new BlockLog(directory, SEGMENT_SIZE), 0));
+    }
+
+    @Test
+    public void corruptedRecordDropsEverythingAfterIt() throws IOException {
+        // One record per segment
+        BlockLog log = new BlockLog(directory, recordSize(1) + Integer.BYTES);
+        for (int i = 1; i <= 3; i++)
+            log.append(i, payload(i));
+        assertEquals(3, segments().size());
+
+        // Wrong checksum in the second segment
+        write(segments().get(1), 8, 0xdeadbeef);
+
+        BlockLog reopened = new BlockLog(directory, SEGMENT_SIZE);
+        assertEquals(1, reopened.getLastInstance());
+        assertEquals(List.of("1:block 1"), replay(reopened, 0));
+        // The segment after the gap is deleted
+        assertEquals(2, segments().size());
+    }
+}
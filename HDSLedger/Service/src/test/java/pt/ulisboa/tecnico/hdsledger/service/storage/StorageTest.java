@@ -0,0 +1,65 @@
+package pt.ulisboa.tecnico.hdsledger.service.storage;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+public class StorageTest {
+
+    private static final long TIMEOUT = 5;
+
+    @TempDir
+    Path directory;
+
+    private static DecidedBlock block(int instance) {
+        return new DecidedBlock(instance, 1, true, "{\"instance\":" + instance + "}", Map.of());
+    }
+
+    private static List<Integer> instances(Storage.Recovery recovery) {
+        return recovery.blocks().stream().map(DecidedBlock::getConsensusInstance).toList();
+    }
+
+    @Test
+    public void recoversBlocksWithoutSnapshot() throws Exception {
+        Storage storage = new Storage(directory);
+        storage.append(block(1));
+        storage.append(block(2)).get(TIMEOUT, TimeUnit.SECONDS);
+
+        Storage.Recovery recovery = new Storage(directory).recover();
+        assertTrue(recovery.snapshot().isEmpty());
+        assertEquals(List.of(1, 2), instances(recovery));
+        assertEquals("{\"instance\":2}", recovery.blocks().get(1).getBlock());
+    }
+
+    @Test
+    public void recoversSnapshotAndBlocksAfterIt() throws Exception {
+        Storage storage = new Storage(directory);
+        storage.append(block(1));
+        storage.append(block(2));
+        storage.append(block(3)).get(TIMEOUT, TimeUnit.SECONDS);
+        storage.snapshot(new LedgerSnapshot(3, List.of(), List.of()));
+        // Synced after the snapshot was written (a single thread does both)
+        storage.append(block(4)).get(TIMEOUT, TimeUnit.SECONDS);
+
+        Storage.Recovery recovery = new Storage(directory).recover();
+        assertEquals(3, recovery.snapshot().orElseThrow().getConsensusInstance());
+        assertEquals(List.of(4), instances(recovery));
+    }
+
+    @Test
+    public void recoveryStopsAtMissingInstance() throws Exception {
+        Storage storage = new Storage(directory);
+        storage.append(block(1));
+        storage.append(block(2));
+        storage.append(block(4)).get(TIMEOUT, TimeUnit.SECONDS);
+
+        assertEquals(List.of(1, 2), instances(new Storage(directory).recover()));
+    }
+}
@@ -11,13 +11,26 @@ public class CollapsingSet implements Set<Integer> {
 
     private final Set<Integer> set;
     private int floor = -1;
+    // Maximum distance between the floor and an element that can be added,
+    // elements further ahead are refused until the floor catches up (so the
+    // set stays bounded and nothing missing is ever counted as added)
+    private final int window;
 
     public CollapsingSet() {
-        this.set = new HashSet<>();
+        this(new HashSet<>());
+    }
+
+    public CollapsingSet(int window) {
+        this(new HashSet<>(), window);
     }
 
     public CollapsingSet(Set<Integer> s) {
+        this(s, Integer.MAX_VALUE);
+    }
+
+    public CollapsingSet(Set<Integer> s, int window) {
         this.set = s;
+        this.window = window;
     }
 
     @Override
@@ -42,11 +55,33 @@ public class CollapsingSet implements Set<Integer> {
         }
     }
 
+    /*
+     * @return Greatest element up to which every element was added (-1 if none)
+     */
+    public int getFloor() {
+        synchronized (this.set) {
+            return this.floor;
+        }
+    }
+
+    /*
+     * @return False if the element is too far ahead of the floor to be added
+     */
+    public boolean accepts(int element) {
+        synchronized (this.set) {
+            return this.unsafeAccepts(element);
+        }
+    }
+
     private boolean unsafeContains(Object o) {
         if (!(o instanceof Integer i)) return false;
         return i <= this.floor || this.set.contains(i);
     }
 
+    private boolean unsafeAccepts(int element) {
+        return (long) element - this.floor <= this.window;
+    }
+
     private Set<Integer> getFullSet() {
         // inefficient
         synchronized (this.set) {
@@ -77,6 +112,8 @@ public class CollapsingSet implements Set<Integer> {
     public boolean add(Integer integer) {
         synchronized (this.set) {
             if (this.unsafeContains(integer)) return false;
+            // Not added, see accepts
+            if (!this.unsafeAccepts(integer)) return false;
             if (integer == (floor + 1)) {
                 int newFloor = integer;
                 boolean removeReturn = true;
@@ -87,7 +124,8 @@ public class CollapsingSet implements Set<Integer> {
                 }
                 // should probably check the return value of the remove in the while
                 return removeReturn;
-            } else return this.set.add(integer);
+            }
+            return this.set.add(integer);
         }
     }
 
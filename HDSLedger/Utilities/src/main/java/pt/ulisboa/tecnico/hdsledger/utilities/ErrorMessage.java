@@ -13,8 +13,14 @@ public enum ErrorMessage {
     CannotParseMessage("Error while parsing received message"),
     InvalidAccount("Invalid account id"),
     FailedToReadPublicKey("Error while reading public key"),
+    FailedToReadPrivateKey("Error while reading private key"),
     NoLeader("Error while getting leader"),
-    InvalidResponse("Invalid response to client request");
+    InvalidResponse("Invalid response to client request"),
+    CannotWriteStorage("Error while writing to the node storage"),
+    CannotReadStorage("Error while reading the node storage"),
+    CannotAuthenticateMessage("Error while authenticating message"),
+    CannotEstablishSession("Error while establishing a session"),
+    MessageTooLarge("The message is too large to be sent");
 
     private final String message;
 
@@ -0,0 +1,109 @@
+package pt.ulisboa.tecnico.hdsledger.utilities;
+
+import java.nio.ByteBuffer;
+import java.security.GeneralSecurityException;
+import java.security.PrivateKey;
+import java.security.PublicKey;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+
+/*
+ * Key material of every known process, loaded once at startup.
+ * Signing and verification go through the cached keys, so the
+ * message path never touches the key files again. Each process signs
+ * with the scheme declared in its configuration.
+ */
+public class KeyRing {
+
+    // Process id -> public key
+    private final Map<String, PublicKey> publicKeys = new ConcurrentHashMap<>();
+    // Public key -> process id (reverse lookup)
+    private final Map<PublicKey, String> owners = new ConcurrentHashMap<>();
+    // Process id -> signature scheme
+    private final Map<String, SignatureScheme> schemes = new ConcurrentHashMap<>();
+    // Process that owns this key ring
+    private final ProcessConfig self;
+    // Private key of the owner
+    private final PrivateKey privateKey;
+
+    /*
+     * @param self Configuration of the process that owns the key ring
+     *
+     * @param configs Groups of processes whose public keys should be known
+     */
+    public KeyRing(ProcessConfig self, ProcessConfig[]... configs) {
+        this.self = self;
+
+        try {
+            this.privateKey = self.getSignatureScheme().readPrivateKey(self.getPrivateKeyPath());
+        } catch (Exception e) {
+            throw new LedgerException(ErrorMessage.FailedToReadPrivateKey);
+        }
+
+        load(self);
+        for (ProcessConfig[] group : configs)
+            for (ProcessConfig config : group)
+                load(config);
+    }
+
+    private void load(ProcessConfig config) {
+        if (publicKeys.containsKey(config.getId()))
+            return;
+
+        PublicKey publicKey;
+        try {
+            publicKey = config.getSignatureScheme().readPublicKey(config.getPublicKeyPath());
+        } catch (Exception e) {
+            throw new LedgerException(ErrorMessage.FailedToReadPublicKey);
+        }
+        publicKeys.put(config.getId(), publicKey);
+        schemes.put(config.getId(), config.getSignatureScheme());
+        owners.putIfAbsent(publicKey, config.getId());
+    }
+
+    public PrivateKey getPrivateKey() {
+        return privateKey;
+    }
+
+    public PublicKey getOwnPublicKey() {
+        return publicKeys.get(self.getId());
+    }
+
+    /*
+     * @return The public key of the process or null if it is unknown
+     */
+    public PublicKey getPublicKey(String processId) {
+        return publicKeys.get(processId);
+    }
+
+    public Optional<String> findIdByPublicKey(PublicKey publicKey) {
+        return Optional.ofNullable(owners.get(publicKey));
+    }
+
+    /*
+     * Signs data with the private key of the owner
+     */
+    public String sign(String data) throws GeneralSecurityException {
+        return self.getSignatureScheme().sign(data, privateKey);
+    }
+
+    /*
+     * Verifies a signature made by a given process
+     *
+     * @return False if the signature is invalid or the signer is unknown
+     */
+    public boolean verifySignature(String data, String signature, String signerId) {
+        SignatureScheme scheme = schemes.get(signerId);
+        return scheme != null && scheme.verify(data, signature, publicKeys.get(signerId));
+    }
+
+    public byte[] sign(ByteBuffer data) throws GeneralSecurityException {
+        return self.getSignatureScheme().sign(data, privateKey);
+    }
+
+    public boolean verifySignature(ByteBuffer data, byte[] signature, String signerId) {
+        SignatureScheme scheme = schemes.get(signerId);
+        return scheme != null && scheme.verify(data, signature, publicKeys.get(signerId));
+    }
+}
@@ -0,0 +1,112 @@
+package pt.ulisboa.tecnico.hdsledger.utilities;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+/*
+ * Binary Merkle tree (SHA-256) over a list of leaves. Leaves and inner nodes
+ * are hashed with different prefixes, so a leaf cannot pass for a subtree, and
+ * the last node of a level without a sibling is promoted as is.
+ */
+public class MerkleTree {
+
+    private static final byte LEAF = 0;
+    private static final byte NODE = 1;
+
+    // Levels of the tree, from the leaf hashes up to the root
+    private final List<byte[][]> levels = new ArrayList<>();
+
+    public MerkleTree(List<byte[]> leaves) {
+        byte[][] level = new byte[leaves.size()][];
+        for (int i = 0; i < level.length; i++)
+            level[i] = hash(LEAF, leaves.get(i), null);
+        levels.add(level);
+
+        while (level.length > 1) {
+            byte[][] parent = new byte[(level.length + 1) / 2][];
+            for (int i = 0; i < parent.length; i++)
+                parent[i] = 2 * i + 1 < level.length ? hash(NODE, level[2 * i], level[2 * i + 1]) : level[2 * i];
+            levels.add(parent);
+            level = parent;
+        }
+    }
+
+    /*
+     * @return Number of leaves
+     */
+    public int size() {
+        return levels.get(0).length;
+    }
+
+    /*
+     * @return Root hash (the hash of no data for an empty tree)
+     */
+    public byte[] getRoot() {
+        byte[][] top = levels.get(levels.size() - 1);
+        return top.length == 0 ? RSAEncryption.digest(ByteBuffer.allocate(0)) : top[0].clone();
+    }
+
+    /*
+     * @param index Position of the leaf
+     *
+     * @return Hashes of the siblings on the path from the leaf to the root
+     */
+    public List<byte[]> getProof(int index) {
+        if (index < 0 || index >= size())
+            throw new IndexOutOfBoundsException(index);
+
+        List<byte[]> proof = new ArrayList<>();
+        int position = index;
+        for (int i = 0; i < levels.size() - 1; i++) {
+            byte[][] level = levels.get(i);
+            int sibling = position ^ 1;
+            if (sibling < level.length)
+                proof.add(level[sibling].clone());
+            position /= 2;
+        }
+        return proof;
+    }
+
+    /*
+     * Recomputes the root of a tree from one of its leaves and its proof
+     *
+     * @param leaf Leaf data
+     *
+     * @param index Position of the leaf
+     *
+     * @param size Number of leaves of the tree
+     *
+     * @param proof Hashes of the siblings (see getProof)
+     *
+     * @return Root hash or null if the proof does not fit a tree of that size
+     */
+    public static byte[] computeRoot(byte[] leaf, int index, int size, List<byte[]> proof) {
+        if (leaf == null || proof == null || index < 0 || index >= size)
+            return null;
+
+        byte[] hash = hash(LEAF, leaf, null);
+        int position = index;
+        int width = size;
+        int next = 0;
+        while (width > 1) {
+            if ((position ^ 1) < width) {
+                if (next == proof.size() || proof.get(next) == null)
+                    return null;
+                byte[] sibling = proof.get(next++);
+                hash = (position & 1) == 0 ? hash(NODE, hash, sibling) : hash(NODE, sibling, hash);
+            }
+            position /= 2;
+            width = (width + 1) / 2;
+        }
+        return next == proof.size() ? hash : null;
+    }
+
+    private static byte[] hash(byte prefix, byte[] left, byte[] right) {
+        ByteBuffer buffer = ByteBuffer.allocate(1 + left.length + (right == null ? 0 : right.length));
+        buffer.put(prefix).put(left);
+        if (right != null)
+            buffer.put(right);
+        return RSAEncryption.digest(buffer.flip());
+    }
+}
@@ -18,6 +18,64 @@ public class ProcessConfig {
 
     private ByzantineBehavior byzantineBehavior = ByzantineBehavior.NONE;
 
+    // Maximum number of undecided consensus instances in flight
+    private int pipelineDepth = 1;
+
+    // Number of decided consensus instances whose state is kept
+    private int retentionWindow = 64;
+
+    // Maximum time a request waits for a block (ms)
+    private long batchMaxWait = 500;
+
+    // Maximum serialized size of the requests of a block (bytes)
+    private long batchByteBudget = 32 * 1024;
+
+    // Maximum number of requests in the mempool
+    private int mempoolCapacity = 4096;
+
+    // Maximum number of requests of a single client in the mempool
+    private int mempoolClientCapacity = 256;
+
+    // Directory of the block log and snapshots (nothing is persisted if null)
+    private String storagePath;
+
+    // Number of decided consensus instances between ledger snapshots
+    private int snapshotInterval = 64;
+
+    // Number of threads decoding (and verifying) the datagrams received by each link
+    private int decodeThreads = 1;
+
+    // Time outbound messages wait to be packed with others to the same peer (ms)
+    private long flushWindow = 2;
+
+    // Age after which the session keys of a link are replaced (ms)
+    private long sessionRekeyInterval = 10 * 60 * 1000;
+
+    // Bounds of the retransmission timeout estimated for each peer (ms)
+    private long minRetransmissionTimeout = 100;
+    private long maxRetransmissionTimeout = 60 * 1000;
+
+    // Fraction of the retransmission timeout randomly added to it
+    private double retransmissionJitter = 0.1;
+
+    // Number of threads handling the messages received by each service
+    private int dispatchThreads = 4;
+
+    // Maximum number of messages waiting per consensus instance (or per client)
+    private int dispatchQueueDepth = 1024;
+
+    // Maximum number of messages waiting in each service
+    private int dispatchCapacity = 16 * 1024;
+
+    // Algorithm of the keys of the process (and of its signatures)
+    private SignatureScheme signatureScheme = SignatureScheme.SHA256_WITH_RSA;
+
+    // Number of verified signatures a node remembers
+    private int signatureCacheCapacity = 64 * 1024;
+
+    // Sign the Merkle root of the account updates of each instance instead of every update
+    private boolean merkleAttestation = false;
+
     public enum ByzantineBehavior {
         NONE("NONE"),
         PASSIVE("PASSIVE"),
@@ -98,4 +156,164 @@ public class ProcessConfig {
         return byzantineBehavior;
     }
 
+    public int getPipelineDepth() {
+        return Math.max(1, pipelineDepth);
+    }
+
+    protected void setPipelineDepth(int pipelineDepth) {
+        this.pipelineDepth = pipelineDepth;
+    }
+
+    public int getRetentionWindow() {
+        return Math.max(1, retentionWindow);
+    }
+
+    protected void setRetentionWindow(int retentionWindow) {
+        this.retentionWindow = retentionWindow;
+    }
+
+    public long getBatchMaxWait() {
+        return batchMaxWait;
+    }
+
+    protected void setBatchMaxWait(long batchMaxWait) {
+        this.batchMaxWait = batchMaxWait;
+    }
+
+    public long getBatchByteBudget() {
+        return batchByteBudget;
+    }
+
+    protected void setBatchByteBudget(long batchByteBudget) {
+        this.batchByteBudget = batchByteBudget;
+    }
+
+    public int getMempoolCapacity() {
+        return Math.max(1, mempoolCapacity);
+    }
+
+    protected void setMempoolCapacity(int mempoolCapacity) {
+        this.mempoolCapacity = mempoolCapacity;
+    }
+
+    public int getMempoolClientCapacity() {
+        return Math.max(1, mempoolClientCapacity);
+    }
+
+    protected void setMempoolClientCapacity(int mempoolClientCapacity) {
+        this.mempoolClientCapacity = mempoolClientCapacity;
+    }
+
+    public String getStoragePath() {
+        return storagePath;
+    }
+
+    protected void setStoragePath(String storagePath) {
+        this.storagePath = storagePath;
+    }
+
+    public int getSnapshotInterval() {
+        return Math.max(1, snapshotInterval);
+    }
+
+    protected void setSnapshotInterval(int snapshotInterval) {
+        this.snapshotInterval = snapshotInterval;
+    }
+
+    public int getDecodeThreads() {
+        return Math.max(1, decodeThreads);
+    }
+
+    protected void setDecodeThreads(int decodeThreads) {
+        this.decodeThreads = decodeThreads;
+    }
+
+    public long getFlushWindow() {
+        return Math.max(0, flushWindow);
+    }
+
+    protected void setFlushWindow(long flushWindow) {
+        this.flushWindow = flushWindow;
+    }
+
+    public long getSessionRekeyInterval() {
+        return Math.max(1, sessionRekeyInterval);
+    }
+
+    protected void setSessionRekeyInterval(long sessionRekeyInterval) {
+        this.sessionRekeyInterval = sessionRekeyInterval;
+    }
+
+    public long getMinRetransmissionTimeout() {
+        return Math.max(1, minRetransmissionTimeout);
+    }
+
+    protected void setMinRetransmissionTimeout(long minRetransmissionTimeout) {
+        this.minRetransmissionTimeout = minRetransmissionTimeout;
+    }
+
+    public long getMaxRetransmissionTimeout() {
+        return Math.max(getMinRetransmissionTimeout(), maxRetransmissionTimeout);
+    }
+
+    protected void setMaxRetransmissionTimeout(long maxRetransmissionTimeout) {
+        this.maxRetransmissionTimeout = maxRetransmissionTimeout;
+    }
+
+    public double getRetransmissionJitter() {
+        return Math.min(1, Math.max(0, retransmissionJitter));
+    }
+
+    protected void setRetransmissionJitter(double retransmissionJitter) {
+        this.retransmissionJitter = retransmissionJitter;
+    }
+
+    public int getDispatchThreads() {
+        return Math.max(1, dispatchThreads);
+    }
+
+    protected void setDispatchThreads(int dispatchThreads) {
+        this.dispatchThreads = dispatchThreads;
+    }
+
+    public int getDispatchQueueDepth() {
+        return Math.max(1, dispatchQueueDepth);
+    }
+
+    protected void setDispatchQueueDepth(int dispatchQueueDepth) {
+        this.dispatchQueueDepth = dispatchQueueDepth;
+    }
+
+    public int getDispatchCapacity() {
+        return Math.max(getDispatchQueueDepth(), dispatchCapacity);
+    }
+
+    protected void setDispatchCapacity(int dispatchCapacity) {
+        this.dispatchCapacity = dispatchCapacity;
+    }
+
+    public SignatureScheme getSignatureScheme() {
+        return signatureScheme == null ? SignatureScheme.SHA256_WITH_RSA : signatureScheme;
+    }
+
+    protected void setSignatureScheme(SignatureScheme signatureScheme) {
+        this.signatureScheme = signatureScheme;
+    }
+
+    public int getSignatureCacheCapacity() {
+        return Math.max(1, signatureCacheCapacity);
+    }
+
+    protected void setSignatureCacheCapacity(int signatureCacheCapacity) {
+        this.signatureCacheCapacity = signatureCacheCapacity;
+    }
+
+    public boolean isMerkleAttestation() {
+        return merkleAttestation;
+    }
+
+    protected void setMerkleAttestation(boolean merkleAttestation) {
+        this.merkleAttestation = merkleAttestation;
+    }
+
 }
@@ -38,6 +38,106 @@ public class ProcessConfigBuilder {
         return this;
     }
 
+    public ProcessConfigBuilder setPipelineDepth(int pipelineDepth) {
+        instance.setPipelineDepth(pipelineDepth);
+        return this;
+    }
+
+    public ProcessConfigBuilder setRetentionWindow(int retentionWindow) {
+        instance.setRetentionWindow(retentionWindow);
+        return this;
+    }
+
+    public ProcessConfigBuilder setBatchMaxWait(long batchMaxWait) {
+        instance.setBatchMaxWait(batchMaxWait);
+        return this;
+    }
+
+    public ProcessConfigBuilder setBatchByteBudget(long batchByteBudget) {
+        instance.setBatchByteBudget(batchByteBudget);
+        return this;
+    }
+
+    public ProcessConfigBuilder setMempoolCapacity(int mempoolCapacity) {
+        instance.setMempoolCapacity(mempoolCapacity);
+        return this;
+    }
+
+    public ProcessConfigBuilder setMempoolClientCapacity(int mempoolClientCapacity) {
+        instance.setMempoolClientCapacity(mempoolClientCapacity);
+        return this;
+    }
+
+    public ProcessConfigBuilder setStoragePath(String storagePath) {
+        instance.setStoragePath(storagePath);
+        return this;
+    }
+
+    public ProcessConfigBuilder setSnapshotInterval(int snapshotInterval) {
+        instance.setSnapshotInterval(snapshotInterval);
+        return this;
+    }
+
+    public ProcessConfigBuilder setDecodeThreads(int decodeThreads) {
+        instance.setDecodeThreads(decodeThreads);
+        return this;
+    }
+
+    public ProcessConfigBuilder setFlushWindow(long flushWindow) {
+        instance.setFlushWindow(flushWindow);
+        return this;
+    }
+
+    public ProcessConfigBuilder setSessionRekeyInterval(long sessionRekeyInterval) {
+        instance.setSessionRekeyInterval(sessionRekeyInterval);
+        return this;
+    }
+
+    public ProcessConfigBuilder setMinRetransmissionTimeout(long minRetransmissionTimeout) {
+        instance.setMinRetransmissionTimeout(minRetransmissionTimeout);
+        return this;
+    }
+
+    public ProcessConfigBuilder setMaxRetransmissionTimeout(long maxRetransmissionTimeout) {
+        instance.setMaxRetransmissionTimeout(maxRetransmissionTimeout);
+        return this;
+    }
+
+    public ProcessConfigBuilder setRetransmissionJitter(double retransmissionJitter) {
+        instance.setRetransmissionJitter(retransmissionJitter);
+        return this;
+    }
+
+    public ProcessConfigBuilder setDispatchThreads(int dispatchThreads) {
+        instance.setDispatchThreads(dispatchThreads);
+        return this;
+    }
+
+    public ProcessConfigBuilder setDispatchQueueDepth(int dispatchQueueDepth) {
+        instance.setDispatchQueueDepth(dispatchQueueDepth);
+        return this;
+    }
+
+    public ProcessConfigBuilder setDispatchCapacity(int dispatchCapacity) {
+        instance.setDispatchCapacity(dispatchCapacity);
+        return this;
+    }
+
+    public ProcessConfigBuilder setSignatureScheme(SignatureScheme signatureScheme) {
+        instance.setSignatureScheme(signatureScheme);
+        return this;
+    }
+
+    public ProcessConfigBuilder setSignatureCacheCapacity(int signatureCacheCapacity) {
+        instance.setSignatureCacheCapacity(signatureCacheCapacity);
+        return this;
+    }
+
+    public ProcessConfigBuilder setMerkleAttestation(boolean merkleAttestation) {
+        instance.setMerkleAttestation(merkleAttestation);
+        return this;
+    }
+
     public ProcessConfig build() {
         return instance;
     }
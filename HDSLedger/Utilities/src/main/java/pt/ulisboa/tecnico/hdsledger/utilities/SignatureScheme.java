@@ -0,0 +1,118 @@
+package pt.ulisboa.tecnico.hdsledger.utilities;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.GeneralSecurityException;
+import java.security.KeyFactory;
+import java.security.PrivateKey;
+import java.security.PublicKey;
+import java.security.Signature;
+import java.security.spec.PKCS8EncodedKeySpec;
+import java.security.spec.X509EncodedKeySpec;
+import java.util.Base64;
+
+/*
+ * Signature algorithm of a process, declared in its configuration. Keys are
+ * stored as X.509 (public) and PKCS#8 (private) encodings, as written by
+ * PKI/RSAKeyGenerator.
+ */
+public enum SignatureScheme {
+    SHA256_WITH_RSA("SHA256withRSA", "RSA"),
+    ED25519("Ed25519", "Ed25519");
+
+    // Signature algorithm (JCA name)
+    private final String algorithm;
+    // Key algorithm (JCA name)
+    private final String keyAlgorithm;
+    // Signature engines are not thread safe, so each thread keeps its own
+    private final ThreadLocal<Signature> engine;
+
+    SignatureScheme(String algorithm, String keyAlgorithm) {
+        this.algorithm = algorithm;
+        this.keyAlgorithm = keyAlgorithm;
+        this.engine = ThreadLocal.withInitial(() -> {
+            try {
+                return Signature.getInstance(algorithm);
+            } catch (GeneralSecurityException e) {
+                throw new IllegalStateException(e);
+            }
+        });
+    }
+
+    public String getAlgorithm() {
+        return algorithm;
+    }
+
+    public byte[] sign(ByteBuffer data, PrivateKey privateKey) throws GeneralSecurityException {
+        Signature signature = engine.get();
+        signature.initSign(privateKey);
+        signature.update(data.duplicate());
+        return signature.sign();
+    }
+
+    public boolean verify(ByteBuffer data, byte[] signature, PublicKey publicKey) {
+        if (publicKey == null || signature == null)
+            return false;
+        try {
+            Signature verifier = engine.get();
+            verifier.initVerify(publicKey);
+            verifier.update(data.duplicate());
+            return verifier.verify(signature);
+        } catch (GeneralSecurityException | IllegalArgumentException e) {
+            return false;
+        }
+    }
+
+    /*
+     * Signs the UTF-8 bytes of a string
+     *
+     * @return Base64 encoded signature
+     */
+    public String sign(String data, PrivateKey privateKey) throws GeneralSecurityException {
+        byte[] signature = sign(ByteBuffer.wrap(data.getBytes(StandardCharsets.UTF_8)), privateKey);
+        return Base64.getEncoder().encodeToString(signature);
+    }
+
+    /*
+     * @param signature Base64 encoded signature
+     */
+    public boolean verify(String data, String signature, PublicKey publicKey) {
+        if (data == null || signature == null)
+            return false;
+        try {
+            return verify(ByteBuffer.wrap(data.getBytes(StandardCharsets.UTF_8)),
+                    Base64.getDecoder().decode(signature), publicKey);
+        } catch (IllegalArgumentException e) {
+            return false;
+        }
+    }
+
+    public PublicKey readPublicKey(String path) throws IOException, GeneralSecurityException {
+        byte[] encoded = Files.readAllBytes(Path.of(path));
+        return KeyFactory.getInstance(keyAlgorithm).generatePublic(new X509EncodedKeySpec(encoded));
+    }
+
+    public PrivateKey readPrivateKey(String path) throws IOException, GeneralSecurityException {
+        byte[] encoded = Files.readAllBytes(Path.of(path));
+        return KeyFactory.getInstance(keyAlgorithm).generatePrivate(new PKCS8EncodedKeySpec(encoded));
+    }
+
+    /*
+     * Decodes an X.509 encoded public key of any of the schemes
+     *
+     * @return The key or null if no scheme can decode it
+     */
+    public static PublicKey decodePublicKey(byte[] encoded) {
+        for (SignatureScheme scheme : values()) {
+            try {
+                return KeyFactory.getInstance(scheme.keyAlgorithm).generatePublic(new X509EncodedKeySpec(encoded));
+            } catch (GeneralSecurityException e) {
+                // Try the next scheme
+            }
+        }
+        return null;
+    }
+}
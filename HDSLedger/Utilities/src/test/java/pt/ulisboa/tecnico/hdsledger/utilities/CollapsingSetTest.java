@@ -0,0 +1,96 @@
+package pt.ulisboa.tecnico.hdsledger.utilities;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import org.junit.jupiter.api.Test;
+
+public class CollapsingSetTest {
+
+    @Test
+    public void gapIsNeverCountedAsAdded() {
+        CollapsingSet set = new CollapsingSet(4);
+
+        // 1 is missing, the rest arrive out of order
+        assertTrue(set.add(0));
+        assertTrue(set.add(3));
+        assertTrue(set.add(2));
+        assertTrue(set.add(4));
+
+        assertFalse(set.contains(1));
+        assertTrue(set.contains(3));
+
+        // Too far ahead of the gap, refused instead of moving past it
+        assertFalse(set.accepts(5));
+        assertFalse(set.add(5));
+        assertFalse(set.contains(1));
+        assertFalse(set.contains(5));
+    }
+
+    @Test
+    public void gapFilledCollapsesIntoFloor() {
+        CollapsingSet set = new CollapsingSet(4);
+        set.add(0);
+        set.add(2);
+        set.add(3);
+
+        assertTrue(set.add(1));
+        assertTrue(set.contains(1));
+        assertTrue(set.contains(3));
+        assertFalse(set.add(2));
+
+        // The window is measured from the new floor
+        assertTrue(set.accepts(7));
+        assertFalse(set.accepts(8));
+        assertTrue(set.add(7));
+        assertFalse(set.contains(6));
+    }
+
+    @Test
+    public void sharedCounterStallsInterleavedReceivers() {
+        // One counter for every destination: each receiver only sees every other id
+        CollapsingSet first = new CollapsingSet(4);
+        CollapsingSet second = new CollapsingSet(4);
+        int counter = 0;
+        for (int i = 0; i < 4; i++) {
+            first.add(counter++);
+            second.add(counter++);
+        }
+
+        // The floors never pass the ids sent to the other receiver
+        assertEquals(0, first.getFloor());
+        assertEquals(-1, second.getFloor());
+        assertFalse(first.accepts(counter));
+        assertFalse(second.accepts(counter));
+    }
+
+    @Test
+    public void perDestinationCountersKeepInterleavedReceiversCollapsing() {
+        // One counter per destination (as in PerfectLink): every receiver sees consecutive ids
+        Map<String, CollapsingSet> received = new HashMap<>();
+        Map<String, Integer> counters = new HashMap<>();
+        String[] destinations = { "1", "2", "3" };
+        for (String destination : destinations) {
+            received.put(destination, new CollapsingSet(4));
+            counters.put(destination, 0);
+        }
+
+        // Far more messages than the window, interleaved among the destinations
+        for (int i = 0; i < 100; i++) {
+            String destination = destinations[i % destinations.length];
+            int messageId = counters.merge(destination, 1, Integer::sum) - 1;
+            assertTrue(received.get(destination).accepts(messageId));
+            assertTrue(received.get(destination).add(messageId));
+        }
+
+        for (String destination : destinations) {
+            CollapsingSet set = received.get(destination);
+            assertEquals(counters.get(destination) - 1, set.getFloor());
+            assertTrue(set.accepts(set.getFloor() + 4));
+        }
+    }
+}